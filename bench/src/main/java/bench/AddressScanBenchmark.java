@@ -0,0 +1,79 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import editor.BinaryWrapper;
+import editor.DataSegmentSwapper;
+import editor.EditLayout;
+import macho.commands.Segment;
+
+/**
+ * Measures the address scan that {@link DataSegmentSwapper} runs over the Objective-C sections of a 32-bit file
+ * without rebase information, by calling {@link Segment#updateObjCAddressesIfNeeded(BinaryWrapper, EditLayout)}
+ * on the {@code __OBJC} segment of a file made in Objective-C mode, as if {@code __DATA} had grown by a page.
+ * <br>
+ * The layout moves every address above {@code __DATA}, which is most of those in the file. A moved address stays
+ * above it, so every invocation rewrites about the same number of words.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AddressScanBenchmark {
+
+    @Param({"1048576", "67108864"})
+    public long scanSize;
+
+    private Path file;
+    private BinaryWrapper binary;
+    private DataSegmentSwapper swapper;
+    private Segment objC;
+    private EditLayout layout;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Files.createTempFile("scan", ".bin");
+        // Three data segments, so __OBJC, the last of them, is about as large as the scan.
+        MachOGenerator generator = new MachOGenerator(16, 5, scanSize * 4 + MachOGenerator.PAGE_SIZE, 1, true);
+        MachOGenerator.Layout generated = generator.generate(file);
+        binary = new BinaryWrapper(file);
+        swapper = new DataSegmentSwapper(binary, null);
+        swapper.parseHeader();
+        objC = swapper.getSegmentIndex().findSegment(MachOGenerator.OBJC_SEGMENT);
+        long dataOffset = generated.getSegmentOffset(1);
+        layout = EditLayout.forSingleEdit(dataOffset, generator.getBaseAddress() + dataOffset, MachOGenerator.PAGE_SIZE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        swapper.close();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public void scan() throws IOException {
+        // The fields of the segment are read relative to the start of its command, as DataSegmentSwapper does.
+        binary.setPosition(objC.getCommandStartOffset());
+        objC.updateObjCAddressesIfNeeded(binary, layout);
+    }
+
+}
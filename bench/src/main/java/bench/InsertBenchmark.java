@@ -0,0 +1,85 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import editor.BinaryWrapper;
+
+/**
+ * Measures {@link BinaryWrapper#insertFileAtOffsetOverriding(long, FileChannel, long)} growing a file by a
+ * small insertion, which is dominated by moving the tail of the file that follows it. <br>
+ * Each invocation inserts {@link #INSERTED_SIZE} bytes in front of a tail of {@link #tailSize} bytes, and the
+ * untimed tear down removes them again, so the file is the same for every invocation.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InsertBenchmark {
+
+    private static final int INSERTED_SIZE = 64 * 1024;
+
+    @Param({"1048576", "67108864", "1073741824"})
+    public long tailSize;
+
+    private Path file;
+    private Path inserted;
+    private Path empty;
+    private BinaryWrapper binary;
+    private FileChannel insertedChannel;
+    private FileChannel emptyChannel;
+    private long position;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Files.createTempFile("insert", ".bin");
+        long size = new MachOGenerator(16, 3, tailSize + MachOGenerator.PAGE_SIZE, 1).generate(file).getFileSize();
+        position = size - tailSize;
+        inserted = Files.write(Files.createTempFile("inserted", ".bin"), new byte[INSERTED_SIZE]);
+        empty = Files.createTempFile("empty", ".bin");
+        binary = new BinaryWrapper(file);
+        insertedChannel = FileChannel.open(inserted, StandardOpenOption.READ);
+        emptyChannel = FileChannel.open(empty, StandardOpenOption.READ);
+    }
+
+    @TearDown(Level.Invocation)
+    public void removeInsertion() throws IOException {
+        binary.insertFileAtOffsetOverriding(position, emptyChannel, INSERTED_SIZE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        insertedChannel.close();
+        emptyChannel.close();
+        binary.close();
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(inserted);
+        Files.deleteIfExists(empty);
+    }
+
+    @Benchmark
+    public void insert() throws IOException {
+        binary.insertFileAtOffsetOverriding(position, insertedChannel, 0);
+    }
+
+}
@@ -0,0 +1,369 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.SplittableRandom;
+
+import macho.MachOCommandTypeEnum;
+import macho.MachOHeader;
+
+/**
+ * Writes synthetic 64-bit Mach-O files for the benchmarks. <br>
+ * A file has a {@code __TEXT} segment holding the header, a number of data segments named {@code __DATA},
+ * {@code __DATA_1} and so on, each with a single section, and a {@code __LINKEDIT} segment holding an empty
+ * symbol table. The remaining load commands are {@code LC_LOAD_DYLIB} commands. The data segments are filled
+ * with 64-bit words, one in eight of which is an address inside the file's image, so that address scans have
+ * realistic work to do. <br>
+ * In Objective-C mode the file is 32-bit instead, since only 32-bit files have an {@code __OBJC} segment, and
+ * the last data segment is named {@code __OBJC} with a single {@code __class} section, which
+ * {@link editor.DataSegmentSwapper} scans for addresses. Its data segments are filled with 32-bit words, again
+ * one in eight of them an address. <br>
+ * The contents are streamed out in chunks, so files of many gigabytes can be generated with little memory.
+ */
+public class MachOGenerator {
+
+    /**
+     * The address the image is loaded at.
+     */
+    public static final long BASE_ADDRESS = 0x100000000L;
+    /**
+     * The address the image of a 32-bit file, made in Objective-C mode, is loaded at.
+     */
+    public static final long BASE_ADDRESS_32 = 0x1000L;
+    /**
+     * The alignment of every segment, both in the file and in memory.
+     */
+    public static final int PAGE_SIZE = 4096;
+    /**
+     * The name of the first data segment, which the benchmarks edit.
+     */
+    public static final String DATA_SEGMENT = "__DATA";
+    /**
+     * The name of the last data segment in Objective-C mode.
+     */
+    public static final String OBJC_SEGMENT = "__OBJC";
+
+    private static final int CPU_TYPE_X86_64 = 0x01000007;
+    private static final int CPU_SUBTYPE_X86_64_ALL = 3;
+    private static final int CPU_TYPE_I386 = 7;
+    private static final int CPU_SUBTYPE_I386_ALL = 3;
+    private static final int MH_EXECUTE = 2;
+    private static final int MH_NOUNDEFS = 1;
+    private static final int SEGMENT_64_SIZE = 72;
+    private static final int SECTION_64_SIZE = 80;
+    private static final int SEGMENT_SIZE = 56;
+    private static final int SECTION_SIZE = 68;
+    private static final int SYMTAB_SIZE = 24;
+    private static final int LOAD_DYLIB_SIZE = 56;
+    private static final int LINKEDIT_SIZE = PAGE_SIZE;
+    private static final int CHUNK_SIZE = 1024 * 1024;
+    private static final int VM_PROT_READ_EXECUTE = 5;
+    private static final int VM_PROT_READ_WRITE = 3;
+    private static final int VM_PROT_ALL = 7;
+
+    private final int commandCount;
+    private final int segmentCount;
+    private final long fileSize;
+    private final long seed;
+    private final boolean objC;
+
+    /**
+     * Creates a generator of 64-bit files.
+     * @param commandCount The number of load commands, at least one more than the number of segments.
+     * @param segmentCount The number of segments, at least three: {@code __TEXT}, {@code __DATA} and
+     * {@code __LINKEDIT}.
+     * @param fileSize The approximate size of the file, up to 4 GB. Every segment is rounded up to whole pages.
+     * @param seed The seed of the contents, so that the same arguments always give the same file.
+     */
+    public MachOGenerator(int commandCount, int segmentCount, long fileSize, long seed) {
+        this(commandCount, segmentCount, fileSize, seed, false);
+    }
+
+    /**
+     * Creates a generator.
+     * @param commandCount The number of load commands, at least one more than the number of segments.
+     * @param segmentCount The number of segments, at least three: {@code __TEXT}, {@code __DATA} and
+     * {@code __LINKEDIT}.
+     * @param fileSize The approximate size of the file, up to 4 GB. Every segment is rounded up to whole pages.
+     * @param seed The seed of the contents, so that the same arguments always give the same file.
+     * @param objC True for a 32-bit file whose last data segment is {@code __OBJC}, which takes at least four
+     * segments, false for a 64-bit file.
+     */
+    public MachOGenerator(int commandCount, int segmentCount, long fileSize, long seed, boolean objC) {
+        if (segmentCount < 3) {
+            throw new IllegalArgumentException("Need at least 3 segments but got " + segmentCount);
+        }
+        if (objC && segmentCount < 4) {
+            throw new IllegalArgumentException("Need at least 4 segments for both " + DATA_SEGMENT + " and " + OBJC_SEGMENT);
+        }
+        if (commandCount < segmentCount + 1) {
+            throw new IllegalArgumentException("Need at least " + (segmentCount + 1) + " commands for " + segmentCount + " segments");
+        }
+        this.commandCount = commandCount;
+        this.segmentCount = segmentCount;
+        this.fileSize = fileSize;
+        this.seed = seed;
+        this.objC = objC;
+    }
+
+    /**
+     * Writes a file. Usage is {@code MachOGenerator [-objc] pathToOutput commandCount segmentCount fileSize},
+     * where the size may end in K, M or G. With {@code -objc} the file is made in Objective-C mode.
+     * @param args
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        boolean objC = args.length > 0 && args[0].equals("-objc");
+        int argument = objC ? 1 : 0;
+        if (args.length != argument + 4) {
+            System.out.println("Invalid args. Needs [-objc] pathToOutput commandCount segmentCount fileSize");
+            return;
+        }
+        long time = System.nanoTime();
+        Layout layout = new MachOGenerator(Integer.parseInt(args[argument + 1]), Integer.parseInt(args[argument + 2]),
+                parseSize(args[argument + 3]), 1, objC).generate(Paths.get(args[argument]));
+        System.out.println(String.format("Wrote %d bytes in %.3f s", layout.getFileSize(), (System.nanoTime() - time) / 1e9));
+    }
+
+    /**
+     * Parses a size such as {@code 512M} or {@code 4G}.
+     * @param size The size, optionally followed by K, M or G.
+     * @return The size, in bytes.
+     */
+    public static long parseSize(String size) {
+        String upper = size.trim().toUpperCase();
+        int shift = 0;
+        switch (upper.charAt(upper.length() - 1)) {
+            case 'K':
+                shift = 10;
+                break;
+            case 'M':
+                shift = 20;
+                break;
+            case 'G':
+                shift = 30;
+                break;
+            default:
+                return Long.parseLong(upper);
+        }
+        return Long.parseLong(upper.substring(0, upper.length() - 1)) << shift;
+    }
+
+    /**
+     * Gets the address the image of the files made by this generator is loaded at.
+     * @return {@link #BASE_ADDRESS_32} in Objective-C mode, {@link #BASE_ADDRESS} otherwise.
+     */
+    public long getBaseAddress() {
+        return objC ? BASE_ADDRESS_32 : BASE_ADDRESS;
+    }
+
+    /**
+     * Writes the file, replacing it if it exists.
+     * @param output The Path to write to.
+     * @return Where everything was placed in the file.
+     * @throws IOException
+     */
+    public Layout generate(Path output) throws IOException {
+        Layout layout = new Layout();
+        try (FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            SplittableRandom random = new SplittableRandom(seed);
+            ByteBuffer header = createHeader(layout);
+            writeFully(channel, header, 0);
+            fill(channel, layout, random, header.capacity(), layout.segmentOffsets[0] + layout.segmentSizes[0], false);
+            for (int i = 1; i < segmentCount - 1; i++) {
+                fill(channel, layout, random, layout.segmentOffsets[i], layout.segmentOffsets[i] + layout.segmentSizes[i], true);
+            }
+            // The link edit segment holds a string table with just the empty name.
+            writeFully(channel, ByteBuffer.allocate(LINKEDIT_SIZE), layout.segmentOffsets[segmentCount - 1]);
+        }
+        return layout;
+    }
+
+    private ByteBuffer createHeader(Layout layout) {
+        int dylibCount = commandCount - segmentCount - 1;
+        // Every segment but __LINKEDIT has one section.
+        int commandsSize = getSegmentCommandSize(1) * (segmentCount - 1) + getSegmentCommandSize(0) + SYMTAB_SIZE + LOAD_DYLIB_SIZE * dylibCount;
+        int headerSize = (objC ? MachOHeader.HEADER_SIZE : MachOHeader.HEADER_SIZE_64) + commandsSize;
+        ByteBuffer header = ByteBuffer.allocate(headerSize).order(ByteOrder.LITTLE_ENDIAN);
+        if (objC) {
+            header.putInt(MachOHeader.MH_MAGIC).putInt(CPU_TYPE_I386).putInt(CPU_SUBTYPE_I386_ALL);
+        }
+        else {
+            header.putInt(MachOHeader.MH_MAGIC_64).putInt(CPU_TYPE_X86_64).putInt(CPU_SUBTYPE_X86_64_ALL);
+        }
+        header.putInt(MH_EXECUTE).putInt(commandCount).putInt(commandsSize).putInt(MH_NOUNDEFS);
+        if (!objC) {
+            // Reserved.
+            header.putInt(0);
+        }
+        // A quarter of the file is code, the rest is shared between the data segments.
+        long payload = Math.max(0, fileSize - LINKEDIT_SIZE - headerSize);
+        int dataSegments = segmentCount - 2;
+        layout.segmentSizes[0] = roundToPage(headerSize + payload / 4);
+        long dataSize = roundToPage(Math.max(PAGE_SIZE, payload * 3 / 4 / dataSegments));
+        long offset = 0;
+        for (int i = 0; i < segmentCount; i++) {
+            if (i > 0) {
+                layout.segmentSizes[i] = i == segmentCount - 1 ? LINKEDIT_SIZE : dataSize;
+            }
+            layout.segmentOffsets[i] = offset;
+            offset += layout.segmentSizes[i];
+        }
+        layout.fileSize = offset;
+        if (offset > 0xFFFFFFFFL || (objC && BASE_ADDRESS_32 + offset > 0xFFFFFFFFL)) {
+            // Sections and the symbol table only have 32-bit file offsets, and a 32-bit image has 32-bit addresses.
+            throw new IllegalArgumentException("A Mach-O file can be at most 4 GB but this one would be " + offset + " bytes");
+        }
+        putSegment(header, "__TEXT", "__text", layout, 0, headerSize, VM_PROT_READ_EXECUTE);
+        for (int i = 1; i < segmentCount - 1; i++) {
+            if (objC && i == segmentCount - 2) {
+                putSegment(header, OBJC_SEGMENT, "__class", layout, i, 0, VM_PROT_READ_WRITE);
+            }
+            else {
+                putSegment(header, i == 1 ? DATA_SEGMENT : DATA_SEGMENT + "_" + (i - 1), "__data", layout, i, 0, VM_PROT_READ_WRITE);
+            }
+        }
+        long linkEditOffset = layout.segmentOffsets[segmentCount - 1];
+        putSegmentCommand(header, "__LINKEDIT", linkEditOffset, LINKEDIT_SIZE, VM_PROT_READ_EXECUTE, 0);
+        header.putInt(MachOCommandTypeEnum.SYM_TAB.getCommandValue()).putInt(SYMTAB_SIZE)
+                .putInt((int) linkEditOffset).putInt(0).putInt((int) linkEditOffset).putInt(1);
+        for (int i = 0; i < dylibCount; i++) {
+            header.putInt(MachOCommandTypeEnum.LOAD_DYLIB.getCommandValue()).putInt(LOAD_DYLIB_SIZE)
+                    .putInt(24).putInt(2).putInt(0x10000).putInt(0x10000);
+            putName(header, String.format("/usr/lib/lib%06d.dylib", i), LOAD_DYLIB_SIZE - 24);
+        }
+        header.flip();
+        return header;
+    }
+
+    private void putSegment(ByteBuffer header, String segmentName, String sectionName, Layout layout, int index,
+            int sectionStart, int protection) {
+        long offset = layout.segmentOffsets[index];
+        long size = layout.segmentSizes[index];
+        putSegmentCommand(header, segmentName, offset, size, protection, 1);
+        putName(header, sectionName, 16);
+        putName(header, segmentName, 16);
+        putField(header, getBaseAddress() + offset + sectionStart);
+        putField(header, size - sectionStart);
+        header.putInt((int) (offset + sectionStart)).putInt(4).putInt(0).putInt(0).putInt(0).putInt(0).putInt(0);
+        if (!objC) {
+            // The third reserved word only exists in 64-bit sections.
+            header.putInt(0);
+        }
+    }
+
+    private void putSegmentCommand(ByteBuffer header, String name, long offset, long size, int protection, int sections) {
+        MachOCommandTypeEnum type = objC ? MachOCommandTypeEnum.SEGMENT : MachOCommandTypeEnum.SEGMENT_64;
+        header.putInt(type.getCommandValue()).putInt(getSegmentCommandSize(sections));
+        putName(header, name, 16);
+        putField(header, getBaseAddress() + offset);
+        putField(header, size);
+        putField(header, offset);
+        putField(header, size);
+        header.putInt(VM_PROT_ALL).putInt(protection).putInt(sections).putInt(0);
+    }
+
+    private int getSegmentCommandSize(int sections) {
+        return objC ? SEGMENT_SIZE + SECTION_SIZE * sections : SEGMENT_64_SIZE + SECTION_64_SIZE * sections;
+    }
+
+    /**
+     * Puts an address, offset or size, which is 32 bits wide in a 32-bit file and 64 bits wide otherwise.
+     */
+    private void putField(ByteBuffer header, long value) {
+        if (objC) {
+            header.putInt((int) value);
+        }
+        else {
+            header.putLong(value);
+        }
+    }
+
+    private static void putName(ByteBuffer header, String name, int size) {
+        byte[] bytes = name.getBytes(StandardCharsets.US_ASCII);
+        header.put(bytes, 0, Math.min(bytes.length, size - 1));
+        for (int i = Math.min(bytes.length, size - 1); i < size; i++) {
+            header.put((byte) 0);
+        }
+    }
+
+    private static long roundToPage(long size) {
+        return (size + PAGE_SIZE - 1) / PAGE_SIZE * PAGE_SIZE;
+    }
+
+    private void fill(FileChannel channel, Layout layout, SplittableRandom random, long start, long end, boolean pointers)
+            throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        long position = start;
+        while (position < end) {
+            int length = (int) Math.min(CHUNK_SIZE, end - position);
+            chunk.clear().limit(length);
+            if (objC && pointers) {
+                while (chunk.remaining() >= 4) {
+                    boolean pointer = random.nextInt(8) == 0;
+                    chunk.putInt(pointer ? (int) (BASE_ADDRESS_32 + random.nextLong(layout.fileSize)) : random.nextInt());
+                }
+            }
+            while (chunk.remaining() >= 8) {
+                boolean pointer = pointers && random.nextInt(8) == 0;
+                chunk.putLong(pointer ? BASE_ADDRESS + random.nextLong(layout.fileSize) : random.nextLong());
+            }
+            while (chunk.hasRemaining()) {
+                chunk.put((byte) 0);
+            }
+            chunk.flip();
+            writeFully(channel, chunk, position);
+            position += length;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer, position + written);
+        }
+    }
+
+    /**
+     * Where the segments of a generated file were placed.
+     */
+    public class Layout {
+        private final long[] segmentOffsets = new long[segmentCount];
+        private final long[] segmentSizes = new long[segmentCount];
+        private long fileSize;
+
+        /**
+         * Gets the size of the generated file.
+         * @return The size, in bytes.
+         */
+        public long getFileSize() {
+            return fileSize;
+        }
+
+        /**
+         * Gets the offset of a segment, which is also its address less {@link MachOGenerator#getBaseAddress()}.
+         * @param index The index of the segment, 0 being {@code __TEXT} and 1 {@code __DATA}.
+         * @return The offset.
+         */
+        public long getSegmentOffset(int index) {
+            return segmentOffsets[index];
+        }
+
+        /**
+         * Gets the size of a segment, both in the file and in memory.
+         * @param index The index of the segment, 0 being {@code __TEXT} and 1 {@code __DATA}.
+         * @return The size, in bytes.
+         */
+        public long getSegmentSize(int index) {
+            return segmentSizes[index];
+        }
+    }
+
+}
@@ -0,0 +1,88 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import editor.BinaryWrapper;
+import editor.DataSegmentSwapper;
+import editor.HeaderCache;
+import macho.commands.AbstractMachOCommand;
+
+/**
+ * Measures {@link DataSegmentSwapper#parseHeader()}, including opening the file, for files with a growing
+ * number of load commands, both parsing them and loading them from a {@link HeaderCache} that already holds
+ * an entry for the file.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParseHeaderBenchmark {
+
+    @Param({"16", "256", "4096"})
+    public int commandCount;
+
+    @Param({"8"})
+    public int segmentCount;
+
+    private Path file;
+    private Path cacheDirectory;
+    private HeaderCache cache;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Files.createTempFile("parse", ".bin");
+        new MachOGenerator(commandCount, segmentCount, 4L * 1024 * 1024, 1).generate(file);
+        cacheDirectory = Files.createTempDirectory("parse-cache");
+        cache = new HeaderCache(cacheDirectory, HeaderCache.DEFAULT_MAX_SIZE);
+        // The first parse fills the cache, so every measured one is a hit.
+        parseHeaderCached();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+        try (Stream<Path> entries = Files.list(cacheDirectory)) {
+            for (Path entry : (Iterable<Path>) entries::iterator) {
+                Files.deleteIfExists(entry);
+            }
+        }
+        Files.deleteIfExists(cacheDirectory);
+    }
+
+    @Benchmark
+    public List<AbstractMachOCommand> parseHeader() throws IOException {
+        try (DataSegmentSwapper swapper = new DataSegmentSwapper(BinaryWrapper.openReadOnly(file), null)) {
+            return swapper.parseHeader();
+        }
+    }
+
+    @Benchmark
+    public List<AbstractMachOCommand> parseHeaderCached() throws IOException {
+        try (DataSegmentSwapper swapper = new DataSegmentSwapper(BinaryWrapper.openReadOnly(file), null)) {
+            swapper.useHeaderCache(cache, file);
+            return swapper.parseHeader();
+        }
+    }
+
+}
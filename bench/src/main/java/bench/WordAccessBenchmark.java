@@ -0,0 +1,89 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import editor.BinaryWrapper;
+import macho.MachOHeader;
+
+/**
+ * Measures the single word primitives of {@link BinaryWrapper}: reads and writes at random positions in the
+ * file, and relative reads within the header image, which is how load commands are parsed.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WordAccessBenchmark {
+
+    private static final int POSITION_COUNT = 4096;
+
+    private Path file;
+    private BinaryWrapper binary;
+    private long[] positions;
+    private int next;
+    private int headerWords;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Files.createTempFile("words", ".bin");
+        long size = new MachOGenerator(64, 4, 64L * 1024 * 1024, 1).generate(file).getFileSize();
+        binary = new BinaryWrapper(file);
+        MachOHeader header = MachOHeader.read(binary);
+        headerWords = (header.getFirstCommandOffset() + header.getCommandsSize()) / 4;
+        binary.setPosition(0);
+        SplittableRandom random = new SplittableRandom(2);
+        positions = new long[POSITION_COUNT];
+        for (int i = 0; i < positions.length; i++) {
+            // Beyond the header image, so every access goes to the file.
+            positions[i] = (MachOGenerator.PAGE_SIZE + random.nextLong(size - MachOGenerator.PAGE_SIZE)) & ~3L;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        binary.close();
+        Files.deleteIfExists(file);
+    }
+
+    private long nextPosition() {
+        next = (next + 1) & (POSITION_COUNT - 1);
+        return positions[next];
+    }
+
+    @Benchmark
+    public int readWord() throws IOException {
+        return binary.getSingleWordAtPosition(nextPosition());
+    }
+
+    @Benchmark
+    public void writeWord() throws IOException {
+        long position = nextPosition();
+        binary.setSingleWordAtPosition((int) position, position);
+    }
+
+    @Benchmark
+    public int readHeaderWord() throws IOException {
+        next = (next + 1) % headerWords;
+        return binary.getSingleWordAtRelativePosition(next * 4);
+    }
+
+}
@@ -0,0 +1,190 @@
+package editor;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Rewrites every word in a range of a file that looks like an address moved by an {@link EditLayout}. <br>
+ * The range is read into memory in chunks, the matching words are rewritten in the buffer and each chunk
+ * that changed is written back with a single write. Ranges larger than one chunk are split between the
+ * threads of a {@link ForkJoinPool}. Only whole words that lie within the range are considered.
+ */
+public class AddressRewriter {
+
+    /**
+     * The size of the chunks a range is split into unless otherwise specified.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+    /**
+     * The largest span of the file read at once by {@link #rewriteAt(BinaryWrapper, long[], int, int, EditLayout)}.
+     */
+    public static final int DEFAULT_SPAN_SIZE = 64 * 1024;
+    private static final int WORD_SIZE = 4;
+    private static final AddressRewriter DEFAULT = new AddressRewriter(ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+
+    /**
+     * Creates an {@link AddressRewriter}.
+     * @param pool The pool to split large ranges across.
+     * @param chunkSize The largest number of bytes to read, rewrite and write back at once. Rounded down to a
+     * whole number of words.
+     */
+    public AddressRewriter(ForkJoinPool pool, int chunkSize) {
+        if (chunkSize < WORD_SIZE) {
+            throw new IllegalArgumentException("Invalid chunk size " + chunkSize);
+        }
+        this.pool = pool;
+        this.chunkSize = chunkSize - chunkSize % WORD_SIZE;
+    }
+
+    /**
+     * Gets the {@link AddressRewriter} using the common {@link ForkJoinPool} and {@link #DEFAULT_CHUNK_SIZE}.
+     * @return The default {@link AddressRewriter}.
+     */
+    public static AddressRewriter getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Adds the appropriate shift to every word in the range that is an address after one of the edits
+     * described by the layout.
+     * @param binary The file to modify.
+     * @param start The absolute position of the start of the range.
+     * @param length The length of the range, in bytes.
+     * @param layout The modifications that were made.
+     * @return The number of words that were changed.
+     * @throws IOException
+     */
+    public long rewrite(BinaryWrapper binary, long start, long length, EditLayout layout) throws IOException {
+        long wordsLength = length - length % WORD_SIZE;
+        if (wordsLength <= chunkSize) {
+            return rewriteChunk(binary, start, (int) wordsLength, layout);
+        }
+        try {
+            return pool.invoke(new RewriteTask(binary, start, wordsLength, layout));
+        }
+        catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Adds the appropriate shift to the pointers at exactly the given positions, such as the locations listed
+     * by a file's rebase information. Unlike {@link #rewrite(BinaryWrapper, long, long, EditLayout)}, no
+     * other word is touched. The positions are sorted and those close together are read, rewritten and
+     * written back as a single span.
+     * @param binary The file to modify.
+     * @param positions The absolute positions of the pointers to rewrite. The array is sorted in place.
+     * @param count How many entries of the array are used.
+     * @param pointerSize The size of each pointer, either 4 or 8 bytes.
+     * @param layout The modifications that were made.
+     * @return The number of pointers that were changed.
+     * @throws IOException
+     */
+    public long rewriteAt(BinaryWrapper binary, long[] positions, int count, int pointerSize, EditLayout layout) throws IOException {
+        if (pointerSize != WORD_SIZE && pointerSize != 2 * WORD_SIZE) {
+            throw new IllegalArgumentException("Invalid pointer size " + pointerSize);
+        }
+        Arrays.sort(positions, 0, count);
+        long changedPointers = 0;
+        int first = 0;
+        while (first < count) {
+            long spanStart = positions[first];
+            int last = first;
+            while (last + 1 < count && positions[last + 1] + pointerSize - spanStart <= DEFAULT_SPAN_SIZE) {
+                last++;
+            }
+            ByteBuffer span = ByteBuffer.allocate((int) (positions[last] + pointerSize - spanStart)).order(ByteOrder.LITTLE_ENDIAN);
+            binary.getMetrics().onBufferAllocated(span.capacity());
+            binary.getBytesAtPosition(span, spanStart);
+            long changedInSpan = 0;
+            for (int i = first; i <= last; i++) {
+                int position = (int) (positions[i] - spanStart);
+                long pointer = pointerSize == WORD_SIZE ? Integer.toUnsignedLong(span.getInt(position)) : span.getLong(position);
+                long addressDiff = layout.getAddressShift(pointer);
+                if (addressDiff != 0) {
+                    if (pointerSize == WORD_SIZE) {
+                        span.putInt(position, (int) (pointer + addressDiff));
+                    }
+                    else {
+                        span.putLong(position, pointer + addressDiff);
+                    }
+                    changedInSpan++;
+                }
+                // Skip duplicates so a pointer is never shifted twice.
+                while (i < last && positions[i + 1] == positions[i]) {
+                    i++;
+                }
+            }
+            if (changedInSpan > 0) {
+                span.clear();
+                binary.setBytesAtPosition(span, spanStart);
+                changedPointers += changedInSpan;
+            }
+            first = last + 1;
+        }
+        return changedPointers;
+    }
+
+    private static long rewriteChunk(BinaryWrapper binary, long start, int length, EditLayout layout) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        binary.getMetrics().onBufferAllocated(length);
+        binary.getBytesAtPosition(chunk, start);
+        long changedWords = 0;
+        for (int position = 0; position < length; position += WORD_SIZE) {
+            long currentWordValue = Integer.toUnsignedLong(chunk.getInt(position));
+            // We pray it is actually an address value.
+            long addressDiff = layout.getAddressShift(currentWordValue);
+            if (addressDiff != 0) {
+                chunk.putInt(position, (int) (currentWordValue + addressDiff));
+                changedWords++;
+            }
+        }
+        if (changedWords > 0) {
+            chunk.clear();
+            binary.setBytesAtPosition(chunk, start);
+        }
+        return changedWords;
+    }
+
+    private class RewriteTask extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+        private final transient BinaryWrapper binary;
+        private final long start;
+        private final long length;
+        private final transient EditLayout layout;
+
+        RewriteTask(BinaryWrapper binary, long start, long length, EditLayout layout) {
+            this.binary = binary;
+            this.start = start;
+            this.length = length;
+            this.layout = layout;
+        }
+
+        @SuppressWarnings("synthetic-access")
+        @Override
+        protected Long compute() {
+            if (length <= chunkSize) {
+                try {
+                    return rewriteChunk(binary, start, (int) length, layout);
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            long firstHalf = length / 2 - (length / 2) % WORD_SIZE;
+            RewriteTask first = new RewriteTask(binary, start, firstHalf, layout);
+            RewriteTask second = new RewriteTask(binary, start + firstHalf, length - firstHalf, layout);
+            first.fork();
+            return second.compute() + first.join();
+        }
+    }
+
+}
@@ -0,0 +1,472 @@
+package editor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import macho.FatHeader;
+import macho.MachOHeader;
+
+/**
+ * Runs a {@link DataSegmentSwapper} over many Mach-O files from a single JVM. <br>
+ * The files are either listed in a manifest, one edit per line, or found by walking a directory tree, in
+ * which case the named segment of every Mach-O file found is replaced, in every architecture of universal
+ * binaries. Files are edited concurrently on a
+ * fixed size thread pool. Each file is handled on its own, so a failure is reported for that file and does
+ * not affect any of the others.
+ */
+public class BatchSwapper {
+
+    /**
+     * The number of files edited at once unless otherwise specified.
+     */
+    public static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
+
+    private final int threads;
+    private final HeaderCache headerCache;
+    private final SwapMetrics metrics;
+
+    /**
+     * Creates a {@link BatchSwapper}.
+     * @param threads The largest number of files to edit at once.
+     */
+    public BatchSwapper(int threads) {
+        this(threads, null);
+    }
+
+    /**
+     * Creates a {@link BatchSwapper} that keeps the parsed load commands of the files it edits in a cache.
+     * @param threads The largest number of files to edit at once.
+     * @param headerCache The cache, or null to always parse the load commands.
+     */
+    public BatchSwapper(int threads, HeaderCache headerCache) {
+        this(threads, headerCache, SwapMetrics.NONE);
+    }
+
+    /**
+     * Creates a {@link BatchSwapper} that reports the work done on every file to a single listener.
+     * @param threads The largest number of files to edit at once.
+     * @param headerCache The cache, or null to always parse the load commands.
+     * @param metrics The listener, which is called from every thread, or {@link SwapMetrics#NONE}.
+     */
+    public BatchSwapper(int threads, HeaderCache headerCache, SwapMetrics metrics) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Invalid thread count " + threads);
+        }
+        this.threads = threads;
+        this.headerCache = headerCache;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Edits a batch of Mach-O files, printing the result for each file and the overall throughput.
+     * Usage is one of:
+     * <pre>
+     * BatchSwapper [-threads n] [-cache pathToCacheDirectory] [-metrics pathToJson] [-jfr] -manifest pathToManifest
+     * BatchSwapper [-threads n] [-cache pathToCacheDirectory] [-metrics pathToJson] [-jfr] -dir pathToDirectory segmentName pathToNewSegment [pathToOutputDirectory]
+     * </pre>
+     * Each line of a manifest is {@code pathToBinary pathToNewSegment offset address oldSize [pathToOutput]}.
+     * Blank lines and lines starting with {@code #} are ignored, and relative paths are resolved against the
+     * directory holding the manifest. In directory mode the edited files are written to the same relative
+     * paths under the output directory, or edited in place if none is given. With {@code -cache} the parsed
+     * load commands of each file are kept in a {@link HeaderCache} in the given directory. With {@code -metrics}
+     * a {@link JsonMetricsReporter} summary of the I/O and phase times of the whole batch is written to the
+     * given file, and with {@code -jfr} {@link JfrMetrics} events are emitted for any running flight recording.
+     * @param args
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        int threads = DEFAULT_THREADS;
+        HeaderCache headerCache = null;
+        int argument = 0;
+        if (args.length > argument + 1 && args[argument].equals("-threads")) {
+            threads = Integer.parseInt(args[argument + 1]);
+            argument += 2;
+        }
+        if (args.length > argument + 1 && args[argument].equals("-cache")) {
+            headerCache = new HeaderCache(Paths.get(args[argument + 1]), HeaderCache.DEFAULT_MAX_SIZE);
+            argument += 2;
+        }
+        Path metricsLocation = null;
+        if (args.length > argument + 1 && args[argument].equals("-metrics")) {
+            metricsLocation = Paths.get(args[argument + 1]);
+            argument += 2;
+        }
+        boolean jfr = false;
+        if (args.length > argument && args[argument].equals("-jfr")) {
+            jfr = true;
+            argument++;
+        }
+        List<Job> jobs;
+        if (args.length == argument + 2 && args[argument].equals("-manifest")) {
+            jobs = readManifest(Paths.get(args[argument + 1]));
+        }
+        else if ((args.length == argument + 4 || args.length == argument + 5) && args[argument].equals("-dir")) {
+            Path outputDirectory = args.length == argument + 5 ? Paths.get(args[argument + 4]) : null;
+            jobs = findJobs(Paths.get(args[argument + 1]), args[argument + 2], Paths.get(args[argument + 3]), outputDirectory);
+        }
+        else {
+            System.out.println("Invalid args. Needs [-threads n] [-cache pathToCacheDirectory] [-metrics pathToJson] [-jfr] "
+                    + "-manifest pathToManifest or [-threads n] [-cache pathToCacheDirectory] [-metrics pathToJson] [-jfr] "
+                    + "-dir pathToDirectory segmentName pathToNewSegment [pathToOutputDirectory]");
+            return;
+        }
+        JsonMetricsReporter reporter = metricsLocation != null ? new JsonMetricsReporter() : null;
+        SwapMetrics metrics = SwapMetrics.NONE;
+        if (reporter != null) {
+            metrics = jfr ? SwapMetrics.combine(reporter, new JfrMetrics()) : reporter;
+        }
+        else if (jfr) {
+            metrics = new JfrMetrics();
+        }
+        long time = System.nanoTime();
+        List<Result> results = new BatchSwapper(threads, headerCache, metrics).run(jobs);
+        long elapsed = System.nanoTime() - time;
+        if (reporter != null) {
+            reporter.writeTo(metricsLocation);
+        }
+        int failed = 0;
+        int skipped = 0;
+        long bytes = 0;
+        for (Result result : results) {
+            System.out.println(result);
+            if (result.getStatus() == Status.FAILED) {
+                failed++;
+            }
+            else if (result.getStatus() == Status.SKIPPED) {
+                skipped++;
+            }
+            else {
+                bytes += result.getBytes();
+            }
+        }
+        double seconds = elapsed / 1e9;
+        int succeeded = results.size() - failed - skipped;
+        System.out.println(String.format("%d files: %d edited, %d skipped, %d failed in %.3f s (%.1f files/s, %.1f MB/s)",
+                results.size(), succeeded, skipped, failed, seconds, succeeded / seconds, bytes / seconds / (1024 * 1024)));
+        if (failed > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Reads the jobs listed in a manifest. See {@link #main(String[])} for the format.
+     * @param manifest The manifest.
+     * @return The jobs, in the order they are listed.
+     * @throws IOException If the manifest cannot be read or a line is malformed.
+     */
+    public static List<Job> readManifest(Path manifest) throws IOException {
+        Path base = manifest.toAbsolutePath().getParent();
+        List<Job> jobs = new ArrayList<>();
+        int lineNumber = 0;
+        for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+            lineNumber++;
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                continue;
+            }
+            String[] fields = trimmed.split("\\s+");
+            if (fields.length != 5 && fields.length != 6) {
+                throw new IOException(manifest + ":" + lineNumber + ": expected 5 or 6 fields but found " + fields.length);
+            }
+            try {
+                jobs.add(Job.forRegion(base.resolve(fields[0]), base.resolve(fields[1]), fields.length == 6 ? base.resolve(fields[5]) : null,
+                        Long.decode(fields[2]), Long.decode(fields[3]), Long.decode(fields[4])));
+            }
+            catch (NumberFormatException e) {
+                throw new IOException(manifest + ":" + lineNumber + ": " + e.getMessage(), e);
+            }
+        }
+        return jobs;
+    }
+
+    /**
+     * Creates a job for every regular file in a directory tree. Files that turn out not to be Mach-O files
+     * are skipped when the jobs are run.
+     * @param directory The root of the tree.
+     * @param segmentName The name of the segment to replace in every file, such as {@code __DATA}.
+     * @param newSegment The file to replace the segment with.
+     * @param outputDirectory The directory to write the edited files to, or null to edit them in place.
+     * @return The jobs, sorted by path.
+     * @throws IOException
+     */
+    public static List<Job> findJobs(Path directory, String segmentName, Path newSegment, Path outputDirectory) throws IOException {
+        List<Path> binaries;
+        try (Stream<Path> paths = Files.walk(directory)) {
+            binaries = paths.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+        List<Job> jobs = new ArrayList<>(binaries.size());
+        for (Path binary : binaries) {
+            Path output = outputDirectory != null ? outputDirectory.resolve(directory.relativize(binary)) : null;
+            jobs.add(Job.forSegment(binary, newSegment, output, segmentName));
+        }
+        return jobs;
+    }
+
+    /**
+     * Runs the jobs and waits for all of them to finish.
+     * @param jobs The jobs to run.
+     * @return The result of every job, in the same order as the jobs.
+     */
+    public List<Result> run(List<Job> jobs) {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Result>> futures = new ArrayList<>(jobs.size());
+            for (Job job : jobs) {
+                futures.add(executor.submit(() -> job.run(headerCache, metrics)));
+            }
+            List<Result> results = new ArrayList<>(jobs.size());
+            for (int i = 0; i < futures.size(); i++) {
+                results.add(await(jobs.get(i), futures.get(i)));
+            }
+            return Collections.unmodifiableList(results);
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Result await(Job job, Future<Result> future) {
+        try {
+            return future.get();
+        }
+        catch (ExecutionException e) {
+            return new Result(job.binary, Status.FAILED, 0, 0, String.valueOf(e.getCause()));
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new Result(job.binary, Status.FAILED, 0, 0, "Interrupted");
+        }
+    }
+
+    /**
+     * A single file to edit.
+     */
+    public static class Job {
+        private final Path binary;
+        private final Path newSegment;
+        private final Path output;
+        private final String segmentName;
+        private final long offset;
+        private final long address;
+        private final long oldSize;
+
+        private Job(Path binary, Path newSegment, Path output, String segmentName, long offset, long address, long oldSize) {
+            this.binary = binary;
+            this.newSegment = newSegment;
+            this.output = output;
+            this.segmentName = segmentName;
+            this.offset = offset;
+            this.address = address;
+            this.oldSize = oldSize;
+        }
+
+        /**
+         * Creates a job replacing the given region of a file.
+         * @param binary The Mach-O file.
+         * @param newSegment The file to replace the region with.
+         * @param output Where to write the edited file, or null to edit it in place.
+         * @param offset The offset of the region.
+         * @param address The address of the region.
+         * @param oldSize The size of the region.
+         * @return The job.
+         */
+        public static Job forRegion(Path binary, Path newSegment, Path output, long offset, long address, long oldSize) {
+            return new Job(binary, newSegment, output, null, offset, address, oldSize);
+        }
+
+        /**
+         * Creates a job replacing the segment with the given name.
+         * @param binary The Mach-O file.
+         * @param newSegment The file to replace the segment with.
+         * @param output Where to write the edited file, or null to edit it in place.
+         * @param segmentName The name of the segment, such as {@code __DATA}.
+         * @return The job.
+         */
+        public static Job forSegment(Path binary, Path newSegment, Path output, String segmentName) {
+            return new Job(binary, newSegment, output, segmentName, 0, 0, 0);
+        }
+
+        /**
+         * Gets the Mach-O file this job edits.
+         * @return The path of the file.
+         */
+        public Path getBinary() {
+            return binary;
+        }
+
+        /**
+         * Edits the file, catching any failure so that it only affects this job.
+         * @return The result.
+         */
+        public Result run() {
+            return run(null);
+        }
+
+        /**
+         * Edits the file, catching any failure so that it only affects this job.
+         * @param headerCache The cache of parsed load commands to use, or null to parse them.
+         * @return The result.
+         */
+        public Result run(HeaderCache headerCache) {
+            return run(headerCache, SwapMetrics.NONE);
+        }
+
+        /**
+         * Edits the file, catching any failure so that it only affects this job.
+         * @param headerCache The cache of parsed load commands to use, or null to parse them.
+         * @param metrics The listener to report the work done to, or {@link SwapMetrics#NONE}.
+         * @return The result.
+         */
+        public Result run(HeaderCache headerCache, SwapMetrics metrics) {
+            long start = System.nanoTime();
+            try {
+                ByteBuffer head = segmentName != null ? readHead() : null;
+                int magic = head == null ? MachOHeader.MH_MAGIC : head.position() >= 4 ? head.getInt(0) : 0;
+                boolean fat = head != null && !head.hasRemaining()
+                        && FatHeader.isFat(Integer.reverseBytes(magic), Integer.reverseBytes(head.getInt(4)));
+                if (magic != MachOHeader.MH_MAGIC && magic != MachOHeader.MH_MAGIC_64 && !fat) {
+                    return new Result(binary, Status.SKIPPED, 0, System.nanoTime() - start, "Not a Mach-O file");
+                }
+                long bytes = Files.size(binary);
+                if (fat) {
+                    swapFat(metrics);
+                }
+                else {
+                    swap(headerCache, metrics);
+                }
+                return new Result(binary, Status.OK, bytes, System.nanoTime() - start, null);
+            }
+            catch (Exception e) {
+                return new Result(binary, Status.FAILED, 0, System.nanoTime() - start, String.valueOf(e));
+            }
+        }
+
+        private ByteBuffer readHead() throws IOException {
+            try (FileChannel channel = FileChannel.open(binary, StandardOpenOption.READ)) {
+                ByteBuffer head = ByteBuffer.allocate(FatHeader.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                while (head.hasRemaining() && channel.read(head) >= 0) {
+                    // Keep reading until the magic and architecture count are complete or the file ends.
+                }
+                return head;
+            }
+        }
+
+        private void swapFat(SwapMetrics metrics) throws IOException {
+            if (output != null && output.getParent() != null) {
+                Files.createDirectories(output.getParent());
+            }
+            try (FatBinarySwapper swapper = new FatBinarySwapper(binary);
+                    FileChannel replacement = FileChannel.open(newSegment, StandardOpenOption.READ)) {
+                swapper.setMetrics(metrics);
+                swapper.swapSegments(FatBinarySwapper.forSegmentName(segmentName, replacement), output != null ? output : binary);
+            }
+        }
+
+        private void swap(HeaderCache headerCache, SwapMetrics metrics) throws IOException {
+            if (output != null && output.getParent() != null) {
+                Files.createDirectories(output.getParent());
+            }
+            BinaryWrapper wrapper = output != null ? BinaryWrapper.openReadOnly(binary) : new BinaryWrapper(binary);
+            try (DataSegmentSwapper swapper = new DataSegmentSwapper(wrapper, output);
+                    FileChannel replacement = FileChannel.open(newSegment, StandardOpenOption.READ)) {
+                swapper.setMetrics(metrics);
+                if (headerCache != null) {
+                    swapper.useHeaderCache(headerCache, binary);
+                }
+                swapper.parseHeader();
+                SegmentEdit edit = segmentName != null ? swapper.createEdit(segmentName, replacement)
+                        : new SegmentEdit(offset, address, oldSize, replacement);
+                swapper.swapSegments(Collections.singletonList(edit));
+            }
+        }
+    }
+
+    /**
+     * What happened to a file.
+     */
+    public enum Status {
+        OK, SKIPPED, FAILED
+    }
+
+    /**
+     * The outcome of a single {@link Job}.
+     */
+    public static class Result {
+        private final Path binary;
+        private final Status status;
+        private final long bytes;
+        private final long nanos;
+        private final String message;
+
+        Result(Path binary, Status status, long bytes, long nanos, String message) {
+            this.binary = binary;
+            this.status = status;
+            this.bytes = bytes;
+            this.nanos = nanos;
+            this.message = message;
+        }
+
+        /**
+         * Gets the Mach-O file the job edited.
+         * @return The path of the file.
+         */
+        public Path getBinary() {
+            return binary;
+        }
+
+        /**
+         * Gets whether the file was edited.
+         * @return The status.
+         */
+        public Status getStatus() {
+            return status;
+        }
+
+        /**
+         * Gets the size of the file before it was edited.
+         * @return The size, in bytes, or 0 if the file was not edited.
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Gets how long the job took.
+         * @return The time, in nanoseconds.
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * Gets why the file was skipped or failed.
+         * @return The message, or null if the file was edited.
+         */
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            String result = String.format("%-7s %s %d bytes %.3f ms", status, binary, bytes, nanos / 1e6);
+            return message != null ? result + ": " + message : result;
+        }
+    }
+
+}
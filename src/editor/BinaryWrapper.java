@@ -1,24 +1,37 @@
 package editor;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.AsynchronousFileChannel;
 import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.List;
 
 /**
  * A class designed to wrap a Mach-O binary to allow inspection and modification of it.
  */
-public class BinaryWrapper {
+public class BinaryWrapper implements Closeable {
 
     /**
      * The default size of a word. <br>
      * Note: changing this alone is not sufficient to change word size.
      * Some of the code assumes {@code word size = sizeof(int)}
      */
-    private static final int WORD_SIZE = 4;
-    private final FileChannel binary;
+    protected static final int WORD_SIZE = 4;
+    protected final FileChannel binary;
+    private final Path binaryLocation;
+    private TailShifter tailShifter;
+    private int shiftMemoryBudget = TailShifter.DEFAULT_MEMORY_BUDGET;
+    private AsynchronousFileChannel asyncBinary;
+    private int shiftQueueDepth;
+    private long position;
+    private PatchSet patches;
+    private ByteBuffer headerImage;
+    private SwapMetrics metrics = SwapMetrics.NONE;
 
     /**
      * Creates a {@link BinaryWrapper} given a Path.
@@ -27,31 +40,241 @@ public class BinaryWrapper {
      */
     public BinaryWrapper(Path binaryLocation) throws IOException {
         binary = FileChannel.open(binaryLocation, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.binaryLocation = binaryLocation;
+        tailShifter = new TailShifter(binary, TailShifter.DEFAULT_MEMORY_BUDGET);
     }
 
     /**
-     * Gets the current position of the file channel.
+     * Creates a {@link BinaryWrapper} around an already opened channel.
+     * @param binary The channel to wrap.
+     */
+    protected BinaryWrapper(FileChannel binary) {
+        this.binary = binary;
+        this.binaryLocation = null;
+        tailShifter = new TailShifter(binary, TailShifter.DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * Creates a {@link BinaryWrapper} that can only be used to inspect the file at the given Path,
+     * for example as the source of {@link #copyWithFileAtOffsetOverriding(Path, long, FileChannel, long)}.
+     * @param binaryLocation A Path to the Mach-O file to be wrapped
+     * @return The read only {@link BinaryWrapper}.
+     * @throws IOException
+     */
+    public static BinaryWrapper openReadOnly(Path binaryLocation) throws IOException {
+        return new BinaryWrapper(FileChannel.open(binaryLocation, StandardOpenOption.READ));
+    }
+
+    /**
+     * Creates a {@link BinaryWrapper} over part of a file, such as one architecture of a universal binary.
+     * Positions are relative to the start of the part and its size is fixed, so it can be inspected or
+     * copied as if it were a file of its own. Closing it leaves the channel open.
+     * @param channel The channel holding the part.
+     * @param offset The position of the part in the channel.
+     * @param length The length of the part.
+     * @return The {@link BinaryWrapper} over the part.
+     */
+    public static BinaryWrapper forSlice(FileChannel channel, long offset, long length) {
+        return new BinaryWrapper(new SliceChannel(channel, offset, length));
+    }
+
+    /**
+     * Sets the listener told about every read, write and transfer made on the file, and about the buffers
+     * allocated to do so. Copies made by this wrapper report to the same listener.
+     * @param metrics The listener, or {@link SwapMetrics#NONE}.
+     */
+    public void setMetrics(SwapMetrics metrics) {
+        this.metrics = metrics;
+        tailShifter.setMetrics(metrics);
+    }
+
+    /**
+     * Gets the listener set by {@link #setMetrics(SwapMetrics)}, so that code working on this file can report
+     * the buffers it allocates.
+     * @return The listener.
+     */
+    public SwapMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Gets the current size of the wrapped file.
+     * @return The size, in bytes.
+     * @throws IOException
+     */
+    public long size() throws IOException {
+        return binary.size();
+    }
+
+    /**
+     * Gets the current position that relative reads and writes start from. The position is tracked
+     * by the wrapper rather than by the file channel, so it costs nothing to query or move.
      * @return The current position.
      * @throws IOException
      */
     public long getPosition() throws IOException {
-        return binary.position();
+        return position;
     }
 
     /**
-     * Sets the current position of the file channel.
+     * Sets the current position that relative reads and writes start from.
      * @param position The position to seek to.
      * @throws IOException
      */
     public void setPosition(long position) throws IOException {
-        binary.position(position);
+        this.position = position;
+    }
+
+    /**
+     * Reads the start of the file into memory with a single read. Until the image is released, reads
+     * that fall within it are served from memory and writes that fall within it update it as well as the
+     * file. This is intended for the Mach-O header and load commands, which are otherwise parsed one
+     * word at a time. <br>
+     * Any operation that moves the contents of the file within the image releases it.
+     * @param length How many bytes to load. Less is loaded if the file is shorter.
+     * @throws IOException
+     */
+    public void loadHeaderImage(int length) throws IOException {
+        ByteBuffer image = getLittleEndianByteBuffer((int) Math.min(length, binary.size()));
+        metrics.onBufferAllocated(image.capacity());
+        readBytes(image, 0);
+        image.clear();
+        headerImage = image;
+    }
+
+    /**
+     * Shrinks the image loaded by {@link #loadHeaderImage(int)} without reading the file again, typically
+     * once the actual size of the header is known.
+     * @param length The new length of the image. Nothing happens if the image is already shorter.
+     */
+    public void limitHeaderImage(int length) {
+        if (headerImage != null && length < headerImage.limit()) {
+            headerImage.limit(length);
+        }
+    }
+
+    /**
+     * Discards the image loaded by {@link #loadHeaderImage(int)}.
+     */
+    public void releaseHeaderImage() {
+        headerImage = null;
+    }
+
+    private boolean isInHeaderImage(long start, int length) {
+        return headerImage != null && start >= 0 && start + length <= headerImage.limit();
+    }
+
+    private void updateHeaderImage(ByteBuffer written, long start) {
+        if (headerImage == null || start >= headerImage.limit()) {
+            return;
+        }
+        int length = (int) Math.min(written.remaining(), headerImage.limit() - start);
+        headerImage.put((int) start, written, written.position(), length);
+    }
+
+    private void releaseHeaderImageFrom(long start) {
+        if (headerImage != null && start < headerImage.limit()) {
+            headerImage = null;
+        }
+    }
+
+    private ByteBuffer copyHeaderImageBefore(long start) {
+        if (headerImage == null || start < headerImage.limit()) {
+            return null;
+        }
+        ByteBuffer copy = getLittleEndianByteBuffer(headerImage.limit());
+        metrics.onBufferAllocated(copy.capacity());
+        copy.put(headerImage.duplicate()).clear();
+        return copy;
+    }
+
+    /**
+     * Starts recording word writes in a {@link PatchSet} instead of applying them to the file straight
+     * away. Reads made while recording see the recorded writes. The writes are applied by
+     * {@link #flushPatches()}.
+     */
+    public void beginPatches() {
+        if (patches == null) {
+            patches = new PatchSet();
+        }
+    }
+
+    /**
+     * Applies every word write recorded since {@link #beginPatches()} and stops recording. Writes that
+     * are close together are applied as a single write, after reading back the bytes between them.
+     * @return The number of writes made to the file.
+     * @throws IOException
+     */
+    public int flushPatches() throws IOException {
+        if (patches == null) {
+            return 0;
+        }
+        PatchSet toApply = patches;
+        patches = null;
+        List<PatchSet.Run> runs = toApply.getRuns();
+        for (PatchSet.Run run : runs) {
+            ByteBuffer runBuffer = getLittleEndianByteBuffer(run.getLength());
+            metrics.onBufferAllocated(runBuffer.capacity());
+            if (!run.isContiguous()) {
+                readBytes(runBuffer, run.getStart());
+                runBuffer.clear();
+            }
+            run.apply(runBuffer);
+            updateHeaderImage(runBuffer, run.getStart());
+            writeBytes(runBuffer, run.getStart());
+        }
+        return runs.size();
+    }
+
+    /**
+     * Sets the largest amount of memory, in bytes, that will be used to move the contents of the file
+     * when its size changes. Defaults to {@link TailShifter#DEFAULT_MEMORY_BUDGET}.
+     * @param memoryBudget The memory budget, in bytes.
+     */
+    public void setShiftMemoryBudget(int memoryBudget) {
+        shiftMemoryBudget = memoryBudget;
+        createTailShifter();
+    }
+
+    /**
+     * Moves the contents of the file with a {@link PipelinedTailShifter} when its size changes, so that up to
+     * {@code queueDepth} chunks are read and written at the same time instead of one after another. The
+     * memory budget set by {@link #setShiftMemoryBudget(int)} is split between them. This is only possible
+     * for a file opened with {@link #BinaryWrapper(Path)}.
+     * @param queueDepth The largest number of chunks in flight, such as
+     * {@link PipelinedTailShifter#DEFAULT_QUEUE_DEPTH}, or 0 to move one chunk at a time.
+     * @throws IOException If the file cannot be opened for asynchronous I/O.
+     */
+    public void setShiftQueueDepth(int queueDepth) throws IOException {
+        if (queueDepth < 0) {
+            throw new IllegalArgumentException("Invalid queue depth " + queueDepth);
+        }
+        if (queueDepth > 0 && asyncBinary == null) {
+            if (binaryLocation == null) {
+                throw new IOException("Only files opened by Path can be moved asynchronously");
+            }
+            asyncBinary = AsynchronousFileChannel.open(binaryLocation, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        shiftQueueDepth = queueDepth;
+        createTailShifter();
+    }
+
+    private void createTailShifter() {
+        if (shiftQueueDepth > 0) {
+            tailShifter = new PipelinedTailShifter(binary, asyncBinary, shiftMemoryBudget, shiftQueueDepth);
+        }
+        else {
+            tailShifter = new TailShifter(binary, shiftMemoryBudget);
+        }
+        tailShifter.setMetrics(metrics);
     }
 
     /**
      * Inserts the entire contents of the given {@link FileChannel} into this file, starting at the given position. <br>
      * This will replace the contents of the wrapped file between {@code position} and {@code position + amountToOverwrite} with
      * the contents of {@code inputBytes}. Everything after that will be preserved. This means the file will change either shrink
-     * or expand depending on if {@code inputBytes.size()} is smaller or larger than {@code amountToOverwrite}.
+     * or expand depending on if {@code inputBytes.size()} is smaller or larger than {@code amountToOverwrite}. <br>
+     * The preserved contents are moved with a {@link TailShifter}, so the memory used does not depend on the size of the file.
      *
      * @param position The position to start overwriting the wrapped file.
      * @param inputBytes The contents to write into this file.
@@ -59,40 +282,215 @@ public class BinaryWrapper {
      * @throws IOException
      */
     public void insertFileAtOffsetOverriding(long position, FileChannel inputBytes, long amountToOverwrite) throws IOException {
+        releaseHeaderImageFrom(position);
         long originalPosition = binary.position();
         long originalInputPosition = inputBytes.position();
-        ByteBuffer fileContentsToSave = saveOldBytes(position, amountToOverwrite);
+        long oldFileResume = position + amountToOverwrite;
+        long sizeDiff = inputBytes.size() - amountToOverwrite;
+        long originalSize = binary.size();
+        tailShifter.moveRegion(oldFileResume, originalSize - oldFileResume, sizeDiff);
         binary.position(position);
-        long toTransfer = writeFile(inputBytes);
-        binary.position(position + toTransfer);
-        appendOldContents(fileContentsToSave);
+        writeFile(inputBytes);
+        if (sizeDiff < 0) {
+            binary.truncate(originalSize + sizeDiff);
+        }
         binary.position(originalPosition);
         inputBytes.position(originalInputPosition);
     }
 
-    private void appendOldContents(ByteBuffer fileContentsToSave) throws IOException {
-        binary.write(fileContentsToSave);
+    /**
+     * Writes a copy of this file to {@code destination} with the contents between {@code position} and
+     * {@code position + amountToOverwrite} replaced by the contents of {@code inputBytes}. The result is the
+     * same as that of {@link #insertFileAtOffsetOverriding(long, FileChannel, long)}, but this file is left
+     * untouched and nothing needs to be shifted: the copy is written front to back in a single pass, using
+     * {@link FileChannel#transferTo(long, long, WritableByteChannel)} for every part of it.
+     *
+     * @param destination The file to write the copy to. It is replaced if it already exists.
+     * @param position The position to start overwriting in the copy.
+     * @param inputBytes The contents to write into the copy.
+     * @param amountToOverwrite The amount of this file to replace.
+     * @return A {@link BinaryWrapper} around the copy, positioned at its start.
+     * @throws IOException
+     */
+    public BinaryWrapper copyWithFileAtOffsetOverriding(Path destination, long position, FileChannel inputBytes,
+            long amountToOverwrite) throws IOException {
+        return copyWithInsertion(destination, position, inputBytes, amountToOverwrite, 0);
     }
 
-    private long writeFile(FileChannel inputBytes) throws IOException {
-        long toTransfer = inputBytes.size();
-        long transferredBytes = inputBytes.transferTo(0, toTransfer, binary);
-        if (transferredBytes != toTransfer) {
-            throw new IOException("Did not write enough bytes!");
+    /**
+     * Writes a copy of this file to {@code destination} with the contents between {@code position} and
+     * {@code position + amountToOverwriteAndZero} replaced by the contents of {@code inputBytes}, followed by
+     * null bytes. This is the copying equivalent of {@link #insertFileAtOffsetOverridingAndZeroing(long, FileChannel, long)}.
+     *
+     * @param destination The file to write the copy to. It is replaced if it already exists.
+     * @param position The position to start overwriting in the copy.
+     * @param inputBytes The contents to write into the copy.
+     * @param amountToOverwriteAndZero The amount of this file to replace.
+     * @return A {@link BinaryWrapper} around the copy, positioned at its start.
+     * @throws IOException
+     */
+    public BinaryWrapper copyWithFileAtOffsetOverridingAndZeroing(Path destination, long position, FileChannel inputBytes,
+            long amountToOverwriteAndZero) throws IOException {
+        if (inputBytes.size() > amountToOverwriteAndZero) {
+            throw new IOException("Input is too long for the given buffer size");
         }
-        return toTransfer;
+        return copyWithInsertion(destination, position, inputBytes, amountToOverwriteAndZero,
+                amountToOverwriteAndZero - inputBytes.size());
     }
 
-    private ByteBuffer saveOldBytes(long position, long amountToOverwrite) throws IOException {
-        long oldFileResume = position + amountToOverwrite;
-        int amountToSave = (int) (binary.size() - oldFileResume);
-        ByteBuffer fileContentsToSave = getLittleEndianByteBuffer(amountToSave);
-        int consumedBytes = binary.read(fileContentsToSave, oldFileResume);
-        if (consumedBytes != amountToSave) {
-            throw new IOException("Did not read enough bytes!");
+    private BinaryWrapper copyWithInsertion(Path destination, long position, FileChannel inputBytes,
+            long amountToOverwrite, long zeroesToWrite) throws IOException {
+        FileChannel copy = FileChannel.open(destination, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long oldFileResume = position + amountToOverwrite;
+            transferTo(0, position, copy);
+            transferFully(inputBytes, 0, inputBytes.size(), copy);
+            writeZeroes(copy, zeroesToWrite);
+            transferTo(oldFileResume, binary.size() - oldFileResume, copy);
+            copy.position(0);
+        }
+        catch (IOException e) {
+            copy.close();
+            throw e;
+        }
+        BinaryWrapper copyWrapper = new BinaryWrapper(copy);
+        copyWrapper.setMetrics(metrics);
+        copyWrapper.headerImage = copyHeaderImageBefore(position);
+        return copyWrapper;
+    }
+
+    /**
+     * Replaces every region described by the given edits in a single pass over the file. Each part of the
+     * file between two edits is moved at most once, by the total change in size of the edits before it, and
+     * the replacements are then written into the gaps this leaves.
+     *
+     * @param edits The edits to make. They must not overlap.
+     * @throws IOException
+     */
+    public void replaceRegions(List<SegmentEdit> edits) throws IOException {
+        List<SegmentEdit> sortedEdits = new EditLayout(edits).getEdits();
+        if (!sortedEdits.isEmpty()) {
+            releaseHeaderImageFrom(sortedEdits.get(0).getOffset());
+        }
+        long originalPosition = binary.position();
+        long originalSize = binary.size();
+        int regionCount = sortedEdits.size();
+        long[] regionStarts = new long[regionCount];
+        long[] regionLengths = new long[regionCount];
+        long[] regionShifts = new long[regionCount];
+        long shift = 0;
+        for (int i = 0; i < regionCount; i++) {
+            SegmentEdit edit = sortedEdits.get(i);
+            shift += edit.getSizeDiff();
+            regionStarts[i] = edit.getOffset() + edit.getOldSize();
+            long regionEnd = i + 1 < regionCount ? sortedEdits.get(i + 1).getOffset() : originalSize;
+            regionLengths[i] = regionEnd - regionStarts[i];
+            regionShifts[i] = shift;
+        }
+        // Regions moving towards the start are moved first, front to back, then those moving towards the
+        // end, back to front. This way no region is overwritten before it has been moved.
+        for (int i = 0; i < regionCount; i++) {
+            if (regionShifts[i] < 0) {
+                tailShifter.moveRegion(regionStarts[i], regionLengths[i], regionShifts[i]);
+            }
+        }
+        for (int i = regionCount - 1; i >= 0; i--) {
+            if (regionShifts[i] > 0) {
+                tailShifter.moveRegion(regionStarts[i], regionLengths[i], regionShifts[i]);
+            }
+        }
+        shift = 0;
+        for (SegmentEdit edit : sortedEdits) {
+            binary.position(edit.getOffset() + shift);
+            transferFully(edit.getReplacement(), 0, edit.getReplacement().size(), binary);
+            writeZeroes(binary, edit.getPadding());
+            shift += edit.getSizeDiff();
+        }
+        if (shift < 0) {
+            binary.truncate(originalSize + shift);
+        }
+        binary.position(originalPosition);
+    }
+
+    /**
+     * Writes a copy of this file to {@code destination} with every region described by the given edits
+     * replaced. The copy is written front to back in a single pass, using
+     * {@link FileChannel#transferTo(long, long, WritableByteChannel)} for every part of it.
+     *
+     * @param destination The file to write the copy to. It is replaced if it already exists.
+     * @param edits The edits to make. They must not overlap.
+     * @return A {@link BinaryWrapper} around the copy, positioned at its start.
+     * @throws IOException
+     */
+    public BinaryWrapper copyWithReplacements(Path destination, List<SegmentEdit> edits) throws IOException {
+        List<SegmentEdit> sortedEdits = new EditLayout(edits).getEdits();
+        FileChannel copy = FileChannel.open(destination, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long copiedUpTo = 0;
+            for (SegmentEdit edit : sortedEdits) {
+                transferTo(copiedUpTo, edit.getOffset() - copiedUpTo, copy);
+                transferFully(edit.getReplacement(), 0, edit.getReplacement().size(), copy);
+                writeZeroes(copy, edit.getPadding());
+                copiedUpTo = edit.getOffset() + edit.getOldSize();
+            }
+            transferTo(copiedUpTo, binary.size() - copiedUpTo, copy);
+            copy.position(0);
         }
-        fileContentsToSave.position(0);
-        return fileContentsToSave;
+        catch (IOException e) {
+            copy.close();
+            throw e;
+        }
+        BinaryWrapper copyWrapper = new BinaryWrapper(copy);
+        copyWrapper.setMetrics(metrics);
+        copyWrapper.headerImage = copyHeaderImageBefore(sortedEdits.isEmpty() ? Long.MAX_VALUE : sortedEdits.get(0).getOffset());
+        return copyWrapper;
+    }
+
+    /**
+     * Transfers part of this file to the given channel, without copying it through the Java heap when the
+     * platform allows it.
+     * @param position The position of the first byte to transfer.
+     * @param count The number of bytes to transfer.
+     * @param target The channel to write to, starting at its current position.
+     * @throws IOException
+     */
+    public void transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        transferFully(binary, position, count, target);
+    }
+
+    private void transferFully(FileChannel source, long position, long count, WritableByteChannel target) throws IOException {
+        long transferredBytes = 0;
+        while (transferredBytes < count) {
+            long transferred = source.transferTo(position + transferredBytes, count - transferredBytes, target);
+            if (transferred <= 0) {
+                throw new IOException("Did not write enough bytes!");
+            }
+            metrics.onTransfer(transferred);
+            transferredBytes += transferred;
+        }
+    }
+
+    private void writeZeroes(WritableByteChannel target, long toZero) throws IOException {
+        if (toZero <= 0) {
+            return;
+        }
+        ByteBuffer zeroBuffer = ByteBuffer.allocate((int) Math.min(toZero, 64 * 1024));
+        metrics.onBufferAllocated(zeroBuffer.capacity());
+        long written = 0;
+        while (written < toZero) {
+            zeroBuffer.clear().limit((int) Math.min(zeroBuffer.capacity(), toZero - written));
+            int writtenNow = target.write(zeroBuffer);
+            metrics.onWrite(writtenNow);
+            written += writtenNow;
+        }
+    }
+
+    private long writeFile(FileChannel inputBytes) throws IOException {
+        long toTransfer = inputBytes.size();
+        transferFully(inputBytes, 0, toTransfer, binary);
+        return toTransfer;
     }
 
     /**
@@ -102,13 +500,7 @@ public class BinaryWrapper {
      * @throws IOException
      */
     public int getSingleWordAtPosition(long position) throws IOException{
-        ByteBuffer readByte = getLittleEndianByteBuffer(WORD_SIZE);
-        int consumedBytes = binary.read(readByte, position);
-        readByte.position(0);
-        if (consumedBytes == WORD_SIZE) {
-            return readByte.getInt();
-        }
-        throw new IOException("Did not read enough bytes!");
+        return getWord(position);
     }
 
     /**
@@ -118,13 +510,15 @@ public class BinaryWrapper {
      * @throws IOException
      */
     public char getSingleByteAtRelativePosition(long position) throws IOException{
-        ByteBuffer readByte = getLittleEndianByteBuffer(1);
-        int consumedBytes = binary.read(readByte,  binary.position() + position);
-        readByte.position(0);
-        if (consumedBytes == 1) {
-            return (char) readByte.get();
+        long absolutePosition = this.position + position;
+        byte value = isInHeaderImage(absolutePosition, 1) ? headerImage.get((int) absolutePosition) : readByte(absolutePosition);
+        if (patches == null) {
+            return (char) value;
         }
-        throw new IOException("Did not read enough bytes!");
+        ByteBuffer readByte = getLittleEndianByteBuffer(1);
+        readByte.put(value).flip();
+        patches.overlay(readByte, absolutePosition);
+        return (char) readByte.get();
     }
 
     /**
@@ -134,8 +528,145 @@ public class BinaryWrapper {
      * @throws IOException
      */
     public int getSingleWordAtRelativePosition(int position) throws IOException{
+        return getWord(this.position + position);
+    }
+
+    /**
+     * Writes a single word to the given absolute position.
+     * @param value The word, as an int.
+     * @param position The absolute position to start writing.
+     * @throws IOException
+     */
+    public void setSingleWordAtPosition(int value, long position) throws IOException{
+        setWord(value, position);
+    }
+
+    /**
+     * Writes a single word to the relative position given.
+     * @param value The word, as an int.
+     * @param position The position, relative to the current position of the channel.
+     * @throws IOException
+     */
+    public void setSingleWordAtRelativePosition(int value, int position) throws IOException{
+        setWord(value, this.position + position);
+    }
+
+    /**
+     * Retrieves a 64-bit value from the given absolute position.
+     * @param position The absolute position to start retrieval.
+     * @return The value, as a long.
+     * @throws IOException
+     */
+    public long getLongAtPosition(long position) throws IOException {
+        return Integer.toUnsignedLong(getWord(position)) | ((long) getWord(position + WORD_SIZE) << 32);
+    }
+
+    /**
+     * Retrieves a 64-bit value from the relative position given.
+     * @param position The position, relative to the current position of the channel.
+     * @return The value, as a long.
+     * @throws IOException
+     */
+    public long getLongAtRelativePosition(int position) throws IOException {
+        return getLongAtPosition(this.position + position);
+    }
+
+    /**
+     * Writes a 64-bit value to the given absolute position. Like single words, the write is deferred if
+     * {@link #beginPatches()} has been called.
+     * @param value The value, as a long.
+     * @param position The absolute position to start writing.
+     * @throws IOException
+     */
+    public void setLongAtPosition(long value, long position) throws IOException {
+        setWord((int) value, position);
+        setWord((int) (value >>> 32), position + WORD_SIZE);
+    }
+
+    /**
+     * Writes a 64-bit value to the relative position given.
+     * @param value The value, as a long.
+     * @param position The position, relative to the current position of the channel.
+     * @throws IOException
+     */
+    public void setLongAtRelativePosition(long value, int position) throws IOException {
+        setLongAtPosition(value, this.position + position);
+    }
+
+    /**
+     * Fills the remainder of the given buffer with the contents of the file starting at the given
+     * absolute position, using a single read where possible.
+     * @param destination The buffer to fill.
+     * @param position The absolute position to start retrieval.
+     * @throws IOException
+     */
+    public void getBytesAtPosition(ByteBuffer destination, long position) throws IOException {
+        int start = destination.position();
+        if (isInHeaderImage(position, destination.remaining())) {
+            destination.put(headerImage.slice((int) position, destination.remaining()));
+        }
+        else {
+            readBytes(destination, position);
+        }
+        if (patches != null) {
+            ByteBuffer read = destination.duplicate();
+            read.flip().position(start);
+            patches.overlay(read, position);
+        }
+    }
+
+    /**
+     * Writes the remainder of the given buffer to the file starting at the given absolute position, using
+     * a single write where possible. This is never deferred by {@link #beginPatches()}, and it replaces any
+     * deferred word writes to the same range.
+     * @param source The buffer to write.
+     * @param position The absolute position to start writing.
+     * @throws IOException
+     */
+    public void setBytesAtPosition(ByteBuffer source, long position) throws IOException {
+        if (patches != null) {
+            patches.discard(position, source.remaining());
+        }
+        updateHeaderImage(source, position);
+        writeBytes(source, position);
+    }
+
+    private int getWord(long absolutePosition) throws IOException {
+        int word = isInHeaderImage(absolutePosition, WORD_SIZE) ? headerImage.getInt((int) absolutePosition) : readWord(absolutePosition);
+        if (patches == null) {
+            return word;
+        }
+        ByteBuffer readWord = getLittleEndianByteBuffer(WORD_SIZE);
+        readWord.putInt(word).flip();
+        patches.overlay(readWord, absolutePosition);
+        return readWord.getInt();
+    }
+
+    private void setWord(int value, long absolutePosition) throws IOException {
+        if (patches == null) {
+            if (headerImage != null) {
+                ByteBuffer written = getLittleEndianByteBuffer(WORD_SIZE);
+                written.putInt(value).flip();
+                updateHeaderImage(written, absolutePosition);
+            }
+            writeWord(value, absolutePosition);
+        }
+        else {
+            patches.put(absolutePosition, value);
+        }
+    }
+
+    /**
+     * Reads a single word from the given absolute position. Every word read made through the public
+     * API ends up here, so backends that do not go through the {@link FileChannel} override this.
+     * @param position The absolute position to start retrieval.
+     * @return The word, as an int.
+     * @throws IOException
+     */
+    protected int readWord(long position) throws IOException {
         ByteBuffer readByte = getLittleEndianByteBuffer(WORD_SIZE);
-        int consumedBytes = binary.read(readByte, binary.position() + position);
+        int consumedBytes = binary.read(readByte, position);
+        metrics.onRead(Math.max(0, consumedBytes));
         readByte.position(0);
         if (consumedBytes == WORD_SIZE) {
             return readByte.getInt();
@@ -144,38 +675,112 @@ public class BinaryWrapper {
     }
 
     /**
-     * Writes a single word to the given absolute position.
+     * Reads a single byte from the given absolute position.
+     * @param position The absolute position to start retrieval.
+     * @return The byte.
+     * @throws IOException
+     */
+    protected byte readByte(long position) throws IOException {
+        ByteBuffer readByte = getLittleEndianByteBuffer(1);
+        int consumedBytes = binary.read(readByte, position);
+        metrics.onRead(Math.max(0, consumedBytes));
+        readByte.position(0);
+        if (consumedBytes == 1) {
+            return readByte.get();
+        }
+        throw new IOException("Did not read enough bytes!");
+    }
+
+    /**
+     * Writes a single word to the given absolute position. Every word write made through the public
+     * API ends up here, so backends that do not go through the {@link FileChannel} override this.
      * @param value The word, as an int.
      * @param position The absolute position to start writing.
      * @throws IOException
      */
-    public void setSingleWordAtPosition(int value, long position) throws IOException{
+    protected void writeWord(int value, long position) throws IOException {
         ByteBuffer writeByte = getLittleEndianByteBuffer(WORD_SIZE);
         writeByte.putInt(value);
         writeByte.position(0);
         int consumedBytes = binary.write(writeByte, position);
+        metrics.onWrite(consumedBytes);
         if (consumedBytes != WORD_SIZE) {
             throw new IOException("Did not read enough bytes!");
         }
     }
 
     /**
-     * Writes a single word to the relative position given.
-     * @param value The word, as an int.
-     * @param position The position, relative to the current position of the channel.
+     * Fills the remainder of the given buffer with the contents of the file starting at the given
+     * absolute position. Backends that do not go through the {@link FileChannel} override this.
+     * @param destination The buffer to fill.
+     * @param position The absolute position to start reading.
      * @throws IOException
      */
-    public void setSingleWordAtRelativePosition(int value, int position) throws IOException{
-        ByteBuffer writeByte = getLittleEndianByteBuffer(WORD_SIZE);
-        writeByte.putInt(value);
-        writeByte.position(0);
-        int consumedBytes = binary.write(writeByte, binary.position() + position);
-        if (consumedBytes != WORD_SIZE) {
-            throw new IOException("Did not read enough bytes!");
+    protected void readBytes(ByteBuffer destination, long position) throws IOException {
+        long readPosition = position;
+        while (destination.hasRemaining()) {
+            int consumedBytes = binary.read(destination, readPosition);
+            if (consumedBytes < 0) {
+                throw new IOException("Did not read enough bytes!");
+            }
+            metrics.onRead(consumedBytes);
+            readPosition += consumedBytes;
+        }
+    }
+
+    /**
+     * Writes the remainder of the given buffer to the file starting at the given absolute position.
+     * Backends that do not go through the {@link FileChannel} override this.
+     * @param source The buffer to write.
+     * @param position The absolute position to start writing.
+     * @throws IOException
+     */
+    protected void writeBytes(ByteBuffer source, long position) throws IOException {
+        long writePosition = position;
+        while (source.hasRemaining()) {
+            int consumedBytes = binary.write(source, writePosition);
+            metrics.onWrite(consumedBytes);
+            writePosition += consumedBytes;
         }
     }
 
-    private static ByteBuffer getLittleEndianByteBuffer(int capacity) {
+    /**
+     * Maps part of the file into memory read only, so that large tables can be read in place without
+     * being copied onto the Java heap. The mapping does not see writes deferred by {@link #beginPatches()},
+     * and it may no longer match the file once the contents of the file are moved.
+     * @param position The absolute position of the start of the part.
+     * @param size The size of the part, at most {@link Integer#MAX_VALUE} bytes.
+     * @return A little endian buffer over the part.
+     * @throws IOException If the part does not lie within the file.
+     */
+    public ByteBuffer map(long position, long size) throws IOException {
+        if (position < 0 || size < 0 || size > Integer.MAX_VALUE || position + size > binary.size()) {
+            throw new IOException("Cannot map " + size + " bytes at " + position + " of a file of " + binary.size() + " bytes");
+        }
+        return binary.map(FileChannel.MapMode.READ_ONLY, position, size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Forces any modifications made through this wrapper out to the storage device.
+     * @throws IOException
+     */
+    public void force() throws IOException {
+        binary.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            binary.close();
+        }
+        finally {
+            if (asyncBinary != null) {
+                asyncBinary.close();
+            }
+        }
+    }
+
+    protected static ByteBuffer getLittleEndianByteBuffer(int capacity) {
         ByteBuffer byteBuffer = ByteBuffer.allocate(capacity);
         byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
         return byteBuffer;
@@ -185,7 +790,9 @@ public class BinaryWrapper {
      * Inserts the entire contents of the given {@link FileChannel} into this file, starting at the given position. <br>
      * This will replace the contents of the wrapped file between {@code position} and {@code position + amountToOverwriteAndZero} with
      * the contents of {@code inputBytes}, followed by null bytes, if necessary. Everything after that will be preserved. This differs
-     * from {@link #insertFileAtOffsetOverriding(long, FileChannel, long)} by always maintaining the file size.
+     * from {@link #insertFileAtOffsetOverriding(long, FileChannel, long)} by always maintaining the file size. The null bytes are
+     * written through a bounded buffer, however large the gap. To reclaim the gap instead, give a shrinking {@link SegmentEdit} to
+     * {@link #replaceRegions(List)}.
      *
      * @param position The position to start overwriting the wrapped file.
      * @param inputBytes The contents to write into this file.
@@ -193,7 +800,7 @@ public class BinaryWrapper {
      * @throws IOException
      */
     public void insertFileAtOffsetOverridingAndZeroing(long position, FileChannel inputBytes, long amountToOverwriteAndZero) throws IOException {
-        // TODO Auto-generated method stub
+        releaseHeaderImageFrom(position);
         if (inputBytes.size() > amountToOverwriteAndZero) {
             throw new IOException("Input is too long for the given buffer size");
         }
@@ -202,15 +809,10 @@ public class BinaryWrapper {
         binary.position(position);
         long toTransfer = writeFile(inputBytes);
         binary.position(position + toTransfer);
-        zeroOldContents((int) (amountToOverwriteAndZero - toTransfer));
+        writeZeroes(binary, amountToOverwriteAndZero - toTransfer);
         binary.position(originalPosition);
         inputBytes.position(originalInputPosition);
     }
 
-    private void zeroOldContents(int toZero) throws IOException {
-        ByteBuffer zeroBuffer = getLittleEndianByteBuffer(toZero);
-        binary.write(zeroBuffer);
-    }
-
 
 }
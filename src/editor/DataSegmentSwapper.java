@@ -1,16 +1,28 @@
 package editor;
 
+import java.io.Closeable;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.List;
 
+import editor.SwapMetrics.Phase;
+import macho.CodeDirectory;
 import macho.MachOCommandFactory;
+import macho.MachOHeader;
+import macho.SegmentIndex;
 import macho.commands.AbstractMachOCommand;
+import macho.commands.CodeSignature;
+import macho.commands.DyldChainedFixups;
+import macho.commands.DyldInfo;
+import macho.commands.Segment;
+import macho.commands.UnsupportedCommand;
 
 /**
  * This class was designed specifically to replace the contents of one of the data sections
@@ -19,99 +31,586 @@ import macho.commands.AbstractMachOCommand;
  * executable may not be appropriately updated.
  *
  */
-public class DataSegmentSwapper {
+public class DataSegmentSwapper implements Closeable {
 
-    private static final int FIRST_COMMAND_OFFSET = 28;
-    private static final int HEADER_SEGMENTS_OFFSET = 16;
-
-    // These addresses currently need to be manually set. Ideally this would not be the case.
-    private static final int SEGMENT_OFFSET = 12314;
-    private static final int SEGMENT_ADDRESS = 124215;
-    private static final int OLD_SIZE = 12321;
-
-    private long newSize = 0l;
-    private int sizeDiff = 0;
-    private final BinaryWrapper binary;
-    private final FileChannel newDataSegment;
+    private BinaryWrapper binary;
+    private final Path outputLocation;
+    private EditLayout layout;
     private List<AbstractMachOCommand> commands;
+    private SegmentIndex segmentIndex;
+    private String replacedName;
+    private FileChannel replacement;
+    private boolean shrink;
+    private MachOHeader header;
+    private HeaderCache headerCache;
+    private Path cachedLocation;
+    private SwapMetrics metrics = SwapMetrics.NONE;
 
     /**
-     * Given a string representing the path to the Mach-O file and a path to the new file to
-     * put in it, overwrites a portion of the Mach-O file with the other file. It will update
-     * the Mach-O header as necessary.
+     * Given a string representing the path to the Mach-O file, the name of a segment or section
+     * in it, such as {@code __DATA} or {@code __DATA,__data}, and a path to the new file to put
+     * in it, overwrites that segment or section with the other file. It will update the Mach-O
+     * header as necessary. If a fourth path is given, the Mach-O file is left untouched and the
+     * edited copy is written there instead. With a leading {@code -shrink}, a smaller new file
+     * shrinks the segment or section instead of being padded to its old size.
      * @param args
      * @throws IOException
      */
     public static void main(String[] args) throws IOException {
         long time = System.currentTimeMillis();
-        if (args.length < 2) {
-            System.out.println("Invalid args. Needs pathToBinary pathToNewSegment");
-        }
-        Path binaryLocation = Paths.get(args[0]);
-        Path newDataSegmentLocation = Paths.get(args[1]);
-        DataSegmentSwapper tarSwapper = new DataSegmentSwapper(binaryLocation, newDataSegmentLocation);
-        tarSwapper.parseHeader();
-        tarSwapper.swapFile();
-        tarSwapper.updateHeader();
+        boolean shrink = args.length > 0 && args[0].equals("-shrink");
+        int argument = shrink ? 1 : 0;
+        if (args.length < argument + 3) {
+            System.out.println("Invalid args. Needs [-shrink] pathToBinary segmentName[,sectionName] pathToNewSegment [pathToOutput]");
+            return;
+        }
+        Path binaryLocation = Paths.get(args[argument]);
+        Path newDataSegmentLocation = Paths.get(args[argument + 2]);
+        Path outputLocation = args.length > argument + 3 ? Paths.get(args[argument + 3]) : null;
+        try (DataSegmentSwapper tarSwapper = outputLocation != null
+                ? new DataSegmentSwapper(binaryLocation, args[argument + 1], newDataSegmentLocation, outputLocation)
+                : new DataSegmentSwapper(binaryLocation, args[argument + 1], newDataSegmentLocation)) {
+            tarSwapper.setShrink(shrink);
+            tarSwapper.swap();
+        }
         System.out.println(System.currentTimeMillis() - time);
     }
 
+    /**
+     * Replaces the segment or section named when this {@link DataSegmentSwapper} was constructed
+     * with the file given then, and updates the Mach-O header to match.
+     * @throws IOException If the file has no segment or section with that name.
+     */
+    public void swap() throws IOException {
+        if (replacement == null) {
+            throw new IllegalStateException("No replacement was given, use swapSegments instead");
+        }
+        swapSegments(Collections.singletonList(createEdit(replacedName, replacement)));
+    }
+
+    /**
+     * Creates the edit replacing the segment or section with the given name, which is found in
+     * the index built by {@link #parseHeader()} without reading the file again. The header is
+     * parsed first if that has not been done yet.
+     * @param name The name of a segment, such as {@code __DATA}, or of a section preceded by
+     * the name of its segment and a comma, such as {@code __DATA,__data}.
+     * @param newContents The new contents of the segment or section. If they are smaller, the edit
+     * shrinks the segment or section only if {@link #setShrink(boolean)} was called.
+     * @return The edit.
+     * @throws IOException If the file has no segment or section with that name.
+     */
+    public SegmentEdit createEdit(String name, FileChannel newContents) throws IOException {
+        if (commands == null) {
+            parseHeader();
+        }
+        int comma = name.indexOf(',');
+        if (comma < 0) {
+            Segment segment = segmentIndex.findSegment(name);
+            if (segment == null) {
+                throw new IOException("No segment named " + name);
+            }
+            SegmentEdit edit = SegmentEdit.forSegment(segment, newContents, header.getPageSize());
+            return shrink ? edit.shrinking() : edit;
+        }
+        Segment.Section section = segmentIndex.findSection(name.substring(0, comma), name.substring(comma + 1));
+        if (section == null) {
+            throw new IOException("No section named " + name);
+        }
+        SegmentEdit edit = SegmentEdit.forSection(section, newContents);
+        return shrink ? edit.shrinking() : edit;
+    }
+
+    /**
+     * Replaces every region described by the given edits and updates the Mach-O header to match, parsing
+     * the header first if that has not been done yet. The file is rewritten in a single pass and each load
+     * command is updated once, however many edits are made.
+     * @param segmentEdits The edits to make. They must not overlap.
+     * @throws IOException
+     */
+    public void swapSegments(List<SegmentEdit> segmentEdits) throws IOException {
+        if (commands == null) {
+            parseHeader();
+        }
+        layout = new EditLayout(segmentEdits);
+        swapFile();
+        updateHeader();
+    }
+
     private void updateHeader() throws IOException {
-        if (sizeDiff <= 0) {
+        RebasedPositions rebased = null;
+        // Not the total, since a region that grows and one that shrinks by as much still move what is between them.
+        if (changesSize()) {
+            rebased = updateCommands();
+        }
+        CodeSignature codeSignature = findCommand(CodeSignature.class);
+        if (codeSignature != null) {
+            long start = startPhase(Phase.SIGNATURE);
+            try {
+                resealSignature(codeSignature, rebased);
+            }
+            finally {
+                endPhase(Phase.SIGNATURE, start);
+            }
+        }
+        binary.setPosition(0);
+    }
+
+    /**
+     * Applies the fixups for the change in size to every load command, then to every pointer.
+     * @return The rebased pointers that were considered, or null if the file has no rebase information and
+     * was scanned for addresses instead.
+     */
+    private RebasedPositions updateCommands() throws IOException {
+        long start = startPhase(Phase.HEADER_FIXUP);
+        try {
+            DyldInfo dyldInfo = findCommand(DyldInfo.class);
+            // Collect every fixup first so they can be written out together.
+            binary.beginPatches();
+            for (AbstractMachOCommand command : commands) {
+                binary.setPosition(command.getCommandStartOffset());
+                command.updateSizeifNeeded(binary, layout);
+                command.updateOffsetsIfNeeded(binary, layout);
+                command.updateAddressesIfNeeded(binary, layout);
+            }
+            if (dyldInfo == null) {
+                // Without rebase information we have to guess which words are addresses.
+                long scanStart = startPhase(Phase.OBJC_SCAN);
+                try {
+                    for (AbstractMachOCommand command : commands) {
+                        binary.setPosition(command.getCommandStartOffset());
+                        command.updateObjCAddressesIfNeeded(binary, layout);
+                    }
+                }
+                finally {
+                    endPhase(Phase.OBJC_SCAN, scanStart);
+                }
+            }
+            binary.flushPatches();
+            return dyldInfo != null ? updateRebasedPointers(dyldInfo) : null;
+        }
+        finally {
+            endPhase(Phase.HEADER_FIXUP, start);
+        }
+    }
+
+    private long startPhase(Phase phase) {
+        metrics.onPhaseStart(phase);
+        return System.nanoTime();
+    }
+
+    private void endPhase(Phase phase, long start) {
+        metrics.onPhaseEnd(phase, System.nanoTime() - start);
+    }
+
+    private <T extends AbstractMachOCommand> T findCommand(Class<T> type) {
+        for (AbstractMachOCommand command : commands) {
+            if (type.isInstance(command)) {
+                return type.cast(command);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Fails before anything is written if the file would change size but has pointers or file offsets that
+     * cannot be updated: chained fixups, whose chains are not rewritten, or a command known to hold file
+     * offsets that is not parsed.
+     */
+    private void checkFixupsSupported() throws IOException {
+        if (!changesSize()) {
             return;
         }
         for (AbstractMachOCommand command : commands) {
-            binary.setPosition(command.getCommandStartOffset());
-            command.updateSizeifNeeded(binary, SEGMENT_OFFSET, sizeDiff);
-            command.updateOffsetsIfNeeded(binary, SEGMENT_OFFSET, sizeDiff);
-            command.updateAddressesIfNeeded(binary, SEGMENT_ADDRESS, sizeDiff);
-            command.updateObjCAddressesIfNeeded(binary, SEGMENT_ADDRESS, sizeDiff);
+            if (command instanceof DyldChainedFixups) {
+                throw new IOException("The binary uses chained fixups, which cannot be updated yet, so no edit may change its size");
+            }
+            if (command instanceof UnsupportedCommand && ((UnsupportedCommand) command).hasFileOffsets()) {
+                throw new IOException("Load command 0x" + Integer.toHexString(((UnsupportedCommand) command).getCommandValue())
+                        + " holds file offsets that cannot be updated, so no edit may change the size of the binary");
+            }
+        }
+    }
+
+    /**
+     * Fails before anything is written if the file has dyld info and an edit that changes size does not
+     * replace a whole segment. The rebase and bind opcodes address locations by segment index and offset
+     * within the segment, and they are not encoded again, so those offsets must stay valid: the bytes of a
+     * segment may only move together with it. A segment with zero fill sections is refused as well, since
+     * their offsets within it change with its file size.
+     */
+    private void checkDyldInfoSupported() throws IOException {
+        if (findCommand(DyldInfo.class) == null) {
+            return;
+        }
+        for (SegmentEdit edit : layout.getEdits()) {
+            if (edit.getSizeDiff() == 0) {
+                continue;
+            }
+            Segment segment = findSegmentAt(edit.getOffset());
+            if (segment == null || segment.getFileOffset() != edit.getOffset() || segment.getFileSize() != edit.getOldSize()) {
+                throw new IOException("The edit at offset " + edit.getOffset() + " changes size within a segment, "
+                        + "which would leave the rebase and bind information pointing at the wrong locations");
+            }
+            for (Segment.Section section : segment.getSections()) {
+                if (!section.hasContentsInFile()) {
+                    throw new IOException("Segment " + segment.getPackedName() + " has zero fill sections, whose rebase and bind "
+                            + "information would point at the wrong locations if its size changed");
+                }
+            }
+        }
+    }
+
+    private Segment findSegmentAt(long offset) {
+        for (AbstractMachOCommand command : commands) {
+            if (command instanceof Segment) {
+                Segment segment = (Segment) command;
+                if (offset >= segment.getFileOffset() && offset < segment.getFileOffset() + segment.getFileSize()) {
+                    return segment;
+                }
+            }
+        }
+        return null;
+    }
+
+    private boolean changesSize() {
+        for (SegmentEdit edit : layout.getEdits()) {
+            if (edit.getSizeDiff() != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Fails before anything is written if the code signature would need more page hashes than it has room
+     * for, since it cannot grow without being signed again.
+     */
+    private void checkSignatureRoom() throws IOException {
+        CodeSignature codeSignature = findCommand(CodeSignature.class);
+        if (codeSignature == null || layout.getTotalSizeDiff() <= 0) {
+            return;
+        }
+        for (CodeDirectory directory : codeSignature.readCodeDirectories(binary)) {
+            long codeLimit = directory.getCodeLimit();
+            int slotsNeeded = directory.getSlotsNeeded(codeLimit + layout.getOffsetShift(codeLimit));
+            if (slotsNeeded > directory.getSlotCapacity()) {
+                throw new IOException("The edited binary needs " + slotsNeeded + " page hashes but its code signature only has room for "
+                        + directory.getSlotCapacity() + ", it must be signed again instead");
+            }
+        }
+    }
+
+    /**
+     * Moves the code limit of every code directory along with the rest of the file and hashes again every
+     * page that may have changed: the load commands, the replaced regions, everything that moved and every
+     * rebased pointer. All other page hashes are left as they are.
+     */
+    private void resealSignature(CodeSignature codeSignature, RebasedPositions rebased) throws IOException {
+        List<CodeDirectory> directories = codeSignature.readCodeDirectories(binary);
+        if (directories.isEmpty()) {
+            return;
+        }
+        long originalCodeLimit = directories.get(0).getCodeLimit();
+        long codeLimit = originalCodeLimit + layout.getOffsetShift(originalCodeLimit);
+        if (codeLimit != originalCodeLimit) {
+            for (CodeDirectory directory : directories) {
+                directory.setCodeLimit(binary, codeLimit);
+            }
+        }
+        int pageSize = PageHasher.getPageSize(directories);
+        BitSet pages = new BitSet();
+        markPages(pages, pageSize, 0, header.getHeaderImageSize());
+        for (SegmentEdit edit : layout.getEdits()) {
+            long start = edit.getOffset() + layout.getOffsetShift(edit.getOffset());
+            if (edit.getSizeDiff() != 0) {
+                // Everything after the first edit that changes size has moved.
+                markPages(pages, pageSize, start, codeLimit);
+                break;
+            }
+            markPages(pages, pageSize, start, start + edit.getOldSize());
+        }
+        if (rebased != null) {
+            for (int i = 0; i < rebased.count; i++) {
+                markPages(pages, pageSize, rebased.positions[i], rebased.positions[i] + header.getPointerSize());
+            }
+        }
+        else if (changesSize()) {
+            // Addresses were found by scanning, so any page of the file may have changed.
+            markPages(pages, pageSize, 0, codeLimit);
+        }
+        PageHasher.getDefault().rehash(binary, directories, codeLimit, pages);
+    }
+
+    private static void markPages(BitSet pages, int pageSize, long start, long end) {
+        if (end > start) {
+            pages.set((int) (start / pageSize), (int) ((end + pageSize - 1) / pageSize));
+        }
+    }
+
+    /**
+     * Shifts every pointer listed in the rebase information of the file, and nothing else. Locations within
+     * replaced regions are skipped, since their contents came from the replacement. The rebase and bind
+     * opcodes themselves are left as they are. They address segment offsets, which stay valid because
+     * {@link #checkDyldInfoSupported()} only lets whole segments change size.
+     * @return The positions of the pointers that were considered, in the edited file.
+     */
+    private RebasedPositions updateRebasedPointers(DyldInfo dyldInfo) throws IOException {
+        List<Segment> segments = new ArrayList<>();
+        for (AbstractMachOCommand command : commands) {
+            if (command instanceof Segment) {
+                segments.add((Segment) command);
+            }
+        }
+        RebasedPositions positions = new RebasedPositions(segments);
+        long rebaseOffset = dyldInfo.getRebaseOffset();
+        int pointerSize = header.getPointerSize();
+        dyldInfo.forEachRebase(binary, rebaseOffset + layout.getOffsetShift(rebaseOffset), pointerSize, positions);
+        AddressRewriter.getDefault().rewriteAt(binary, positions.positions, positions.count, pointerSize, layout);
+        return positions;
+    }
+
+    /**
+     * Collects the positions in the edited file of the rebased pointers that need shifting.
+     */
+    private class RebasedPositions implements DyldInfo.RebaseVisitor {
+        private final List<Segment> segments;
+        private long[] positions = new long[64];
+        private int count;
+
+        RebasedPositions(List<Segment> segments) {
+            this.segments = segments;
+        }
+
+        @SuppressWarnings("synthetic-access")
+        @Override
+        public void rebase(int segmentIndex, long segmentOffset, int type) throws IOException {
+            if (type == DyldInfo.REBASE_TYPE_TEXT_PCREL32) {
+                // Relative to the code around it, which moves by the same amount.
+                return;
+            }
+            // TEXT_ABSOLUTE32 only occurs in 32-bit files, where it is the same size as a pointer.
+            if (segmentIndex >= segments.size()) {
+                throw new IOException("Rebase refers to missing segment " + segmentIndex);
+            }
+            Segment segment = segments.get(segmentIndex);
+            if (segmentOffset >= segment.getFileSize()) {
+                // Zero fill, which is never in the file.
+                return;
+            }
+            long originalOffset = segment.getFileOffset() + segmentOffset;
+            if (layout.isReplaced(originalOffset)) {
+                return;
+            }
+            if (count == positions.length) {
+                positions = Arrays.copyOf(positions, count * 2);
+            }
+            positions[count++] = originalOffset + layout.getOffsetShift(originalOffset);
         }
-        binary.setPosition(0);
     }
 
     private void swapFile() throws IOException {
-        if (sizeDiff > 0) {
-            binary.insertFileAtOffsetOverriding(SEGMENT_OFFSET, newDataSegment, OLD_SIZE);
+        checkFixupsSupported();
+        checkDyldInfoSupported();
+        checkSignatureRoom();
+        if (headerCache != null) {
+            headerCache.invalidate(outputLocation != null ? outputLocation : cachedLocation);
         }
-        else {
-            binary.insertFileAtOffsetOverridingAndZeroing(SEGMENT_OFFSET, newDataSegment, OLD_SIZE);
+        long start = startPhase(Phase.SHIFT);
+        try {
+            if (outputLocation != null) {
+                copyFile();
+            }
+            else {
+                binary.replaceRegions(layout.getEdits());
+            }
+        }
+        finally {
+            endPhase(Phase.SHIFT, start);
         }
     }
 
     /**
-     * Given a Path to the Mach-O file and a Path to the new file to insert into it,
-     * constructs a new {@link DataSegmentSwapper}.
+     * Streams the edited binary to {@link #outputLocation}. From here on {@link #binary} refers to
+     * the copy, so the header updates are applied to it rather than to the original.
+     */
+    private void copyFile() throws IOException {
+        BinaryWrapper original = binary;
+        binary = original.copyWithReplacements(outputLocation, layout.getEdits());
+        original.close();
+    }
+
+    /**
+     * Given a Path to the Mach-O file, the name of a segment or section in it and a Path to the
+     * new file to insert in its place, constructs a new {@link DataSegmentSwapper}. The edit is
+     * made by {@link #swap()}.
      * @param binaryLocation The Path to the Mach-O file
+     * @param name The name of the segment or section to replace, as given to {@link #createEdit(String, FileChannel)}
      * @param newDataSegmentLocation The Path to the file to insert into the Mach-O file
      * @throws IOException
      */
-    public DataSegmentSwapper(Path binaryLocation, Path newDataSegmentLocation) throws IOException {
-        binary = new BinaryWrapper(binaryLocation);
-        newDataSegment = FileChannel.open(newDataSegmentLocation, StandardOpenOption.READ, StandardOpenOption.WRITE);
-        newSize = newDataSegment.size();
-        sizeDiff = (int) (newSize - OLD_SIZE);
-        if (sizeDiff > 0) {
-            while (sizeDiff % 64 != 0) {
-                sizeDiff++;
-                ByteBuffer padding = ByteBuffer.allocate(1);
-                padding.put((byte) 0);
-                padding.position(0);
-                newDataSegment.write(padding, newSize);
-                newSize++;
+    public DataSegmentSwapper(Path binaryLocation, String name, Path newDataSegmentLocation) throws IOException {
+        this(new BinaryWrapper(binaryLocation), name, newDataSegmentLocation, null);
+    }
+
+    /**
+     * Given a Path to the Mach-O file, the name of a segment or section in it, a Path to the new
+     * file to insert in its place and a Path to write the result to, constructs a new
+     * {@link DataSegmentSwapper}. The Mach-O file is only read; the edited binary is written to
+     * {@code outputLocation} in a single sequential pass.
+     * @param binaryLocation The Path to the Mach-O file
+     * @param name The name of the segment or section to replace, as given to {@link #createEdit(String, FileChannel)}
+     * @param newDataSegmentLocation The Path to the file to insert into the Mach-O file
+     * @param outputLocation The Path to write the edited Mach-O file to
+     * @throws IOException
+     */
+    public DataSegmentSwapper(Path binaryLocation, String name, Path newDataSegmentLocation, Path outputLocation) throws IOException {
+        this(BinaryWrapper.openReadOnly(binaryLocation), name, newDataSegmentLocation, outputLocation);
+    }
+
+    /**
+     * Given an already opened {@link BinaryWrapper}, the name of a segment or section in it and a
+     * Path to the new file to insert in its place, constructs a new {@link DataSegmentSwapper}.
+     * This allows any {@link BinaryWrapper} backend, such as {@link MappedBinaryWrapper}, to be used.
+     * @param binary The wrapped Mach-O file
+     * @param name The name of the segment or section to replace, as given to {@link #createEdit(String, FileChannel)}
+     * @param newDataSegmentLocation The Path to the file to insert into the Mach-O file
+     * @param outputLocation The Path to write the edited Mach-O file to, or null to edit it in place
+     * @throws IOException
+     */
+    public DataSegmentSwapper(BinaryWrapper binary, String name, Path newDataSegmentLocation, Path outputLocation) throws IOException {
+        this(binary, outputLocation);
+        this.replacedName = name;
+        this.replacement = FileChannel.open(newDataSegmentLocation, StandardOpenOption.READ);
+    }
+
+    /**
+     * Given an already opened {@link BinaryWrapper}, constructs a new {@link DataSegmentSwapper} that
+     * has nothing to swap yet. The edits are given to {@link #swapSegments(List)}.
+     * @param binary The wrapped Mach-O file
+     * @param outputLocation The Path to write the edited Mach-O file to, or null to edit it in place
+     */
+    public DataSegmentSwapper(BinaryWrapper binary, Path outputLocation) {
+        this.binary = binary;
+        this.outputLocation = outputLocation;
+    }
+
+    /**
+     * Makes {@link #parseHeader()} look the load commands up in a cache before parsing them, and store them
+     * there after. The entry is invalidated when the file is edited.
+     * @param cache The cache.
+     * @param binaryLocation The Path to the Mach-O file, which identifies it in the cache.
+     */
+    public void useHeaderCache(HeaderCache cache, Path binaryLocation) {
+        this.headerCache = cache;
+        this.cachedLocation = binaryLocation;
+    }
+
+    /**
+     * Sets whether the edits created by {@link #createEdit(String, FileChannel)} and {@link #swap()}
+     * shrink a segment or section whose new contents are smaller. Everything after it is then moved
+     * towards the start of the file in bounded chunks, the file is truncated, and every offset and
+     * address after it is moved back, instead of the old size being kept and padded with null bytes.
+     * @param shrink True to shrink, false to pad.
+     */
+    public void setShrink(boolean shrink) {
+        this.shrink = shrink;
+    }
+
+    /**
+     * Sets the listener told how long each phase of the edit takes, and about every read, write and
+     * transfer made on the file, including those made on the edited copy.
+     * @param metrics The listener, or {@link SwapMetrics#NONE}.
+     */
+    public void setMetrics(SwapMetrics metrics) {
+        this.metrics = metrics;
+        binary.setMetrics(metrics);
+    }
+
+    /**
+     * Gets the Mach-O header read by {@link #parseHeader()}.
+     * @return The header, or null if the header has not been parsed.
+     */
+    public MachOHeader getHeader() {
+        return header;
+    }
+
+    /**
+     * Gets the load commands found by {@link #parseHeader()}.
+     * @return The commands, or null if the header has not been parsed.
+     */
+    public List<AbstractMachOCommand> getCommands() {
+        return commands;
+    }
+
+    /**
+     * Gets the index of the segments and sections by name, built by {@link #parseHeader()}.
+     * @return The index, or null if the header has not been parsed.
+     */
+    public SegmentIndex getSegmentIndex() {
+        return segmentIndex;
+    }
+
+    /**
+     * Parses the load commands of the Mach-O file. The header and all of the load commands are read
+     * with a single read and parsed from memory, unless they are found in the cache given to
+     * {@link #useHeaderCache(HeaderCache, Path)}.
+     * @return The commands.
+     * @throws IOException
+     */
+    public List<AbstractMachOCommand> parseHeader() throws IOException {
+        long start = startPhase(Phase.PARSE);
+        try {
+            header = MachOHeader.read(binary);
+            if (headerCache != null) {
+                commands = headerCache.get(cachedLocation, binary, header);
+                if (commands == null) {
+                    parseCommands();
+                    headerCache.put(cachedLocation, binary, header, commands);
+                }
+                else {
+                    segmentIndex = SegmentIndex.of(commands);
+                }
+            }
+            else {
+                parseCommands();
             }
         }
+        finally {
+            endPhase(Phase.PARSE, start);
+        }
+        binary.setPosition(0);
+        return commands;
     }
 
-    private List<AbstractMachOCommand> parseHeader() throws IOException {
-        int commandCount = binary.getSingleWordAtPosition(HEADER_SEGMENTS_OFFSET);
-        binary.setPosition(FIRST_COMMAND_OFFSET);
+    private void parseCommands() throws IOException {
+        int commandCount = header.getCommandCount();
+        binary.setPosition(header.getFirstCommandOffset());
         commands = new ArrayList<>(commandCount);
+        segmentIndex = new SegmentIndex();
         while (commands.size() < commandCount) {
-            commands.add(parseCommand());
+            AbstractMachOCommand command = parseCommand();
+            if (command instanceof Segment) {
+                segmentIndex.add((Segment) command);
+            }
+            commands.add(command);
+        }
+    }
+
+    /**
+     * Closes the Mach-O file being edited, or the edited copy if one was written, and the new
+     * file given to the constructor, if any.
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            binary.close();
+        }
+        finally {
+            if (replacement != null) {
+                replacement.close();
+            }
         }
-        binary.setPosition(0);
-        return commands;
     }
 
     private AbstractMachOCommand parseCommand() throws IOException {
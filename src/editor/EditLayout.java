@@ -0,0 +1,181 @@
+package editor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The combined effect of a set of {@link SegmentEdit}s on the layout of a Mach-O file. <br>
+ * The edits are sorted by offset and the cumulative change in size before every edit is computed once,
+ * so the shift that applies to any offset or address in the original file can be found with a binary
+ * search. This allows every load command to be fixed up in a single pass no matter how many regions
+ * were replaced.
+ */
+public class EditLayout {
+
+    private final List<SegmentEdit> edits;
+    private final long[] offsets;
+    private final long[] ends;
+    private final long[] offsetShifts;
+    private final long[] addresses;
+    private final long[] addressShifts;
+
+    /**
+     * Creates the {@link EditLayout} for the given edits.
+     * @param edits The edits, in any order. They must not overlap.
+     */
+    public EditLayout(List<SegmentEdit> edits) {
+        List<SegmentEdit> sortedEdits = new ArrayList<>(edits);
+        Collections.sort(sortedEdits, Comparator.comparingLong(SegmentEdit::getOffset));
+        for (int i = 1; i < sortedEdits.size(); i++) {
+            SegmentEdit previous = sortedEdits.get(i - 1);
+            if (previous.getOffset() + previous.getOldSize() > sortedEdits.get(i).getOffset()) {
+                throw new IllegalArgumentException("Edits at offsets " + previous.getOffset() + " and "
+                        + sortedEdits.get(i).getOffset() + " overlap");
+            }
+        }
+        this.edits = Collections.unmodifiableList(sortedEdits);
+        int count = sortedEdits.size();
+        long[] editOffsets = new long[count];
+        long[] editEnds = new long[count];
+        long[] editAddresses = new long[count];
+        long[] sizeDiffs = new long[count];
+        for (int i = 0; i < count; i++) {
+            editOffsets[i] = sortedEdits.get(i).getOffset();
+            editEnds[i] = editOffsets[i] + sortedEdits.get(i).getOldSize();
+            editAddresses[i] = sortedEdits.get(i).getAddress();
+            sizeDiffs[i] = sortedEdits.get(i).getSizeDiff();
+        }
+        this.offsets = editOffsets;
+        this.ends = editEnds;
+        this.offsetShifts = prefixSums(sizeDiffs);
+        Integer[] byAddress = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            byAddress[i] = i;
+        }
+        Arrays.sort(byAddress, Comparator.comparingLong(i -> editAddresses[i]));
+        this.addresses = new long[count];
+        long[] sizeDiffsByAddress = new long[count];
+        for (int i = 0; i < count; i++) {
+            addresses[i] = editAddresses[byAddress[i]];
+            sizeDiffsByAddress[i] = sizeDiffs[byAddress[i]];
+        }
+        this.addressShifts = prefixSums(sizeDiffsByAddress);
+    }
+
+    private EditLayout(long offset, long address, long sizeDiff) {
+        this.edits = Collections.emptyList();
+        this.offsets = new long[] {offset};
+        this.ends = new long[] {offset};
+        this.addresses = new long[] {address};
+        this.offsetShifts = new long[] {0, sizeDiff};
+        this.addressShifts = offsetShifts;
+    }
+
+    /**
+     * Creates the {@link EditLayout} of a single modification that changed the size of the file by
+     * {@code sizeDiff} at the given offset and address.
+     * @param offset Where the modification was made.
+     * @param address The address where the modification was made.
+     * @param sizeDiff The change in size the modification caused.
+     * @return The {@link EditLayout}.
+     */
+    public static EditLayout forSingleEdit(long offset, long address, long sizeDiff) {
+        return new EditLayout(offset, address, sizeDiff);
+    }
+
+    private static long[] prefixSums(long[] values) {
+        long[] sums = new long[values.length + 1];
+        for (int i = 0; i < values.length; i++) {
+            sums[i + 1] = sums[i] + values[i];
+        }
+        return sums;
+    }
+
+    /**
+     * Counts the entries of the sorted array that are strictly less than the given value.
+     */
+    private static int countBefore(long[] sorted, long value) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sorted[middle] < value) {
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Gets the edits this layout was created from, sorted by offset.
+     * @return The edits.
+     */
+    public List<SegmentEdit> getEdits() {
+        return edits;
+    }
+
+    /**
+     * Gets how far a position in the original file moves, which is the total change in size of all of the
+     * edits made before it.
+     * @param originalOffset The offset in the original file.
+     * @return The change to apply to the offset.
+     */
+    public long getOffsetShift(long originalOffset) {
+        return offsetShifts[countBefore(offsets, originalOffset)];
+    }
+
+    /**
+     * Gets how far an address in the original file moves, which is the total change in size of all of the
+     * edits made at lower addresses.
+     * @param originalAddress The address in the original file.
+     * @return The change to apply to the address.
+     */
+    public long getAddressShift(long originalAddress) {
+        return addressShifts[countBefore(addresses, originalAddress)];
+    }
+
+    /**
+     * Checks if any edit was made at an address lower than the given one.
+     * @param originalAddress The address in the original file.
+     * @return True if the address comes after at least one edit.
+     */
+    public boolean isAfterAnyEditAddress(long originalAddress) {
+        return countBefore(addresses, originalAddress) > 0;
+    }
+
+    /**
+     * Checks if a position in the original file lies within a region that was replaced by one of the edits,
+     * in which case it has no counterpart in the edited file.
+     * @param originalOffset The offset in the original file.
+     * @return True if the byte at the offset was replaced.
+     */
+    public boolean isReplaced(long originalOffset) {
+        int index = countBefore(offsets, originalOffset + 1) - 1;
+        return index >= 0 && originalOffset < ends[index];
+    }
+
+    /**
+     * Gets the total change in size of the edits made within the given range of the original file.
+     * @param start The offset of the start of the range.
+     * @param size The size of the range.
+     * @return The change in size of the range.
+     */
+    public long getSizeDiffWithin(long start, long size) {
+        return offsetShifts[countBefore(offsets, start + size)] - offsetShifts[countBefore(offsets, start)];
+    }
+
+    /**
+     * Gets the total change in size of the file.
+     * @return The change in size, in bytes.
+     */
+    public long getTotalSizeDiff() {
+        return offsetShifts[offsetShifts.length - 1];
+    }
+
+}
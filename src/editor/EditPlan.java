@@ -0,0 +1,524 @@
+package editor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An edit of a Mach-O file worked out once, which can then be replayed on any byte-identical copy of the file
+ * without parsing it. <br>
+ * A plan is made by editing the file into a temporary copy with a {@link DataSegmentSwapper}. It records how
+ * the edited file is assembled, as a list of ranges copied from the original, inserted from the replacements
+ * or filled with null bytes, and every word the header updates changed, found by comparing the copy with the
+ * assembled ranges. Applying the plan assembles the edited file again in a single sequential pass over the
+ * original and the replacements, patching the words as they go by.
+ * <br>
+ * The plan holds a SHA-256 hash of the original and of every replacement. They are hashed as they are read
+ * and the edited file is only moved into place if both match, so a plan applied to any other file fails
+ * without changing anything.
+ */
+public class EditPlan {
+
+    /**
+     * The size of the chunks the edited file is assembled in.
+     */
+    public static final int CHUNK_SIZE = 1024 * 1024;
+
+    private static final int MAGIC = 0x4D4F4550;
+    private static final int VERSION = 1;
+    private static final int HASH_SIZE = 32;
+    private static final int WORD_SIZE = 4;
+    private static final byte COPY = 0;
+    private static final byte INSERT = 1;
+    private static final byte ZERO = 2;
+
+    private final long originalSize;
+    private final long[] replacementSizes;
+    private final List<Range> ranges;
+    private final long outputSize;
+    private byte[] originalHash;
+    private byte[][] replacementHashes;
+    private long[] patchPositions = new long[64];
+    private int[] patchValues = new int[64];
+    private int patchCount;
+
+    private EditPlan(long originalSize, long[] replacementSizes, List<Range> ranges) {
+        this.originalSize = originalSize;
+        this.replacementSizes = replacementSizes;
+        this.ranges = ranges;
+        long size = 0;
+        for (Range range : ranges) {
+            size += range.length;
+        }
+        this.outputSize = size;
+    }
+
+    /**
+     * Works out a plan for a file, or its edits, and writes it to a file. Usage is one of:
+     * <pre>
+     * EditPlan -plan pathToBinary segmentName pathToNewSegment pathToPlan
+     * EditPlan -apply pathToPlan pathToNewSegment pathToBinary...
+     * </pre>
+     * The first replaces the named segment of a binary in a dry run and writes the plan. The second applies a
+     * plan to every binary given, replacing each of them.
+     * @param args
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        long time = System.currentTimeMillis();
+        if (args.length == 5 && args[0].equals("-plan")) {
+            Path binaryLocation = Paths.get(args[1]);
+            try (FileChannel newSegment = FileChannel.open(Paths.get(args[3]), StandardOpenOption.READ)) {
+                SegmentEdit edit;
+                try (DataSegmentSwapper swapper = new DataSegmentSwapper(BinaryWrapper.openReadOnly(binaryLocation), null)) {
+                    edit = swapper.createEdit(args[2], newSegment);
+                }
+                EditPlan plan = create(binaryLocation, Collections.singletonList(edit));
+                plan.write(Paths.get(args[4]));
+                System.out.println(plan);
+            }
+        }
+        else if (args.length >= 4 && args[0].equals("-apply")) {
+            EditPlan plan = read(Paths.get(args[1]));
+            try (FileChannel newSegment = FileChannel.open(Paths.get(args[2]), StandardOpenOption.READ)) {
+                for (int i = 3; i < args.length; i++) {
+                    Path binaryLocation = Paths.get(args[i]);
+                    plan.apply(binaryLocation, Collections.singletonList(newSegment), binaryLocation);
+                }
+            }
+        }
+        else {
+            System.out.println("Invalid args. Needs -plan pathToBinary segmentName pathToNewSegment pathToPlan or "
+                    + "-apply pathToPlan pathToNewSegment pathToBinary...");
+            return;
+        }
+        System.out.println(System.currentTimeMillis() - time);
+    }
+
+    /**
+     * Works out the plan of the given edits by making them in a temporary copy of the file, which is deleted
+     * afterwards. The file itself is only read.
+     * @param binaryLocation The Path to the Mach-O file.
+     * @param edits The edits to make. They must not overlap.
+     * @return The plan. Its replacements are those of the edits, in the same order.
+     * @throws IOException If the edits cannot be made.
+     */
+    public static EditPlan create(Path binaryLocation, List<SegmentEdit> edits) throws IOException {
+        Path edited = Files.createTempFile(binaryLocation.toAbsolutePath().getParent(), "plan", ".tmp");
+        try {
+            try (DataSegmentSwapper swapper = new DataSegmentSwapper(BinaryWrapper.openReadOnly(binaryLocation), edited)) {
+                swapper.swapSegments(edits);
+            }
+            List<FileChannel> replacements = new ArrayList<>(edits.size());
+            long[] replacementSizes = new long[edits.size()];
+            for (int i = 0; i < edits.size(); i++) {
+                replacements.add(edits.get(i).getReplacement());
+                replacementSizes[i] = edits.get(i).getReplacement().size();
+            }
+            try (FileChannel original = FileChannel.open(binaryLocation, StandardOpenOption.READ);
+                    FileChannel copy = FileChannel.open(edited, StandardOpenOption.READ)) {
+                EditPlan plan = new EditPlan(original.size(), replacementSizes, createRanges(edits, original.size()));
+                if (copy.size() != plan.outputSize) {
+                    throw new IOException("The edited file is " + copy.size() + " bytes but its ranges add up to " + plan.outputSize);
+                }
+                ByteBuffer actual = getLittleEndianByteBuffer(plan.getChunkSize());
+                byte[][] hashes = plan.assemble(original, replacements, (chunk, position) -> {
+                    actual.clear().limit(chunk.remaining());
+                    readFully(copy, actual, position);
+                    plan.addPatches(chunk, actual, position);
+                });
+                plan.originalHash = hashes[0];
+                plan.replacementHashes = Arrays.copyOfRange(hashes, 1, hashes.length);
+                return plan;
+            }
+        }
+        finally {
+            Files.deleteIfExists(edited);
+        }
+    }
+
+    /**
+     * Lists the ranges the edited file is made of, in the same way as
+     * {@link BinaryWrapper#copyWithReplacements(Path, List)} writes it.
+     */
+    private static List<Range> createRanges(List<SegmentEdit> edits, long originalSize) throws IOException {
+        List<Range> ranges = new ArrayList<>();
+        long copiedUpTo = 0;
+        for (SegmentEdit edit : new EditLayout(edits).getEdits()) {
+            ranges.add(new Range(COPY, 0, copiedUpTo, edit.getOffset() - copiedUpTo));
+            ranges.add(new Range(INSERT, edits.indexOf(edit), 0, edit.getReplacement().size()));
+            ranges.add(new Range(ZERO, 0, 0, edit.getPadding()));
+            copiedUpTo = edit.getOffset() + edit.getOldSize();
+        }
+        ranges.add(new Range(COPY, 0, copiedUpTo, originalSize - copiedUpTo));
+        ranges.removeIf(range -> range.length == 0);
+        return Collections.unmodifiableList(ranges);
+    }
+
+    /**
+     * Records a patch for every word that differs between the assembled chunk and the edited file. A last
+     * partial word is recorded padded with null bytes.
+     */
+    private void addPatches(ByteBuffer expected, ByteBuffer actual, long position) {
+        int length = expected.remaining();
+        for (int i = 0; i < length; i += WORD_SIZE) {
+            if (i + WORD_SIZE <= length) {
+                if (expected.getInt(i) != actual.getInt(i)) {
+                    addPatch(position + i, actual.getInt(i));
+                }
+                continue;
+            }
+            int expectedTail = 0;
+            int actualTail = 0;
+            for (int b = 0; i + b < length; b++) {
+                expectedTail |= (expected.get(i + b) & 0xFF) << (8 * b);
+                actualTail |= (actual.get(i + b) & 0xFF) << (8 * b);
+            }
+            if (expectedTail != actualTail) {
+                addPatch(position + i, actualTail);
+            }
+        }
+    }
+
+    private void addPatch(long position, int value) {
+        if (patchCount == patchPositions.length) {
+            patchPositions = Arrays.copyOf(patchPositions, patchCount * 2);
+            patchValues = Arrays.copyOf(patchValues, patchCount * 2);
+        }
+        patchPositions[patchCount] = position;
+        patchValues[patchCount++] = value;
+    }
+
+    /**
+     * Applies this plan to a file, writing the edited file to a temporary file next to the output and moving
+     * it into place once the original and the replacements have been found to match the plan.
+     * @param binaryLocation The Path to the Mach-O file, which must be identical to the one the plan was made for.
+     * @param replacements The replacements, in the same order as the edits the plan was made from.
+     * @param outputLocation The Path to write the edited file to. It may be the file itself.
+     * @throws IOException If the file or the replacements do not match the plan, in which case nothing is written.
+     */
+    public void apply(Path binaryLocation, List<FileChannel> replacements, Path outputLocation) throws IOException {
+        Path assembled = Files.createTempFile(outputLocation.toAbsolutePath().getParent(), "edited", ".tmp");
+        try {
+            try (FileChannel original = FileChannel.open(binaryLocation, StandardOpenOption.READ);
+                    FileChannel output = FileChannel.open(assembled, StandardOpenOption.WRITE)) {
+                int[] nextPatch = new int[1];
+                byte[][] hashes = assemble(original, replacements, (chunk, position) -> {
+                    nextPatch[0] = patch(chunk, position, nextPatch[0]);
+                    while (chunk.hasRemaining()) {
+                        output.write(chunk, position + chunk.position());
+                    }
+                });
+                if (!MessageDigest.isEqual(hashes[0], originalHash)) {
+                    throw new IOException(binaryLocation + " is not the file this plan was made for");
+                }
+                for (int i = 0; i < replacementHashes.length; i++) {
+                    if (!MessageDigest.isEqual(hashes[i + 1], replacementHashes[i])) {
+                        throw new IOException("Replacement " + i + " is not the one this plan was made with");
+                    }
+                }
+            }
+            FilePermissions.copy(binaryLocation, assembled);
+            Files.move(assembled, outputLocation, StandardCopyOption.REPLACE_EXISTING);
+        }
+        finally {
+            Files.deleteIfExists(assembled);
+        }
+    }
+
+    /**
+     * Applies the patches that fall within the chunk, starting from the given one.
+     * @return The first patch after the chunk.
+     */
+    private int patch(ByteBuffer chunk, long position, int firstPatch) {
+        int length = chunk.remaining();
+        int next = firstPatch;
+        while (next < patchCount && patchPositions[next] < position + length) {
+            int offset = (int) (patchPositions[next] - position);
+            if (offset + WORD_SIZE <= length) {
+                chunk.putInt(offset, patchValues[next]);
+            }
+            else {
+                for (int b = 0; offset + b < length; b++) {
+                    chunk.put(offset + b, (byte) (patchValues[next] >>> (8 * b)));
+                }
+            }
+            next++;
+        }
+        return next;
+    }
+
+    /**
+     * Assembles the edited file from its ranges, without any patches, and passes it on one chunk at a time.
+     * The original and every replacement are read once, front to back, and hashed as they are read,
+     * including the parts of the original that are replaced.
+     * @return The hash of the original followed by the hash of every replacement.
+     */
+    private byte[][] assemble(FileChannel original, List<FileChannel> replacements, ChunkConsumer consumer) throws IOException {
+        if (original.size() != originalSize) {
+            throw new IOException("The file is " + original.size() + " bytes but the plan was made for one of " + originalSize + " bytes");
+        }
+        if (replacements.size() != replacementSizes.length) {
+            throw new IOException("The plan was made with " + replacementSizes.length + " replacements but " + replacements.size() + " were given");
+        }
+        MessageDigest[] digests = new MessageDigest[replacements.size() + 1];
+        for (int i = 0; i < digests.length; i++) {
+            if (i > 0 && replacements.get(i - 1).size() != replacementSizes[i - 1]) {
+                throw new IOException("Replacement " + (i - 1) + " is " + replacements.get(i - 1).size() + " bytes but the plan was made with one of "
+                        + replacementSizes[i - 1] + " bytes");
+            }
+            digests[i] = sha256();
+        }
+        ByteBuffer chunk = getLittleEndianByteBuffer(getChunkSize());
+        long chunkPosition = 0;
+        long originalRead = 0;
+        for (Range range : ranges) {
+            if (range.type == COPY) {
+                hashSkipped(original, originalRead, range.offset, digests[0], chunk);
+                originalRead = range.offset + range.length;
+            }
+            long done = 0;
+            while (done < range.length) {
+                int length = (int) Math.min(chunk.remaining(), range.length - done);
+                ByteBuffer part = chunk.slice(chunk.position(), length);
+                if (range.type == ZERO) {
+                    Arrays.fill(chunk.array(), chunk.arrayOffset() + chunk.position(), chunk.arrayOffset() + chunk.position() + length, (byte) 0);
+                }
+                else {
+                    FileChannel source = range.type == COPY ? original : replacements.get(range.source);
+                    readFully(source, part, range.offset + done);
+                    digests[range.type == COPY ? 0 : range.source + 1].update(part.flip());
+                }
+                chunk.position(chunk.position() + length);
+                done += length;
+                if (!chunk.hasRemaining()) {
+                    chunk.flip();
+                    consumer.accept(chunk, chunkPosition);
+                    chunkPosition += chunk.limit();
+                    chunk.clear();
+                }
+            }
+        }
+        if (chunk.position() > 0) {
+            chunk.flip();
+            consumer.accept(chunk, chunkPosition);
+        }
+        // The chunk is no longer needed, so it can hold the end of the original.
+        hashSkipped(original, originalRead, originalSize, digests[0], chunk.clear());
+        byte[][] hashes = new byte[digests.length][];
+        for (int i = 0; i < digests.length; i++) {
+            hashes[i] = digests[i].digest();
+        }
+        return hashes;
+    }
+
+    /**
+     * Hashes the part of the original between two ranges that are copied, which is replaced in the edited file.
+     */
+    private void hashSkipped(FileChannel original, long start, long end, MessageDigest digest, ByteBuffer chunk) throws IOException {
+        if (start > end) {
+            throw new IOException("The ranges copied from the original overlap");
+        }
+        if (start == end) {
+            return;
+        }
+        // Read after the part of the chunk in use, which has not been passed on yet.
+        ByteBuffer spare = chunk.slice(chunk.position(), chunk.remaining());
+        if (!spare.hasRemaining()) {
+            spare = ByteBuffer.allocate(WORD_SIZE * 1024);
+        }
+        for (long hashed = start; hashed < end;) {
+            spare.clear().limit((int) Math.min(spare.capacity(), end - hashed));
+            readFully(original, spare, hashed);
+            digest.update(spare.flip());
+            hashed += spare.limit();
+        }
+    }
+
+    private int getChunkSize() {
+        return (int) Math.max(WORD_SIZE, Math.min(CHUNK_SIZE, outputSize));
+    }
+
+    private static void readFully(FileChannel source, ByteBuffer destination, long position) throws IOException {
+        long readPosition = position;
+        while (destination.hasRemaining()) {
+            int read = source.read(destination, readPosition);
+            if (read < 0) {
+                throw new IOException("Did not read enough bytes!");
+            }
+            readPosition += read;
+        }
+    }
+
+    private static ByteBuffer getLittleEndianByteBuffer(int capacity) {
+        return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Writes this plan to a file, replacing it if it exists.
+     * @param planLocation The Path to write to.
+     * @throws IOException
+     */
+    public void write(Path planLocation) throws IOException {
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(planLocation)))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeLong(originalSize);
+            output.write(originalHash);
+            output.writeInt(replacementSizes.length);
+            for (int i = 0; i < replacementSizes.length; i++) {
+                output.writeLong(replacementSizes[i]);
+                output.write(replacementHashes[i]);
+            }
+            output.writeInt(ranges.size());
+            for (Range range : ranges) {
+                output.writeByte(range.type);
+                output.writeInt(range.source);
+                output.writeLong(range.offset);
+                output.writeLong(range.length);
+            }
+            output.writeInt(patchCount);
+            for (int i = 0; i < patchCount; i++) {
+                output.writeLong(patchPositions[i]);
+                output.writeInt(patchValues[i]);
+            }
+        }
+    }
+
+    /**
+     * Reads a plan written by {@link #write(Path)}.
+     * @param planLocation The Path to the plan.
+     * @return The plan.
+     * @throws IOException If the file is not a plan or is malformed.
+     */
+    public static EditPlan read(Path planLocation) throws IOException {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(planLocation)))) {
+            if (input.readInt() != MAGIC) {
+                throw new IOException(planLocation + " is not an edit plan");
+            }
+            int version = input.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported edit plan version " + version);
+            }
+            long originalSize = input.readLong();
+            byte[] originalHash = readHash(input);
+            int replacementCount = readCount(input, "replacements");
+            long[] replacementSizes = new long[replacementCount];
+            byte[][] replacementHashes = new byte[replacementCount][];
+            for (int i = 0; i < replacementCount; i++) {
+                replacementSizes[i] = input.readLong();
+                replacementHashes[i] = readHash(input);
+            }
+            int rangeCount = readCount(input, "ranges");
+            List<Range> ranges = new ArrayList<>(rangeCount);
+            for (int i = 0; i < rangeCount; i++) {
+                Range range = new Range(input.readByte(), input.readInt(), input.readLong(), input.readLong());
+                if (range.type < COPY || range.type > ZERO || range.length < 0 || range.offset < 0
+                        || (range.type == INSERT && (range.source < 0 || range.source >= replacementCount))) {
+                    throw new IOException("Invalid range " + i + " in edit plan");
+                }
+                ranges.add(range);
+            }
+            EditPlan plan = new EditPlan(originalSize, replacementSizes, Collections.unmodifiableList(ranges));
+            plan.originalHash = originalHash;
+            plan.replacementHashes = replacementHashes;
+            int patchCount = readCount(input, "patches");
+            plan.patchPositions = new long[patchCount];
+            plan.patchValues = new int[patchCount];
+            for (int i = 0; i < patchCount; i++) {
+                long position = input.readLong();
+                if (position < 0 || position >= plan.outputSize || (i > 0 && position <= plan.patchPositions[i - 1])) {
+                    throw new IOException("Invalid patch " + i + " in edit plan");
+                }
+                plan.addPatch(position, input.readInt());
+            }
+            return plan;
+        }
+    }
+
+    private static byte[] readHash(DataInputStream input) throws IOException {
+        byte[] hash = new byte[HASH_SIZE];
+        input.readFully(hash);
+        return hash;
+    }
+
+    private static int readCount(DataInputStream input, String what) throws IOException {
+        int count = input.readInt();
+        if (count < 0) {
+            throw new IOException("Invalid number of " + what + " " + count + " in edit plan");
+        }
+        return count;
+    }
+
+    /**
+     * Gets the size of the edited file.
+     * @return The size, in bytes.
+     */
+    public long getOutputSize() {
+        return outputSize;
+    }
+
+    /**
+     * Gets the number of words patched after the ranges are assembled.
+     * @return The number of patches.
+     */
+    public int getPatchCount() {
+        return patchCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Edit plan of %d ranges and %d patches, from %d to %d bytes", ranges.size(), patchCount, originalSize, outputSize);
+    }
+
+    /**
+     * A part of the edited file, copied from the original, inserted from a replacement or filled with null bytes.
+     */
+    private static class Range {
+        final byte type;
+        final int source;
+        final long offset;
+        final long length;
+
+        Range(byte type, int source, long offset, long length) {
+            this.type = type;
+            this.source = source;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Receives the assembled edited file one chunk at a time.
+     */
+    private interface ChunkConsumer {
+        void accept(ByteBuffer chunk, long position) throws IOException;
+    }
+
+}
@@ -0,0 +1,236 @@
+package editor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import macho.FatHeader;
+import macho.FatHeader.FatArch;
+import macho.MachOHeader;
+import macho.SegmentIndex;
+import macho.commands.AbstractMachOCommand;
+import macho.commands.Segment;
+
+/**
+ * Edits every architecture of a universal (fat) binary. <br>
+ * Each slice is opened as a {@link BinaryWrapper} limited to its range of the file and edited by its own
+ * {@link DataSegmentSwapper} into a temporary file, with all of the slices edited at the same time. The
+ * edited slices are then written out behind a fat header giving their new offsets, aligned as before, so
+ * editing a binary with several slices takes about as long as editing the largest one.
+ */
+public class FatBinarySwapper implements Closeable {
+
+    private final Path binaryLocation;
+    private final FileChannel channel;
+    private final FatHeader header;
+    private SwapMetrics metrics = SwapMetrics.NONE;
+
+    /**
+     * Opens a universal binary and reads its fat header. The binary is only read; the edited binary is
+     * written by {@link #swapSegments(SliceEditor, Path)}.
+     * @param binaryLocation The Path to the universal binary.
+     * @throws IOException If the file is not a universal binary.
+     */
+    public FatBinarySwapper(Path binaryLocation) throws IOException {
+        this.binaryLocation = binaryLocation;
+        this.channel = FileChannel.open(binaryLocation, StandardOpenOption.READ);
+        try {
+            this.header = FatHeader.read(BinaryWrapper.forSlice(channel, 0, channel.size()));
+        }
+        catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Given a Path to a universal binary, a segment name, a Path to the new contents of that segment and
+     * optionally a Path to write the result to, replaces the named segment in every architecture. Without
+     * an output Path the binary is replaced.
+     * @param args
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        long time = System.currentTimeMillis();
+        if (args.length < 3) {
+            System.out.println("Invalid args. Needs pathToBinary segmentName pathToNewSegment [pathToOutput]");
+            return;
+        }
+        Path binaryLocation = Paths.get(args[0]);
+        try (FatBinarySwapper swapper = new FatBinarySwapper(binaryLocation);
+                FileChannel newSegment = FileChannel.open(Paths.get(args[2]), StandardOpenOption.READ)) {
+            swapper.swapSegments(forSegmentName(args[1], newSegment), args.length > 3 ? Paths.get(args[3]) : binaryLocation);
+        }
+        System.out.println(System.currentTimeMillis() - time);
+    }
+
+    /**
+     * Creates a {@link SliceEditor} that replaces the segment with the given name in every slice.
+     * @param segmentName The name of the segment, such as {@code __DATA}.
+     * @param replacement The new contents of the segment. It is only read with positional reads, so it can be
+     * shared between the slices.
+     * @return The {@link SliceEditor}.
+     */
+    public static SliceEditor forSegmentName(String segmentName, FileChannel replacement) {
+        return (architecture, commands) -> {
+            Segment segment = SegmentIndex.of(commands).findSegment(segmentName);
+            if (segment != null) {
+                return Collections.singletonList(SegmentEdit.forSegment(segment, replacement, MachOHeader.getPageSize(architecture.getCpuType())));
+            }
+            throw new IOException("No segment named " + segmentName + " in architecture " + architecture.getCpuType());
+        };
+    }
+
+    /**
+     * Gets the fat header of the binary.
+     * @return The header.
+     */
+    public FatHeader getHeader() {
+        return header;
+    }
+
+    /**
+     * Gets a read only view of a single architecture of the binary.
+     * @param index The index of the architecture in {@link FatHeader#getArchitectures()}.
+     * @return A {@link BinaryWrapper} over the slice.
+     */
+    public BinaryWrapper getSlice(int index) {
+        FatArch architecture = header.getArchitectures().get(index);
+        return BinaryWrapper.forSlice(channel, architecture.getOffset(), architecture.getSize());
+    }
+
+    /**
+     * Sets the listener that the {@link DataSegmentSwapper} of every slice reports to, along with the writes
+     * made to assemble the edited binary.
+     * @param metrics The listener, or {@link SwapMetrics#NONE}.
+     */
+    public void setMetrics(SwapMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Edits every slice at the same time and writes the resulting universal binary.
+     * @param editor Decides the edits to make to each slice.
+     * @param outputLocation The Path to write the edited binary to. It may be the binary itself, in which
+     * case it is only replaced once every slice has been edited successfully.
+     * @throws IOException If any slice could not be edited, in which case nothing is written.
+     */
+    public void swapSegments(SliceEditor editor, Path outputLocation) throws IOException {
+        List<FatArch> architectures = header.getArchitectures();
+        Path directory = outputLocation.toAbsolutePath().getParent();
+        List<Path> editedSlices = new ArrayList<>(architectures.size());
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(architectures.size(), Runtime.getRuntime().availableProcessors())));
+        try {
+            List<Future<?>> futures = new ArrayList<>(architectures.size());
+            for (int i = 0; i < architectures.size(); i++) {
+                Path editedSlice = Files.createTempFile(directory, "slice", ".tmp");
+                editedSlices.add(editedSlice);
+                int index = i;
+                futures.add(executor.submit(() -> {
+                    swapSlice(index, editor, editedSlice);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                await(future);
+            }
+            writeFatBinary(editedSlices, outputLocation);
+        }
+        finally {
+            executor.shutdownNow();
+            for (Path editedSlice : editedSlices) {
+                Files.deleteIfExists(editedSlice);
+            }
+        }
+    }
+
+    private void swapSlice(int index, SliceEditor editor, Path editedSlice) throws IOException {
+        try (DataSegmentSwapper swapper = new DataSegmentSwapper(getSlice(index), editedSlice)) {
+            swapper.setMetrics(metrics);
+            List<AbstractMachOCommand> commands = swapper.parseHeader();
+            swapper.swapSegments(editor.getEdits(header.getArchitectures().get(index), commands));
+        }
+    }
+
+    private static void await(Future<?> future) throws IOException {
+        try {
+            future.get();
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to edit slice", e.getCause());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while editing slices", e);
+        }
+    }
+
+    /**
+     * Writes the new fat header and the edited slices to a temporary file next to the output, then moves it
+     * into place so that the output is never left half written. The output keeps the permissions of the
+     * original binary.
+     */
+    private void writeFatBinary(List<Path> editedSlices, Path outputLocation) throws IOException {
+        long[] sizes = new long[editedSlices.size()];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = Files.size(editedSlices.get(i));
+        }
+        FatHeader newHeader = header.withSliceSizes(sizes);
+        Path fatBinary = Files.createTempFile(outputLocation.toAbsolutePath().getParent(), "fat", ".tmp");
+        try {
+            try (FileChannel output = FileChannel.open(fatBinary, StandardOpenOption.WRITE)) {
+                metrics.onWrite(output.write(newHeader.toBytes(), 0));
+                for (int i = 0; i < sizes.length; i++) {
+                    output.position(newHeader.getArchitectures().get(i).getOffset());
+                    try (BinaryWrapper slice = BinaryWrapper.openReadOnly(editedSlices.get(i))) {
+                        slice.setMetrics(metrics);
+                        slice.transferTo(0, sizes[i], output);
+                    }
+                }
+            }
+            FilePermissions.copy(binaryLocation, fatBinary);
+            Files.move(fatBinary, outputLocation, StandardCopyOption.REPLACE_EXISTING);
+        }
+        finally {
+            Files.deleteIfExists(fatBinary);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Decides which edits to make to a single slice of a universal binary. It may be called for several
+     * slices at the same time.
+     */
+    @FunctionalInterface
+    public interface SliceEditor {
+
+        /**
+         * Gets the edits to make to a slice.
+         * @param architecture The architecture of the slice.
+         * @param commands The load commands of the slice.
+         * @return The edits. They must not overlap.
+         * @throws IOException
+         */
+        List<SegmentEdit> getEdits(FatArch architecture, List<AbstractMachOCommand> commands) throws IOException;
+    }
+
+}
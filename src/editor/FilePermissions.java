@@ -0,0 +1,32 @@
+package editor;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Keeps the permissions of a file that is replaced by moving a new file over it. The new file is usually
+ * a temporary file, which is only readable and writable by its owner, so without this an executable would
+ * lose its executable bits.
+ */
+final class FilePermissions {
+
+    private FilePermissions() {
+    }
+
+    /**
+     * Gives a file the POSIX permissions of another. Nothing is done on file systems without them.
+     * @param source The file whose permissions to copy.
+     * @param destination The file to give them to.
+     * @throws IOException
+     */
+    static void copy(Path source, Path destination) throws IOException {
+        try {
+            Files.setPosixFilePermissions(destination, Files.getPosixFilePermissions(source));
+        }
+        catch (UnsupportedOperationException e) {
+            // Not a POSIX file system, so there are no permissions to keep.
+        }
+    }
+
+}
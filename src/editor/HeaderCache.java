@@ -0,0 +1,286 @@
+package editor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+
+import macho.MachOCommandRegistry;
+import macho.MachOHeader;
+import macho.commands.AbstractMachOCommand;
+
+/**
+ * An on-disk cache of parsed load commands, so that a Mach-O file that is inspected or edited again and again
+ * only has its load commands parsed the first time. <br>
+ * Each file has one entry in the cache directory, named after a hash of its path. An entry is only used if
+ * the size and modification time of the file are unchanged and its header and load commands hash to the same
+ * value as when the entry was written, so a file changed by anything else simply misses. Using an entry
+ * touches it, and once the directory grows past its size limit the entries used least recently are deleted.
+ * <br>
+ * An entry holds what each command parsed, written with {@link AbstractMachOCommand#writeParsedState}, so
+ * reading it back only constructs the commands and fills in their fields. <br>
+ * Entries are written to a temporary file and moved into place, so several threads or processes can share
+ * one cache directory. An entry that cannot be read for any reason is treated as a miss.
+ */
+public class HeaderCache {
+
+    /**
+     * The size limit used unless otherwise specified.
+     */
+    public static final long DEFAULT_MAX_SIZE = 64L * 1024 * 1024;
+
+    private static final String ENTRY_SUFFIX = ".header";
+    private static final int MAGIC = 0x4D4F4843;
+    private static final int VERSION = 1;
+    private static final int HASH_SIZE = 32;
+
+    private final Path directory;
+    private final long maxSize;
+
+    /**
+     * Creates a cache in the given directory, creating the directory if needed.
+     * @param directory The directory to keep the entries in.
+     * @param maxSize The largest total size of the entries, in bytes.
+     * @throws IOException If the directory cannot be created.
+     */
+    public HeaderCache(Path directory, long maxSize) throws IOException {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("Invalid cache size " + maxSize);
+        }
+        this.directory = Files.createDirectories(directory);
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Looks up the load commands of a file. The header and load commands must already have been loaded by
+     * {@link MachOHeader#read(BinaryWrapper)}, so that they can be hashed without reading the file again.
+     * @param binaryLocation The Path to the file.
+     * @param binary The file.
+     * @param header The header of the file.
+     * @return The commands, or null if the cache has no valid entry for the file.
+     * @throws IOException If the file cannot be read.
+     */
+    public List<AbstractMachOCommand> get(Path binaryLocation, BinaryWrapper binary, MachOHeader header) throws IOException {
+        Path entryLocation = getEntryLocation(binaryLocation);
+        Key key = createKey(binaryLocation, binary, header);
+        List<AbstractMachOCommand> commands;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(entryLocation)))) {
+            commands = readEntry(input, key, binary, header);
+        }
+        catch (NoSuchFileException e) {
+            return null;
+        }
+        catch (IOException e) {
+            // Written by another version of the classes, or damaged. Either way it is no use.
+            commands = null;
+        }
+        if (commands == null) {
+            Files.deleteIfExists(entryLocation);
+            return null;
+        }
+        touch(entryLocation);
+        return commands;
+    }
+
+    /**
+     * Reads the commands from an entry, constructing each one at its offset in the file and restoring what it
+     * parsed.
+     * @return The commands, or null if the entry was written for another file or another version of it.
+     */
+    private static List<AbstractMachOCommand> readEntry(DataInputStream input, Key key, BinaryWrapper binary, MachOHeader header) throws IOException {
+        if (input.readInt() != MAGIC || input.readInt() != VERSION || !key.matches(input)) {
+            return null;
+        }
+        int commandCount = input.readInt();
+        if (commandCount != header.getCommandCount()) {
+            return null;
+        }
+        MachOCommandRegistry registry = MachOCommandRegistry.getDefault();
+        List<AbstractMachOCommand> commands = new ArrayList<>(commandCount);
+        while (commands.size() < commandCount) {
+            int commandValue = input.readInt();
+            long startOffset = input.readLong();
+            if (startOffset < header.getFirstCommandOffset() || startOffset >= header.getHeaderImageSize()) {
+                throw new IOException("Invalid command offset " + startOffset);
+            }
+            binary.setPosition(startOffset);
+            AbstractMachOCommand command = registry.getConstructor(commandValue).create(binary);
+            command.readParsedState(input);
+            commands.add(command);
+        }
+        return commands;
+    }
+
+    /**
+     * Stores the load commands of a file, then deletes the entries used least recently if the cache has
+     * grown too large. The commands must have been parsed from the file as it is now.
+     * @param binaryLocation The Path to the file.
+     * @param binary The file.
+     * @param header The header of the file, loaded by {@link MachOHeader#read(BinaryWrapper)}.
+     * @param commands The commands.
+     * @throws IOException If the entry cannot be written.
+     */
+    public void put(Path binaryLocation, BinaryWrapper binary, MachOHeader header, List<AbstractMachOCommand> commands) throws IOException {
+        Key key = createKey(binaryLocation, binary, header);
+        Path entryLocation = getEntryLocation(binaryLocation);
+        Path temporary = Files.createTempFile(directory, "entry", ".tmp");
+        try {
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+                key.write(output);
+                output.writeInt(commands.size());
+                for (AbstractMachOCommand command : commands) {
+                    output.writeInt(binary.getSingleWordAtPosition(command.getCommandStartOffset()));
+                    output.writeLong(command.getCommandStartOffset());
+                    command.writeParsedState(output);
+                }
+            }
+            try {
+                Files.move(temporary, entryLocation, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, entryLocation, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        finally {
+            Files.deleteIfExists(temporary);
+        }
+        evict();
+    }
+
+    /**
+     * Deletes the entry for a file, if there is one. This is called whenever a file is edited.
+     * @param binaryLocation The Path to the file.
+     * @throws IOException
+     */
+    public void invalidate(Path binaryLocation) throws IOException {
+        Files.deleteIfExists(getEntryLocation(binaryLocation));
+    }
+
+    private Path getEntryLocation(Path binaryLocation) {
+        byte[] path = binaryLocation.toAbsolutePath().normalize().toString().getBytes(StandardCharsets.UTF_8);
+        return directory.resolve(HexFormat.of().formatHex(sha256().digest(path)) + ENTRY_SUFFIX);
+    }
+
+    private static Key createKey(Path binaryLocation, BinaryWrapper binary, MachOHeader header) throws IOException {
+        Key key = new Key();
+        key.path = binaryLocation.toAbsolutePath().normalize().toString().getBytes(StandardCharsets.UTF_8);
+        key.size = binary.size();
+        key.modified = Files.getLastModifiedTime(binaryLocation).toMillis();
+        ByteBuffer image = ByteBuffer.allocate(header.getHeaderImageSize());
+        binary.getBytesAtPosition(image, 0);
+        image.flip();
+        MessageDigest digest = sha256();
+        digest.update(image);
+        key.headerHash = digest.digest();
+        return key;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void touch(Path entryLocation) {
+        try {
+            Files.setLastModifiedTime(entryLocation, FileTime.fromMillis(System.currentTimeMillis()));
+        }
+        catch (IOException e) {
+            // Evicted by someone else since it was read, which does not matter.
+        }
+    }
+
+    /**
+     * Deletes the entries with the oldest modification times, which are the ones used least recently, until
+     * the cache is within its size limit.
+     */
+    private void evict() throws IOException {
+        List<Path> entries = new ArrayList<>();
+        List<BasicFileAttributes> attributes = new ArrayList<>();
+        long total = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + ENTRY_SUFFIX)) {
+            for (Path entryLocation : stream) {
+                try {
+                    BasicFileAttributes entryAttributes = Files.readAttributes(entryLocation, BasicFileAttributes.class);
+                    entries.add(entryLocation);
+                    attributes.add(entryAttributes);
+                    total += entryAttributes.size();
+                }
+                catch (NoSuchFileException e) {
+                    // Deleted by someone else while listing.
+                }
+            }
+        }
+        if (total <= maxSize) {
+            return;
+        }
+        Integer[] order = new Integer[entries.size()];
+        Arrays.setAll(order, i -> i);
+        Arrays.sort(order, Comparator.comparing(i -> attributes.get(i).lastModifiedTime()));
+        for (int i = 0; i < order.length && total > maxSize; i++) {
+            Files.deleteIfExists(entries.get(order[i]));
+            total -= attributes.get(order[i]).size();
+        }
+    }
+
+    /**
+     * The identity of the file an entry was written for, which is written at the start of the entry.
+     */
+    private static class Key {
+        byte[] path;
+        long size;
+        long modified;
+        byte[] headerHash;
+
+        void write(DataOutputStream output) throws IOException {
+            output.writeInt(path.length);
+            output.write(path);
+            output.writeLong(size);
+            output.writeLong(modified);
+            output.write(headerHash);
+        }
+
+        /**
+         * Reads the key at the start of an entry and compares it to this one.
+         */
+        boolean matches(DataInputStream input) throws IOException {
+            int pathLength = input.readInt();
+            if (pathLength != path.length) {
+                return false;
+            }
+            byte[] entryPath = new byte[pathLength];
+            input.readFully(entryPath);
+            long entrySize = input.readLong();
+            long entryModified = input.readLong();
+            byte[] entryHash = new byte[HASH_SIZE];
+            input.readFully(entryHash);
+            return Arrays.equals(path, entryPath) && size == entrySize && modified == entryModified
+                    && Arrays.equals(headerHash, entryHash);
+        }
+    }
+
+}
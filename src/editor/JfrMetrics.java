@@ -0,0 +1,135 @@
+package editor;
+
+import java.util.ArrayDeque;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A {@link SwapMetrics} that emits JDK Flight Recorder events, so that edits can be profiled by starting a
+ * recording, for example with {@code -XX:StartFlightRecording}, without attaching a profiler. <br>
+ * Every phase becomes a {@code macho.editor.Phase} event, holding the reads, writes and allocations made by
+ * the thread running it while it ran. Phases run on other threads, such as those hashing pages, are not
+ * included. Each read, write and transfer can also become a {@code macho.editor.IO} event, but as there
+ * can be millions of them those are disabled unless the recording settings enable them.
+ */
+public class JfrMetrics implements SwapMetrics {
+
+    private static final String READ = "read";
+    private static final String WRITE = "write";
+    private static final String TRANSFER = "transfer";
+
+    private final ThreadLocal<ArrayDeque<PhaseEvent>> openPhases = ThreadLocal.withInitial(ArrayDeque::new);
+
+    @Override
+    public void onRead(long bytes) {
+        for (PhaseEvent phase : openPhases.get()) {
+            phase.bytesRead += bytes;
+            phase.ioCalls++;
+        }
+        commitIo(READ, bytes);
+    }
+
+    @Override
+    public void onWrite(long bytes) {
+        for (PhaseEvent phase : openPhases.get()) {
+            phase.bytesWritten += bytes;
+            phase.ioCalls++;
+        }
+        commitIo(WRITE, bytes);
+    }
+
+    @Override
+    public void onTransfer(long bytes) {
+        for (PhaseEvent phase : openPhases.get()) {
+            phase.bytesRead += bytes;
+            phase.bytesWritten += bytes;
+            phase.ioCalls++;
+        }
+        commitIo(TRANSFER, bytes);
+    }
+
+    @Override
+    public void onBufferAllocated(long capacity) {
+        for (PhaseEvent phase : openPhases.get()) {
+            phase.largestBuffer = Math.max(phase.largestBuffer, capacity);
+        }
+    }
+
+    @Override
+    public void onPhaseStart(Phase phase) {
+        PhaseEvent event = new PhaseEvent();
+        event.phase = phase.name();
+        event.begin();
+        openPhases.get().push(event);
+    }
+
+    @Override
+    public void onPhaseEnd(Phase phase, long nanos) {
+        ArrayDeque<PhaseEvent> phases = openPhases.get();
+        if (phases.isEmpty() || !phases.peek().phase.equals(phase.name())) {
+            // Started before this listener was set.
+            return;
+        }
+        PhaseEvent event = phases.pop();
+        event.end();
+        if (event.shouldCommit()) {
+            event.commit();
+        }
+    }
+
+    private static void commitIo(String kind, long bytes) {
+        IoEvent event = new IoEvent();
+        if (event.isEnabled()) {
+            event.kind = kind;
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+
+    @Name("macho.editor.Phase")
+    @Label("Mach-O Edit Phase")
+    @Category("Mach-O Editor")
+    @Description("A phase of an edit made by a DataSegmentSwapper, with the I/O made by the thread running it")
+    static class PhaseEvent extends Event {
+        @Label("Phase")
+        String phase;
+
+        @Label("Bytes Read")
+        @DataAmount
+        long bytesRead;
+
+        @Label("Bytes Written")
+        @DataAmount
+        long bytesWritten;
+
+        @Label("I/O Calls")
+        long ioCalls;
+
+        @Label("Largest Buffer")
+        @DataAmount
+        long largestBuffer;
+    }
+
+    @Name("macho.editor.IO")
+    @Label("Mach-O Editor I/O")
+    @Category("Mach-O Editor")
+    @Description("A single positional read, write or transfer made by a BinaryWrapper")
+    @Enabled(false)
+    @StackTrace(false)
+    static class IoEvent extends Event {
+        @Label("Kind")
+        String kind;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+}
@@ -0,0 +1,110 @@
+package editor;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link SwapMetrics} that adds up everything it is told about, across any number of files and threads,
+ * and summarizes it as a single JSON object. <br>
+ * The time of each phase is the sum over every time it ran, so when files are edited concurrently it can
+ * exceed the elapsed time. Since phases nest, the time of {@link SwapMetrics.Phase#HEADER_FIXUP} includes
+ * that of {@link SwapMetrics.Phase#OBJC_SCAN}.
+ */
+public class JsonMetricsReporter implements SwapMetrics {
+
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder bytesTransferred = new LongAdder();
+    private final LongAdder readCalls = new LongAdder();
+    private final LongAdder writeCalls = new LongAdder();
+    private final LongAdder transferCalls = new LongAdder();
+    private final LongAccumulator largestBuffer = new LongAccumulator(Math::max, 0);
+    private final LongAdder[] phaseCounts = new LongAdder[Phase.values().length];
+    private final LongAdder[] phaseNanos = new LongAdder[Phase.values().length];
+
+    /**
+     * Creates a {@link JsonMetricsReporter} with everything at zero.
+     */
+    public JsonMetricsReporter() {
+        for (int i = 0; i < phaseCounts.length; i++) {
+            phaseCounts[i] = new LongAdder();
+            phaseNanos[i] = new LongAdder();
+        }
+    }
+
+    @Override
+    public void onRead(long bytes) {
+        bytesRead.add(bytes);
+        readCalls.increment();
+    }
+
+    @Override
+    public void onWrite(long bytes) {
+        bytesWritten.add(bytes);
+        writeCalls.increment();
+    }
+
+    @Override
+    public void onTransfer(long bytes) {
+        bytesTransferred.add(bytes);
+        transferCalls.increment();
+    }
+
+    @Override
+    public void onBufferAllocated(long capacity) {
+        largestBuffer.accumulate(capacity);
+    }
+
+    @Override
+    public void onPhaseEnd(Phase phase, long nanos) {
+        phaseCounts[phase.ordinal()].increment();
+        phaseNanos[phase.ordinal()].add(nanos);
+    }
+
+    /**
+     * Summarizes everything recorded so far. Transferred bytes count as both read and written, and each
+     * transfer counts as a single call.
+     * @return The summary, as a JSON object on a single line.
+     */
+    public String toJson() {
+        long transferred = bytesTransferred.sum();
+        long transfers = transferCalls.sum();
+        StringBuilder json = new StringBuilder();
+        json.append("{\"bytesRead\":").append(bytesRead.sum() + transferred)
+                .append(",\"bytesWritten\":").append(bytesWritten.sum() + transferred)
+                .append(",\"bytesTransferred\":").append(transferred)
+                .append(",\"ioCalls\":").append(readCalls.sum() + writeCalls.sum() + transfers)
+                .append(",\"readCalls\":").append(readCalls.sum())
+                .append(",\"writeCalls\":").append(writeCalls.sum())
+                .append(",\"transferCalls\":").append(transfers)
+                .append(",\"largestBuffer\":").append(largestBuffer.get())
+                .append(",\"phases\":{");
+        for (Phase phase : Phase.values()) {
+            if (phase.ordinal() > 0) {
+                json.append(',');
+            }
+            json.append('"').append(phase.name()).append("\":{\"count\":").append(phaseCounts[phase.ordinal()].sum())
+                    .append(",\"nanos\":").append(phaseNanos[phase.ordinal()].sum()).append('}');
+        }
+        return json.append("}}").toString();
+    }
+
+    /**
+     * Writes the summary given by {@link #toJson()} to a file, replacing it if it exists.
+     * @param location The Path to write to.
+     * @throws IOException
+     */
+    public void writeTo(Path location) throws IOException {
+        Files.write(location, (toJson() + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public String toString() {
+        return toJson();
+    }
+
+}
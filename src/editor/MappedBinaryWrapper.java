@@ -0,0 +1,188 @@
+package editor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * A {@link BinaryWrapper} that maps the wrapped file into memory so that word reads and writes are
+ * plain memory accesses instead of individual {@link FileChannel} calls. <br>
+ * A single {@link MappedByteBuffer} can cover at most 2 GB, so the file is mapped as a series of
+ * windows. Each window overlaps the next by a few bytes so that a word never straddles two windows. <br>
+ * Writes land in the mapping and are only guaranteed to reach the storage device after {@link #force()}.
+ * Operations that change the size of the file remap it once they complete.
+ */
+public class MappedBinaryWrapper extends BinaryWrapper {
+
+    /**
+     * The default size of a single mapped window.
+     */
+    public static final long DEFAULT_WINDOW_SIZE = 1L << 30;
+    private static final int WINDOW_OVERLAP = 8;
+
+    private final long windowSize;
+    private MappedByteBuffer[] windows;
+    private boolean[] dirtyWindows;
+
+    /**
+     * Creates a {@link MappedBinaryWrapper} given a Path, using {@link #DEFAULT_WINDOW_SIZE}.
+     * @param binaryLocation A Path to the Mach-O file to be wrapped
+     * @throws IOException
+     */
+    public MappedBinaryWrapper(Path binaryLocation) throws IOException {
+        this(binaryLocation, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Creates a {@link MappedBinaryWrapper} given a Path and the size of each mapped window.
+     * @param binaryLocation A Path to the Mach-O file to be wrapped
+     * @param windowSize The size of each mapped window, must be positive and no larger than
+     * {@code Integer.MAX_VALUE - 8}.
+     * @throws IOException
+     */
+    public MappedBinaryWrapper(Path binaryLocation, long windowSize) throws IOException {
+        super(binaryLocation);
+        if (windowSize <= 0 || windowSize > Integer.MAX_VALUE - WINDOW_OVERLAP) {
+            throw new IllegalArgumentException("Invalid window size " + windowSize);
+        }
+        this.windowSize = windowSize;
+        remap();
+    }
+
+    /**
+     * Discards the current mapping and maps the file again at its current size.
+     * @throws IOException
+     */
+    private void remap() throws IOException {
+        long fileSize = binary.size();
+        int windowCount = (int) ((fileSize + windowSize - 1) / windowSize);
+        windows = new MappedByteBuffer[windowCount];
+        dirtyWindows = new boolean[windowCount];
+        for (int i = 0; i < windowCount; i++) {
+            long windowStart = i * windowSize;
+            long windowLength = Math.min(windowSize + WINDOW_OVERLAP, fileSize - windowStart);
+            windows[i] = binary.map(MapMode.READ_WRITE, windowStart, windowLength);
+            windows[i].order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    private MappedByteBuffer getWindow(long position, int length) throws IOException {
+        int window = (int) (position / windowSize);
+        if (position < 0 || window >= windows.length || getOffsetInWindow(position, window) + length > windows[window].limit()) {
+            throw new IOException("Position " + position + " is outside of the mapped file!");
+        }
+        return windows[window];
+    }
+
+    private int getOffsetInWindow(long position, int window) {
+        return (int) (position - window * windowSize);
+    }
+
+    @Override
+    protected int readWord(long position) throws IOException {
+        MappedByteBuffer window = getWindow(position, WORD_SIZE);
+        return window.getInt(getOffsetInWindow(position, (int) (position / windowSize)));
+    }
+
+    @Override
+    protected byte readByte(long position) throws IOException {
+        MappedByteBuffer window = getWindow(position, 1);
+        return window.get(getOffsetInWindow(position, (int) (position / windowSize)));
+    }
+
+    @Override
+    protected void writeWord(int value, long position) throws IOException {
+        int window = (int) (position / windowSize);
+        getWindow(position, WORD_SIZE).putInt(getOffsetInWindow(position, window), value);
+        dirtyWindows[window] = true;
+        // The word may also live in the overlapping tail of the previous window.
+        if (window > 0) {
+            int previousOffset = getOffsetInWindow(position, window - 1);
+            if (previousOffset + WORD_SIZE <= windows[window - 1].limit()) {
+                windows[window - 1].putInt(previousOffset, value);
+                dirtyWindows[window - 1] = true;
+            }
+        }
+    }
+
+    @Override
+    protected void readBytes(ByteBuffer destination, long position) throws IOException {
+        long readPosition = position;
+        while (destination.hasRemaining()) {
+            int window = (int) (readPosition / windowSize);
+            int offset = getOffsetInWindow(readPosition, window);
+            int toRead = Math.min(destination.remaining(), getWindow(readPosition, 1).limit() - offset);
+            destination.put(windows[window].slice(offset, toRead));
+            readPosition += toRead;
+        }
+    }
+
+    @Override
+    protected void writeBytes(ByteBuffer source, long position) throws IOException {
+        if (!source.hasRemaining()) {
+            return;
+        }
+        long end = position + source.remaining();
+        getWindow(end - 1, 1);
+        // Every window holding part of the range gets a copy, including those that only hold it in their overlap.
+        int firstWindow = (int) Math.max(0, position / windowSize - 1);
+        int lastWindow = (int) ((end - 1) / windowSize);
+        for (int window = firstWindow; window <= lastWindow; window++) {
+            long windowStart = window * windowSize;
+            long copyStart = Math.max(position, windowStart);
+            long copyEnd = Math.min(end, windowStart + windows[window].limit());
+            if (copyStart < copyEnd) {
+                ByteBuffer part = source.slice(source.position() + (int) (copyStart - position), (int) (copyEnd - copyStart));
+                windows[window].put((int) (copyStart - windowStart), part, 0, part.remaining());
+                dirtyWindows[window] = true;
+            }
+        }
+        source.position(source.limit());
+    }
+
+    @Override
+    public void insertFileAtOffsetOverriding(long position, FileChannel inputBytes, long amountToOverwrite) throws IOException {
+        super.insertFileAtOffsetOverriding(position, inputBytes, amountToOverwrite);
+        remap();
+    }
+
+    @Override
+    public void insertFileAtOffsetOverridingAndZeroing(long position, FileChannel inputBytes, long amountToOverwriteAndZero) throws IOException {
+        super.insertFileAtOffsetOverridingAndZeroing(position, inputBytes, amountToOverwriteAndZero);
+        remap();
+    }
+
+    @Override
+    public void replaceRegions(List<SegmentEdit> edits) throws IOException {
+        super.replaceRegions(edits);
+        remap();
+    }
+
+    /**
+     * Forces every window that has been written to since the last call out to the storage device.
+     * @throws IOException
+     */
+    @Override
+    public void force() throws IOException {
+        for (int i = 0; i < windows.length; i++) {
+            if (dirtyWindows[i]) {
+                windows[i].force();
+                dirtyWindows[i] = false;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        force();
+        windows = new MappedByteBuffer[0];
+        dirtyWindows = new boolean[0];
+        super.close();
+    }
+
+}
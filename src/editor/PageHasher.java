@@ -0,0 +1,221 @@
+package editor;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import macho.CodeDirectory;
+
+/**
+ * Recomputes the page hashes of the code directories of an ad-hoc signed Mach-O file after it has been
+ * edited. <br>
+ * Only the pages that are marked as changed are hashed. They are split between the threads of a
+ * {@link ForkJoinPool}, and each run of consecutive pages is read once and hashed for every code directory,
+ * so a SHA-1 and a SHA-256 directory cost a single pass over the file. The new hashes of each run are then
+ * written back with a single write per directory.
+ * <br>
+ * Only the page hashes are updated, so a signature made with a certificate no longer verifies afterwards;
+ * an ad-hoc signature, whose code directories are not signed themselves, does.
+ */
+public class PageHasher {
+
+    /**
+     * The largest number of pages hashed by a single task unless otherwise specified.
+     */
+    public static final int DEFAULT_PAGES_PER_TASK = 64;
+    private static final PageHasher DEFAULT = new PageHasher(ForkJoinPool.commonPool(), DEFAULT_PAGES_PER_TASK);
+
+    private final ForkJoinPool pool;
+    private final int pagesPerTask;
+
+    /**
+     * Creates a {@link PageHasher}.
+     * @param pool The pool to split the pages across.
+     * @param pagesPerTask The largest number of pages to read and hash in a single task.
+     */
+    public PageHasher(ForkJoinPool pool, int pagesPerTask) {
+        if (pagesPerTask < 1) {
+            throw new IllegalArgumentException("Invalid number of pages per task " + pagesPerTask);
+        }
+        this.pool = pool;
+        this.pagesPerTask = pagesPerTask;
+    }
+
+    /**
+     * Gets the {@link PageHasher} using the common {@link ForkJoinPool} and {@link #DEFAULT_PAGES_PER_TASK}.
+     * @return The default {@link PageHasher}.
+     */
+    public static PageHasher getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Gets the page size shared by the code directories.
+     * @param directories The code directories.
+     * @return The page size, in bytes.
+     * @throws IOException If the directories hash pages of different sizes.
+     */
+    public static int getPageSize(List<CodeDirectory> directories) throws IOException {
+        int pageSize = directories.get(0).getPageSize();
+        for (CodeDirectory directory : directories) {
+            if (directory.getPageSize() != pageSize) {
+                throw new IOException("Code directories with different page sizes are not supported");
+            }
+        }
+        return pageSize;
+    }
+
+    /**
+     * Hashes the given pages again and writes the hashes to every code directory.
+     * @param binary The file to update.
+     * @param directories The code directories, which must all use the same page size.
+     * @param codeLimit The end of the hashed part of the file. The last page stops there.
+     * @param pages The indexes of the pages to hash. Pages past the code limit are ignored.
+     * @return The number of pages hashed.
+     * @throws IOException
+     */
+    public int rehash(BinaryWrapper binary, List<CodeDirectory> directories, long codeLimit, BitSet pages) throws IOException {
+        if (directories.isEmpty()) {
+            return 0;
+        }
+        int pageSize = getPageSize(directories);
+        long pageCount = (codeLimit + pageSize - 1) / pageSize;
+        int[] indexes = pages.stream().filter(page -> page < pageCount).toArray();
+        if (indexes.length == 0) {
+            return 0;
+        }
+        byte[][] hashes = new byte[directories.size()][];
+        for (int i = 0; i < hashes.length; i++) {
+            // Fail on an unknown algorithm before any work is done.
+            directories.get(i).getHashAlgorithm();
+            hashes[i] = new byte[indexes.length * directories.get(i).getHashSize()];
+        }
+        HashTask task = new HashTask(binary, directories, codeLimit, pageSize, indexes, hashes, 0, indexes.length);
+        try {
+            if (indexes.length <= pagesPerTask) {
+                task.hashPages();
+            }
+            else {
+                pool.invoke(task);
+            }
+        }
+        catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        for (int i = 0; i < hashes.length; i++) {
+            writeHashes(binary, directories.get(i), indexes, hashes[i]);
+        }
+        return indexes.length;
+    }
+
+    /**
+     * Writes the hashes of each run of consecutive pages with a single write.
+     */
+    private static void writeHashes(BinaryWrapper binary, CodeDirectory directory, int[] indexes, byte[] hashes) throws IOException {
+        int hashSize = directory.getHashSize();
+        int first = 0;
+        while (first < indexes.length) {
+            int last = first;
+            while (last + 1 < indexes.length && indexes[last + 1] == indexes[last] + 1) {
+                last++;
+            }
+            binary.setBytesAtPosition(ByteBuffer.wrap(hashes, first * hashSize, (last - first + 1) * hashSize),
+                    directory.getHashesPosition() + (long) indexes[first] * hashSize);
+            first = last + 1;
+        }
+    }
+
+    private class HashTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final transient BinaryWrapper binary;
+        private final transient List<CodeDirectory> directories;
+        private final long codeLimit;
+        private final int pageSize;
+        private final int[] indexes;
+        private final byte[][] hashes;
+        private final int from;
+        private final int to;
+
+        HashTask(BinaryWrapper binary, List<CodeDirectory> directories, long codeLimit, int pageSize, int[] indexes,
+                byte[][] hashes, int from, int to) {
+            this.binary = binary;
+            this.directories = directories;
+            this.codeLimit = codeLimit;
+            this.pageSize = pageSize;
+            this.indexes = indexes;
+            this.hashes = hashes;
+            this.from = from;
+            this.to = to;
+        }
+
+        @SuppressWarnings("synthetic-access")
+        @Override
+        protected void compute() {
+            if (to - from <= pagesPerTask) {
+                try {
+                    hashPages();
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new HashTask(binary, directories, codeLimit, pageSize, indexes, hashes, from, middle),
+                    new HashTask(binary, directories, codeLimit, pageSize, indexes, hashes, middle, to));
+        }
+
+        /**
+         * Reads each run of consecutive pages in this task's share with a single read, and hashes every page
+         * in it for every directory. Each task writes to its own part of the hash arrays.
+         */
+        void hashPages() throws IOException {
+            MessageDigest[] digests = new MessageDigest[directories.size()];
+            for (int i = 0; i < digests.length; i++) {
+                digests[i] = createDigest(directories.get(i).getHashAlgorithm());
+            }
+            ByteBuffer run = ByteBuffer.allocate((int) Math.min((long) (to - from) * pageSize, codeLimit));
+            binary.getMetrics().onBufferAllocated(run.capacity());
+            int first = from;
+            while (first < to) {
+                int last = first;
+                while (last + 1 < to && indexes[last + 1] == indexes[last] + 1) {
+                    last++;
+                }
+                long start = (long) indexes[first] * pageSize;
+                long end = Math.min((long) (indexes[last] + 1) * pageSize, codeLimit);
+                run.clear().limit((int) (end - start));
+                binary.getBytesAtPosition(run, start);
+                for (int page = first; page <= last; page++) {
+                    int pageStart = (page - first) * pageSize;
+                    int pageEnd = (int) Math.min(pageStart + (long) pageSize, end - start);
+                    for (int i = 0; i < digests.length; i++) {
+                        run.limit(pageEnd).position(pageStart);
+                        digests[i].update(run);
+                        int hashSize = directories.get(i).getHashSize();
+                        byte[] digest = digests[i].digest();
+                        // Truncated hash types keep only the start of the digest.
+                        System.arraycopy(digest, 0, hashes[i], page * hashSize, Math.min(hashSize, digest.length));
+                    }
+                }
+                first = last + 1;
+            }
+        }
+    }
+
+    private static MessageDigest createDigest(String algorithm) throws IOException {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IOException("No " + algorithm + " support for code signature hashes", e);
+        }
+    }
+
+}
@@ -0,0 +1,189 @@
+package editor;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * A set of word writes that have not been applied to a file yet, keyed by absolute file offset. <br>
+ * Writes are recorded with {@link #put(long, int)} and can be read back before they are applied with
+ * {@link #overlay(ByteBuffer, long)}. When they are applied, writes that are close together are merged
+ * into a single {@link Run}, so that a set of header fixups can be written with a handful of large writes
+ * instead of one small write per word.
+ */
+public class PatchSet {
+
+    /**
+     * The largest gap, in bytes, between two writes that will still be merged into the same {@link Run}
+     * unless otherwise specified.
+     */
+    public static final int DEFAULT_MAX_GAP = 4096;
+    private static final int WORD_SIZE = 4;
+
+    private final NavigableMap<Long, Integer> words = new TreeMap<>();
+    private final int maxGap;
+
+    /**
+     * Creates an empty {@link PatchSet} that merges writes up to {@link #DEFAULT_MAX_GAP} bytes apart.
+     */
+    public PatchSet() {
+        this(DEFAULT_MAX_GAP);
+    }
+
+    /**
+     * Creates an empty {@link PatchSet}.
+     * @param maxGap The largest gap, in bytes, between two writes that will still be merged into the
+     * same {@link Run}. Bytes in the gap are read back from the file when the run is applied.
+     */
+    public PatchSet(int maxGap) {
+        this.maxGap = maxGap;
+    }
+
+    /**
+     * Records a write of a single word. Any earlier write to any of the same bytes is superseded.
+     * @param position The absolute position of the word.
+     * @param value The word.
+     */
+    public synchronized void put(long position, int value) {
+        // Drop earlier writes that only partially overlap this one so that they cannot override it.
+        words.subMap(position - WORD_SIZE, false, position + WORD_SIZE, false).clear();
+        words.put(position, value);
+    }
+
+    /**
+     * Checks if there are no recorded writes.
+     * @return True if there is nothing to apply.
+     */
+    public synchronized boolean isEmpty() {
+        return words.isEmpty();
+    }
+
+    /**
+     * Gets the number of recorded word writes.
+     * @return The number of words.
+     */
+    public synchronized int size() {
+        return words.size();
+    }
+
+    /**
+     * Applies any recorded writes that fall within the given buffer to it, so that data read from the file
+     * reflects the writes that have not been applied yet. The buffer's position and limit are unchanged.
+     * @param buffer The buffer, holding the contents of the file from its position to its limit.
+     * @param bufferPosition The absolute position in the file of the buffer's current position.
+     */
+    public synchronized void overlay(ByteBuffer buffer, long bufferPosition) {
+        long bufferEnd = bufferPosition + buffer.remaining();
+        for (Entry<Long, Integer> word : words.subMap(bufferPosition - WORD_SIZE, false, bufferEnd, false).entrySet()) {
+            int value = word.getValue();
+            for (int i = 0; i < WORD_SIZE; i++) {
+                long bytePosition = word.getKey() + i;
+                if (bytePosition >= bufferPosition && bytePosition < bufferEnd) {
+                    buffer.put(buffer.position() + (int) (bytePosition - bufferPosition), (byte) (value >>> (8 * i)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Forgets any recorded writes to bytes within the given range, typically because the range has just
+     * been written with data that already includes them.
+     * @param start The absolute position of the start of the range.
+     * @param length The length of the range.
+     */
+    public synchronized void discard(long start, long length) {
+        words.subMap(start - WORD_SIZE, false, start + length, false).clear();
+    }
+
+    /**
+     * Merges the recorded writes into runs. Writes are merged when the gap between them is no larger
+     * than the maximum gap of this {@link PatchSet}.
+     * @return The runs, in order of position.
+     */
+    public synchronized List<Run> getRuns() {
+        List<Run> runs = new ArrayList<>();
+        long runStart = -1;
+        long runEnd = -1;
+        List<Entry<Long, Integer>> runWords = new ArrayList<>();
+        for (Entry<Long, Integer> word : words.entrySet()) {
+            if (!runWords.isEmpty() && word.getKey() - runEnd > maxGap) {
+                runs.add(new Run(runStart, runEnd, runWords));
+                runWords = new ArrayList<>();
+            }
+            if (runWords.isEmpty()) {
+                runStart = word.getKey();
+            }
+            runWords.add(word);
+            runEnd = word.getKey() + WORD_SIZE;
+        }
+        if (!runWords.isEmpty()) {
+            runs.add(new Run(runStart, runEnd, runWords));
+        }
+        return runs;
+    }
+
+    /**
+     * Forgets every recorded write.
+     */
+    public synchronized void clear() {
+        words.clear();
+    }
+
+    /**
+     * A contiguous range of the file containing one or more recorded writes.
+     */
+    public static class Run {
+        private final long start;
+        private final long end;
+        private final List<Entry<Long, Integer>> runWords;
+        private final boolean contiguous;
+
+        Run(long start, long end, List<Entry<Long, Integer>> runWords) {
+            this.start = start;
+            this.end = end;
+            this.runWords = runWords;
+            this.contiguous = runWords.size() * (long) WORD_SIZE == end - start;
+        }
+
+        /**
+         * Gets the absolute position of the start of this run.
+         * @return The position.
+         */
+        public long getStart() {
+            return start;
+        }
+
+        /**
+         * Gets the length of this run.
+         * @return The length, in bytes.
+         */
+        public int getLength() {
+            return (int) (end - start);
+        }
+
+        /**
+         * Checks if every byte of this run is written, in which case the current contents of the file
+         * do not need to be read before it is applied.
+         * @return True if there are no gaps between the writes in this run.
+         */
+        public boolean isContiguous() {
+            return contiguous;
+        }
+
+        /**
+         * Writes the words of this run into a buffer holding the contents of the file for this run.
+         * @param buffer A little endian buffer of at least {@link #getLength()} bytes, starting at its position.
+         */
+        public void apply(ByteBuffer buffer) {
+            ByteBuffer ordered = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            for (Entry<Long, Integer> word : runWords) {
+                ordered.putInt(buffer.position() + (int) (word.getKey() - start), word.getValue());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,195 @@
+package editor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * A {@link TailShifter} that keeps several chunks in flight at once through an {@link AsynchronousFileChannel},
+ * so that reading the next chunk overlaps writing the previous one and the disk is never left idle between
+ * them. <br>
+ * The memory budget is split into one buffer per chunk in flight. Reads are issued in the same order as
+ * {@link TailShifter} moves chunks, as far ahead as there are free buffers, and each chunk is written as
+ * soon as it has been read. A buffer is only read into again once its write has finished, which holds the
+ * reads back whenever the writes fall behind. <br>
+ * Since the chunks are read in order, starting from the end of the region that moves towards the
+ * destination, a chunk being written never overlaps a chunk that has not been read yet, however many are
+ * in flight and however small the displacement.
+ */
+public class PipelinedTailShifter extends TailShifter {
+
+    /**
+     * The number of chunks in flight unless otherwise specified, which double buffers the moves.
+     */
+    public static final int DEFAULT_QUEUE_DEPTH = 2;
+
+    private final AsynchronousFileChannel asyncChannel;
+    private final int queueDepth;
+    private ByteBuffer[] buffers;
+
+    /**
+     * Creates a {@link PipelinedTailShifter} operating on the given channels, which must be opened on the same
+     * file for reading and writing.
+     * @param channel The channel the rest of the file is accessed through.
+     * @param asyncChannel The channel the chunks are moved through.
+     * @param memoryBudget The total size, in bytes, of the chunks in flight.
+     * @param queueDepth The largest number of chunks in flight.
+     */
+    public PipelinedTailShifter(FileChannel channel, AsynchronousFileChannel asyncChannel, int memoryBudget, int queueDepth) {
+        super(channel, memoryBudget);
+        if (queueDepth < 1 || queueDepth > memoryBudget) {
+            throw new IllegalArgumentException("Invalid queue depth " + queueDepth);
+        }
+        this.asyncChannel = asyncChannel;
+        this.queueDepth = queueDepth;
+    }
+
+    /**
+     * Gets the largest number of chunks in flight.
+     * @return The queue depth.
+     */
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    @Override
+    public void moveRegion(long start, long length, long displacement) throws IOException {
+        if (length <= 0 || displacement == 0) {
+            return;
+        }
+        if (start + displacement < 0) {
+            throw new IOException("Cannot move a region before the start of the file!");
+        }
+        int chunkSize = (int) Math.min(getMemoryBudget() / queueDepth, length);
+        allocateBuffers(chunkSize);
+        ArrayDeque<ByteBuffer> free = new ArrayDeque<>(queueDepth);
+        for (ByteBuffer buffer : buffers) {
+            free.add(buffer);
+        }
+        ArrayDeque<Chunk> reading = new ArrayDeque<>(queueDepth);
+        ArrayDeque<Chunk> writing = new ArrayDeque<>(queueDepth);
+        boolean completed = false;
+        try {
+            long issued = 0;
+            while (issued < length || !reading.isEmpty() || !writing.isEmpty()) {
+                // Read ahead into every free buffer.
+                while (!free.isEmpty() && issued < length) {
+                    int toMove = (int) Math.min(chunkSize, length - issued);
+                    long source = displacement > 0 ? start + length - issued - toMove : start + issued;
+                    ByteBuffer buffer = free.poll();
+                    buffer.clear().limit(toMove);
+                    reading.add(new Chunk(buffer, source, asyncChannel.read(buffer, source)));
+                    issued += toMove;
+                }
+                if (!reading.isEmpty()) {
+                    Chunk chunk = reading.poll();
+                    finishRead(chunk);
+                    chunk.buffer.flip();
+                    long destination = chunk.position + displacement;
+                    writing.add(new Chunk(chunk.buffer, destination, asyncChannel.write(chunk.buffer, destination)));
+                }
+                if ((free.isEmpty() || reading.isEmpty()) && !writing.isEmpty()) {
+                    Chunk chunk = writing.poll();
+                    finishWrite(chunk);
+                    free.add(chunk.buffer);
+                }
+            }
+            completed = true;
+        }
+        finally {
+            if (!completed) {
+                // Nothing may still be using the buffers once this returns.
+                abandon(reading);
+                abandon(writing);
+            }
+        }
+    }
+
+    private void allocateBuffers(int chunkSize) {
+        if (buffers != null && buffers[0].capacity() >= chunkSize) {
+            return;
+        }
+        buffers = new ByteBuffer[queueDepth];
+        for (int i = 0; i < queueDepth; i++) {
+            buffers[i] = ByteBuffer.allocateDirect(chunkSize);
+            metrics.onBufferAllocated(chunkSize);
+        }
+    }
+
+    private void finishRead(Chunk chunk) throws IOException {
+        int read = await(chunk.pending);
+        while (true) {
+            if (read < 0) {
+                throw new IOException("Did not read enough bytes!");
+            }
+            metrics.onRead(read);
+            if (!chunk.buffer.hasRemaining()) {
+                return;
+            }
+            read = await(asyncChannel.read(chunk.buffer, chunk.position + chunk.buffer.position()));
+        }
+    }
+
+    private void finishWrite(Chunk chunk) throws IOException {
+        metrics.onWrite(await(chunk.pending));
+        while (chunk.buffer.hasRemaining()) {
+            metrics.onWrite(await(asyncChannel.write(chunk.buffer, chunk.position + chunk.buffer.position())));
+        }
+    }
+
+    private static int await(Future<Integer> pending) throws IOException {
+        try {
+            return pending.get();
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to move a chunk", e.getCause());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while moving a chunk", e);
+        }
+    }
+
+    private static void abandon(ArrayDeque<Chunk> chunks) {
+        for (Chunk chunk : chunks) {
+            boolean interrupted = false;
+            while (!chunk.pending.isDone()) {
+                try {
+                    chunk.pending.get();
+                }
+                catch (InterruptedException e) {
+                    interrupted = true;
+                }
+                catch (ExecutionException e) {
+                    // Already failing because of an earlier chunk.
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * A chunk being read from, or written to, the given position.
+     */
+    private static class Chunk {
+        final ByteBuffer buffer;
+        final long position;
+        final Future<Integer> pending;
+
+        Chunk(ByteBuffer buffer, long position, Future<Integer> pending) {
+            this.buffer = buffer;
+            this.position = position;
+            this.pending = pending;
+        }
+    }
+
+}
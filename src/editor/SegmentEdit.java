@@ -0,0 +1,214 @@
+package editor;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+import macho.MachOHeader;
+import macho.commands.Segment;
+
+/**
+ * Describes the replacement of one region of a Mach-O file, usually the contents of a segment or a
+ * section, with the contents of another file. <br>
+ * If the replacement is larger than the region it replaces, the region grows by the difference rounded
+ * up to a multiple of the alignment of the edit. Otherwise the region keeps its size and the remainder
+ * is filled with null bytes, unless the edit is shrinking, in which case the region shrinks by the
+ * difference rounded down to a multiple of the alignment. Everything after it then moves towards the
+ * start of the file and the file is truncated, so only the padding needed to keep that alignment is
+ * written. <br>
+ * The alignment is {@link #SIZE_ALIGNMENT}, except for a whole segment, which moves every segment after it
+ * by the change in size. Those must stay page aligned, so a segment edit is aligned to the page size.
+ */
+public class SegmentEdit {
+
+    /**
+     * The alignment, in bytes, that the change in size of a region other than a whole segment is rounded to.
+     */
+    public static final int SIZE_ALIGNMENT = 64;
+
+    private final long offset;
+    private final long address;
+    private final long oldSize;
+    private final FileChannel replacement;
+    private final long replacementSize;
+    private final long sizeDiff;
+    private final boolean shrinking;
+    private final long alignment;
+
+    /**
+     * Creates a {@link SegmentEdit} replacing the given region, which keeps its size if the replacement
+     * is smaller.
+     * @param offset The offset of the region in the file.
+     * @param address The virtual address the region is loaded at.
+     * @param oldSize The size of the region, in bytes.
+     * @param replacement The contents to put in place of the region.
+     * @throws IOException
+     */
+    public SegmentEdit(long offset, long address, long oldSize, FileChannel replacement) throws IOException {
+        this(offset, address, oldSize, replacement, false);
+    }
+
+    /**
+     * Creates a {@link SegmentEdit} replacing the given region.
+     * @param offset The offset of the region in the file.
+     * @param address The virtual address the region is loaded at.
+     * @param oldSize The size of the region, in bytes.
+     * @param replacement The contents to put in place of the region.
+     * @param shrinking True to shrink the region if the replacement is smaller, false to keep its size.
+     * @throws IOException
+     */
+    public SegmentEdit(long offset, long address, long oldSize, FileChannel replacement, boolean shrinking) throws IOException {
+        this(offset, address, oldSize, replacement, shrinking, SIZE_ALIGNMENT);
+    }
+
+    /**
+     * Creates a {@link SegmentEdit} replacing the given region, whose change in size is a multiple of the
+     * given alignment.
+     * @param offset The offset of the region in the file.
+     * @param address The virtual address the region is loaded at.
+     * @param oldSize The size of the region, in bytes.
+     * @param replacement The contents to put in place of the region.
+     * @param shrinking True to shrink the region if the replacement is smaller, false to keep its size.
+     * @param alignment The alignment of any change in size, which must be a power of two.
+     * @throws IOException
+     */
+    public SegmentEdit(long offset, long address, long oldSize, FileChannel replacement, boolean shrinking, long alignment) throws IOException {
+        if (alignment <= 0 || Long.bitCount(alignment) != 1) {
+            throw new IllegalArgumentException("Alignment must be a power of two: " + alignment);
+        }
+        this.offset = offset;
+        this.address = address;
+        this.oldSize = oldSize;
+        this.replacement = replacement;
+        this.replacementSize = replacement.size();
+        this.shrinking = shrinking;
+        this.alignment = alignment;
+        long growth = replacementSize - oldSize;
+        if (growth > 0) {
+            this.sizeDiff = (growth + alignment - 1) / alignment * alignment;
+        }
+        else if (shrinking) {
+            this.sizeDiff = -(-growth / alignment * alignment);
+        }
+        else {
+            this.sizeDiff = 0;
+        }
+    }
+
+    /**
+     * Creates a {@link SegmentEdit} replacing the contents of the given segment, for a file whose page size
+     * is not known. Its change in size is aligned to the largest page size, which suits every platform.
+     * @param segment The parsed segment to replace.
+     * @param replacement The new contents of the segment.
+     * @return The {@link SegmentEdit}.
+     * @throws IOException
+     */
+    public static SegmentEdit forSegment(Segment segment, FileChannel replacement) throws IOException {
+        return forSegment(segment, replacement, MachOHeader.PAGE_SIZE_ARM64);
+    }
+
+    /**
+     * Creates a {@link SegmentEdit} replacing the contents of the given segment, whose change in size is
+     * aligned to the page size so that the segments after it stay page aligned.
+     * @param segment The parsed segment to replace.
+     * @param replacement The new contents of the segment.
+     * @param pageSize The page size of the file, from {@link MachOHeader#getPageSize()}.
+     * @return The {@link SegmentEdit}.
+     * @throws IOException
+     */
+    public static SegmentEdit forSegment(Segment segment, FileChannel replacement, int pageSize) throws IOException {
+        return new SegmentEdit(segment.getFileOffset(), segment.getVmAddress(), segment.getFileSize(), replacement, false, pageSize);
+    }
+
+    /**
+     * Creates a {@link SegmentEdit} replacing the contents of the given section.
+     * @param section The parsed section to replace.
+     * @param replacement The new contents of the section.
+     * @return The {@link SegmentEdit}.
+     * @throws IOException
+     */
+    public static SegmentEdit forSection(Segment.Section section, FileChannel replacement) throws IOException {
+        return new SegmentEdit(section.getOffset(), section.getAddress(), section.getSize(), replacement);
+    }
+
+    /**
+     * Creates a copy of this edit that shrinks the region if the replacement is smaller.
+     * @return The shrinking edit, or this edit if it already shrinks.
+     * @throws IOException
+     */
+    public SegmentEdit shrinking() throws IOException {
+        return shrinking ? this : new SegmentEdit(offset, address, oldSize, replacement, true, alignment);
+    }
+
+    /**
+     * Checks if the region shrinks when the replacement is smaller, rather than keeping its size.
+     * @return True if this edit shrinks the region.
+     */
+    public boolean isShrinking() {
+        return shrinking;
+    }
+
+    /**
+     * Gets the alignment the change in size of the region is rounded to.
+     * @return The alignment, in bytes.
+     */
+    public long getAlignment() {
+        return alignment;
+    }
+
+    /**
+     * Gets the offset of the replaced region in the original file.
+     * @return The offset.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Gets the virtual address of the replaced region in the original file.
+     * @return The address.
+     */
+    public long getAddress() {
+        return address;
+    }
+
+    /**
+     * Gets the size of the replaced region in the original file.
+     * @return The size, in bytes.
+     */
+    public long getOldSize() {
+        return oldSize;
+    }
+
+    /**
+     * Gets the size of the region once it has been replaced, including any padding.
+     * @return The size, in bytes.
+     */
+    public long getNewSize() {
+        return oldSize + sizeDiff;
+    }
+
+    /**
+     * Gets the change in size of the region, which is negative if it shrinks.
+     * @return The change in size, in bytes.
+     */
+    public long getSizeDiff() {
+        return sizeDiff;
+    }
+
+    /**
+     * Gets the contents that will be put in place of the region.
+     * @return The replacement contents.
+     */
+    public FileChannel getReplacement() {
+        return replacement;
+    }
+
+    /**
+     * Gets the number of null bytes that follow the replacement contents in the new region.
+     * @return The amount of padding, in bytes.
+     */
+    public long getPadding() {
+        return getNewSize() - replacementSize;
+    }
+
+}
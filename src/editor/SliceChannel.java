@@ -0,0 +1,189 @@
+package editor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A {@link FileChannel} over a fixed range of another channel, such as one architecture of a universal
+ * binary. Position 0 of the slice is the start of the range and its size is the length of the range, so a
+ * {@link BinaryWrapper} around it sees the slice as if it were a file of its own. <br>
+ * The slice cannot grow or shrink, and closing it leaves the underlying channel open.
+ */
+class SliceChannel extends FileChannel {
+
+    private final FileChannel channel;
+    private final long start;
+    private final long length;
+    private long position;
+
+    /**
+     * Creates a {@link SliceChannel}.
+     * @param channel The channel holding the slice.
+     * @param start The position of the slice in the channel.
+     * @param length The length of the slice.
+     */
+    SliceChannel(FileChannel channel, long start, long length) {
+        this.channel = channel;
+        this.start = start;
+        this.length = length;
+    }
+
+    /**
+     * Limits the buffer to the part of the slice left after the given position.
+     */
+    private ByteBuffer limitTo(ByteBuffer buffer, long slicePosition) {
+        long available = length - slicePosition;
+        if (buffer.remaining() <= available) {
+            return buffer;
+        }
+        ByteBuffer limited = buffer.duplicate();
+        limited.limit(buffer.position() + (int) available);
+        return limited;
+    }
+
+    private void checkWrite(long slicePosition, long count) throws IOException {
+        if (slicePosition < 0 || slicePosition + count > length) {
+            throw new IOException("Write of " + count + " bytes at " + slicePosition + " is outside of the slice of " + length + " bytes");
+        }
+    }
+
+    @Override
+    public int read(ByteBuffer dst, long slicePosition) throws IOException {
+        if (slicePosition >= length) {
+            return -1;
+        }
+        ByteBuffer limited = limitTo(dst, slicePosition);
+        int read = channel.read(limited, start + slicePosition);
+        if (limited != dst && read > 0) {
+            dst.position(dst.position() + read);
+        }
+        return read;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        int read = read(dst, position);
+        if (read > 0) {
+            position += read;
+        }
+        return read;
+    }
+
+    @Override
+    public long read(ByteBuffer[] dsts, int offset, int count) throws IOException {
+        long total = 0;
+        for (int i = offset; i < offset + count; i++) {
+            if (!dsts[i].hasRemaining()) {
+                continue;
+            }
+            int read = read(dsts[i]);
+            if (read < 0) {
+                return total == 0 ? -1 : total;
+            }
+            total += read;
+            if (dsts[i].hasRemaining()) {
+                break;
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public int write(ByteBuffer src, long slicePosition) throws IOException {
+        checkWrite(slicePosition, src.remaining());
+        return channel.write(src, start + slicePosition);
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        int written = write(src, position);
+        position += written;
+        return written;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int count) throws IOException {
+        long total = 0;
+        for (int i = offset; i < offset + count; i++) {
+            while (srcs[i].hasRemaining()) {
+                total += write(srcs[i]);
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public long position() {
+        return position;
+    }
+
+    @Override
+    public FileChannel position(long newPosition) {
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Negative position " + newPosition);
+        }
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() {
+        return length;
+    }
+
+    @Override
+    public FileChannel truncate(long size) throws IOException {
+        if (size < length) {
+            throw new IOException("A slice cannot be truncated");
+        }
+        return this;
+    }
+
+    @Override
+    public void force(boolean metaData) throws IOException {
+        channel.force(metaData);
+    }
+
+    @Override
+    public long transferTo(long slicePosition, long count, WritableByteChannel target) throws IOException {
+        if (slicePosition >= length) {
+            return 0;
+        }
+        return channel.transferTo(start + slicePosition, Math.min(count, length - slicePosition), target);
+    }
+
+    @Override
+    public long transferFrom(ReadableByteChannel src, long slicePosition, long count) throws IOException {
+        checkWrite(slicePosition, count);
+        return channel.transferFrom(src, start + slicePosition, count);
+    }
+
+    @Override
+    public MappedByteBuffer map(MapMode mode, long slicePosition, long size) throws IOException {
+        if (slicePosition < 0 || slicePosition + size > length) {
+            throw new IOException("Mapping of " + size + " bytes at " + slicePosition + " is outside of the slice of " + length + " bytes");
+        }
+        return channel.map(mode, start + slicePosition, size);
+    }
+
+    @Override
+    public FileLock lock(long slicePosition, long size, boolean shared) throws IOException {
+        return channel.lock(start + slicePosition, size, shared);
+    }
+
+    @Override
+    public FileLock tryLock(long slicePosition, long size, boolean shared) throws IOException {
+        return channel.tryLock(start + slicePosition, size, shared);
+    }
+
+    @Override
+    protected void implCloseChannel() {
+        // The underlying channel belongs to whoever created the slice.
+    }
+
+}
@@ -0,0 +1,138 @@
+package editor;
+
+/**
+ * Receives measurements of the work done by a {@link BinaryWrapper} and a {@link DataSegmentSwapper}: every
+ * positional read, write and transfer made on the file, the size of the buffers allocated to do so, and how
+ * long each phase of an edit takes. <br>
+ * A listener is called from whichever thread does the work, which for large edits includes the threads
+ * rewriting addresses and hashing pages, so implementations must be thread safe. Every method does nothing
+ * by default, and {@link #NONE} is used unless another listener is set.
+ */
+public interface SwapMetrics {
+
+    /**
+     * The listener that ignores everything.
+     */
+    SwapMetrics NONE = new SwapMetrics() {
+        // Nothing to record.
+    };
+
+    /**
+     * The phases of an edit timed by a {@link DataSegmentSwapper}.
+     */
+    enum Phase {
+        /**
+         * Reading the header and parsing the load commands.
+         */
+        PARSE,
+        /**
+         * Replacing the edited regions and moving everything after them.
+         */
+        SHIFT,
+        /**
+         * Updating the load commands and the rebased pointers for the change in size. This includes
+         * {@link #OBJC_SCAN}.
+         */
+        HEADER_FIXUP,
+        /**
+         * Scanning Objective-C sections for addresses, in files without rebase information.
+         */
+        OBJC_SCAN,
+        /**
+         * Updating the code signature.
+         */
+        SIGNATURE
+    }
+
+    /**
+     * Called after a single positional read from the file.
+     * @param bytes The number of bytes read.
+     */
+    default void onRead(long bytes) {
+    }
+
+    /**
+     * Called after a single positional write to the file.
+     * @param bytes The number of bytes written.
+     */
+    default void onWrite(long bytes) {
+    }
+
+    /**
+     * Called after a single transfer between two channels, at least one of which is the file. The bytes are
+     * both read and written.
+     * @param bytes The number of bytes transferred.
+     */
+    default void onTransfer(long bytes) {
+    }
+
+    /**
+     * Called when a buffer larger than a single word is allocated to read or write the file.
+     * @param capacity The size of the buffer, in bytes.
+     */
+    default void onBufferAllocated(long capacity) {
+    }
+
+    /**
+     * Called when a phase starts, on the thread running it. Phases may nest.
+     * @param phase The phase.
+     */
+    default void onPhaseStart(Phase phase) {
+    }
+
+    /**
+     * Called when a phase ends, on the thread that started it, whether or not it succeeded.
+     * @param phase The phase.
+     * @param nanos How long the phase took, in nanoseconds of wall time.
+     */
+    default void onPhaseEnd(Phase phase, long nanos) {
+    }
+
+    /**
+     * Creates a listener that passes everything on to two others, such as a {@link JsonMetricsReporter} and
+     * a {@link JfrMetrics}.
+     * @param first The first listener.
+     * @param second The second listener.
+     * @return The combined listener.
+     */
+    static SwapMetrics combine(SwapMetrics first, SwapMetrics second) {
+        return new SwapMetrics() {
+            @Override
+            public void onRead(long bytes) {
+                first.onRead(bytes);
+                second.onRead(bytes);
+            }
+
+            @Override
+            public void onWrite(long bytes) {
+                first.onWrite(bytes);
+                second.onWrite(bytes);
+            }
+
+            @Override
+            public void onTransfer(long bytes) {
+                first.onTransfer(bytes);
+                second.onTransfer(bytes);
+            }
+
+            @Override
+            public void onBufferAllocated(long capacity) {
+                first.onBufferAllocated(capacity);
+                second.onBufferAllocated(capacity);
+            }
+
+            @Override
+            public void onPhaseStart(Phase phase) {
+                first.onPhaseStart(phase);
+                second.onPhaseStart(phase);
+            }
+
+            @Override
+            public void onPhaseEnd(Phase phase, long nanos) {
+                first.onPhaseEnd(phase, nanos);
+                second.onPhaseEnd(phase, nanos);
+            }
+        };
+    }
+
+}
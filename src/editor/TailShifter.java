@@ -0,0 +1,129 @@
+package editor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Moves a region of a file to a new position within the same file, using no more than a fixed
+ * amount of memory regardless of how large the region is. <br>
+ * The region is moved in chunks. When moving towards the end of the file the chunks are moved
+ * starting from the end of the region, and when moving towards the start of the file they are moved
+ * starting from the beginning, so a chunk is always read before anything is written over it. <br>
+ * If the region moves by at least one chunk, a chunk never overlaps its own destination and is moved
+ * with {@link FileChannel#transferFrom(java.nio.channels.ReadableByteChannel, long, long)}, which
+ * does not copy the bytes through the Java heap. Otherwise the chunks go through a single direct buffer.
+ */
+public class TailShifter {
+
+    /**
+     * The amount of memory used by a {@link TailShifter} unless otherwise specified.
+     */
+    public static final int DEFAULT_MEMORY_BUDGET = 4 * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final int memoryBudget;
+    private ByteBuffer chunkBuffer;
+    protected SwapMetrics metrics = SwapMetrics.NONE;
+
+    /**
+     * Creates a {@link TailShifter} operating on the given channel.
+     * @param channel The channel to move regions within. It must be opened for reading and writing.
+     * @param memoryBudget The largest chunk, in bytes, that will be moved at once.
+     */
+    public TailShifter(FileChannel channel, int memoryBudget) {
+        if (memoryBudget <= 0) {
+            throw new IllegalArgumentException("Invalid memory budget " + memoryBudget);
+        }
+        this.channel = channel;
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Sets the listener told about every read, write and transfer made to move a region.
+     * @param metrics The listener, or {@link SwapMetrics#NONE}.
+     */
+    public void setMetrics(SwapMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Gets the largest chunk, in bytes, that will be moved at once.
+     * @return The memory budget.
+     */
+    public int getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Moves {@code length} bytes starting at {@code start} by {@code displacement} bytes. The contents of
+     * the source range that are not covered by the destination range are left as they were. The file is
+     * extended if the destination extends past its end, but it is never truncated.
+     * @param start The position of the first byte to move.
+     * @param length The number of bytes to move.
+     * @param displacement How far to move the bytes. Positive values move towards the end of the file.
+     * @throws IOException
+     */
+    public void moveRegion(long start, long length, long displacement) throws IOException {
+        if (length <= 0 || displacement == 0) {
+            return;
+        }
+        if (start + displacement < 0) {
+            throw new IOException("Cannot move a region before the start of the file!");
+        }
+        long originalPosition = channel.position();
+        int chunkSize = (int) Math.min(memoryBudget, length);
+        boolean canTransfer = Math.abs(displacement) >= chunkSize;
+        long newEnd = start + length + displacement;
+        if (canTransfer && newEnd > channel.size()) {
+            // transferFrom will not write past the end of the file, so extend it first.
+            metrics.onWrite(channel.write(ByteBuffer.allocate(1), newEnd - 1));
+        }
+        long moved = 0;
+        while (moved < length) {
+            int toMove = (int) Math.min(chunkSize, length - moved);
+            long source = displacement > 0 ? start + length - moved - toMove : start + moved;
+            if (canTransfer) {
+                transferChunk(source, source + displacement, toMove);
+            }
+            else {
+                copyChunk(source, source + displacement, toMove, chunkSize);
+            }
+            moved += toMove;
+        }
+        channel.position(originalPosition);
+    }
+
+    private void transferChunk(long source, long destination, int length) throws IOException {
+        long transferred = 0;
+        while (transferred < length) {
+            channel.position(source + transferred);
+            long count = channel.transferFrom(channel, destination + transferred, length - transferred);
+            if (count <= 0) {
+                throw new IOException("Did not write enough bytes!");
+            }
+            metrics.onTransfer(count);
+            transferred += count;
+        }
+    }
+
+    private void copyChunk(long source, long destination, int length, int chunkSize) throws IOException {
+        if (chunkBuffer == null || chunkBuffer.capacity() < chunkSize) {
+            chunkBuffer = ByteBuffer.allocateDirect(chunkSize);
+            metrics.onBufferAllocated(chunkSize);
+        }
+        chunkBuffer.clear().limit(length);
+        while (chunkBuffer.hasRemaining()) {
+            int read = channel.read(chunkBuffer, source + chunkBuffer.position());
+            if (read < 0) {
+                throw new IOException("Did not read enough bytes!");
+            }
+            metrics.onRead(read);
+        }
+        chunkBuffer.flip();
+        while (chunkBuffer.hasRemaining()) {
+            metrics.onWrite(channel.write(chunkBuffer, destination + chunkBuffer.position()));
+        }
+    }
+
+}
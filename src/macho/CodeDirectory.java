@@ -0,0 +1,249 @@
+package macho;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import editor.BinaryWrapper;
+
+/**
+ * A class representing a code directory in the code signature of a Mach-O file, which holds a hash of every
+ * page of the file up to its code limit. <br>
+ * The signature is a super blob indexing the code directory, usually a SHA-1 one for older systems and an
+ * alternate SHA-256 one, along with the requirements and the CMS signature. Like the fat header, every blob
+ * is big endian.
+ */
+public class CodeDirectory {
+
+    /**
+     * The magic number of the super blob holding the whole signature.
+     */
+    public static final int EMBEDDED_SIGNATURE_MAGIC = 0xFADE0CC0;
+    /**
+     * The magic number of a code directory.
+     */
+    public static final int CODE_DIRECTORY_MAGIC = 0xFADE0C02;
+    /**
+     * Hash type of SHA-1.
+     */
+    public static final int HASH_TYPE_SHA1 = 1;
+    /**
+     * Hash type of SHA-256.
+     */
+    public static final int HASH_TYPE_SHA256 = 2;
+    /**
+     * Hash type of SHA-256 truncated to 20 bytes.
+     */
+    public static final int HASH_TYPE_SHA256_TRUNCATED = 3;
+    /**
+     * Hash type of SHA-384.
+     */
+    public static final int HASH_TYPE_SHA384 = 4;
+
+    private static final int SLOT_CODE_DIRECTORY = 0;
+    private static final int SLOT_ALTERNATE_CODE_DIRECTORIES = 0x1000;
+    private static final int MAX_ALTERNATE_CODE_DIRECTORIES = 5;
+    private static final int SUPER_BLOB_HEADER_SIZE = 12;
+    private static final int BLOB_INDEX_SIZE = 8;
+    private static final int MAX_BLOBS = 64;
+    private static final int HASH_OFFSET_POSITION = 16;
+    private static final int CODE_SLOTS_POSITION = 28;
+    private static final int CODE_LIMIT_POSITION = 32;
+    private static final int HASH_SIZE_POSITION = 36;
+    private static final int HASH_TYPE_POSITION = 37;
+    private static final int PAGE_SIZE_POSITION = 39;
+    private static final int FIXED_SIZE = 44;
+
+    private final long position;
+    private final int length;
+    private final long hashesPosition;
+    private final int codeSlots;
+    private final long codeLimit;
+    private final int hashSize;
+    private final int hashType;
+    private final int pageSize;
+
+    private CodeDirectory(long position, ByteBuffer blob) throws IOException {
+        this.position = position;
+        this.length = blob.getInt(4);
+        this.hashesPosition = position + Integer.toUnsignedLong(blob.getInt(HASH_OFFSET_POSITION));
+        this.codeSlots = blob.getInt(CODE_SLOTS_POSITION);
+        this.codeLimit = Integer.toUnsignedLong(blob.getInt(CODE_LIMIT_POSITION));
+        this.hashSize = blob.get(HASH_SIZE_POSITION) & 0xFF;
+        this.hashType = blob.get(HASH_TYPE_POSITION) & 0xFF;
+        int pageSizeLog2 = blob.get(PAGE_SIZE_POSITION) & 0xFF;
+        if (pageSizeLog2 < 9 || pageSizeLog2 > 24) {
+            throw new IOException("Unsupported code signature page size 2^" + pageSizeLog2);
+        }
+        this.pageSize = 1 << pageSizeLog2;
+        if (codeSlots < 0 || hashesPosition + (long) codeSlots * hashSize > position + Integer.toUnsignedLong(length)) {
+            throw new IOException("Code directory at " + position + " has hashes outside of it");
+        }
+    }
+
+    /**
+     * Reads every code directory from a code signature.
+     * @param binary The file holding the signature.
+     * @param signatureOffset The position of the signature in the file.
+     * @param signatureSize The size of the signature.
+     * @return The code directories, the primary one first.
+     * @throws IOException If the signature is malformed.
+     */
+    public static List<CodeDirectory> readAll(BinaryWrapper binary, long signatureOffset, long signatureSize) throws IOException {
+        ByteBuffer header = read(binary, signatureOffset, SUPER_BLOB_HEADER_SIZE);
+        if (header.getInt(0) != EMBEDDED_SIGNATURE_MAGIC) {
+            throw new IOException("Not an embedded code signature, magic was 0x" + Integer.toHexString(header.getInt(0)));
+        }
+        int count = header.getInt(8);
+        if (count < 0 || count > MAX_BLOBS || SUPER_BLOB_HEADER_SIZE + count * BLOB_INDEX_SIZE > signatureSize) {
+            throw new IOException("Invalid number of code signature blobs " + Integer.toUnsignedString(count));
+        }
+        ByteBuffer index = read(binary, signatureOffset + SUPER_BLOB_HEADER_SIZE, count * BLOB_INDEX_SIZE);
+        List<CodeDirectory> directories = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int type = index.getInt(i * BLOB_INDEX_SIZE);
+            long offset = Integer.toUnsignedLong(index.getInt(i * BLOB_INDEX_SIZE + 4));
+            if (type != SLOT_CODE_DIRECTORY
+                    && (type < SLOT_ALTERNATE_CODE_DIRECTORIES || type >= SLOT_ALTERNATE_CODE_DIRECTORIES + MAX_ALTERNATE_CODE_DIRECTORIES)) {
+                continue;
+            }
+            if (offset + FIXED_SIZE > signatureSize) {
+                throw new IOException("Code directory " + i + " lies outside of the signature");
+            }
+            ByteBuffer blob = read(binary, signatureOffset + offset, FIXED_SIZE);
+            if (blob.getInt(0) != CODE_DIRECTORY_MAGIC) {
+                throw new IOException("Blob " + i + " of the signature is not a code directory");
+            }
+            if (offset + Integer.toUnsignedLong(blob.getInt(4)) > signatureSize) {
+                throw new IOException("Code directory " + i + " lies outside of the signature");
+            }
+            directories.add(new CodeDirectory(signatureOffset + offset, blob));
+        }
+        return Collections.unmodifiableList(directories);
+    }
+
+    private static ByteBuffer read(BinaryWrapper binary, long position, int size) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(size).order(ByteOrder.BIG_ENDIAN);
+        binary.getBytesAtPosition(bytes, position);
+        bytes.flip();
+        return bytes;
+    }
+
+    /**
+     * Sets the code limit and the number of page hashes to match. The hashes themselves are not updated.
+     * @param binary The file holding the signature.
+     * @param newCodeLimit The new code limit.
+     * @throws IOException If there is no room for the page hashes of the new code limit, since making room
+     * would change the size of the signature.
+     */
+    public void setCodeLimit(BinaryWrapper binary, long newCodeLimit) throws IOException {
+        int slots = getSlotsNeeded(newCodeLimit);
+        if (slots > getSlotCapacity()) {
+            throw new IOException("Code limit " + newCodeLimit + " needs " + slots + " page hashes but the code directory at "
+                    + position + " only has room for " + getSlotCapacity() + ", the binary must be signed again");
+        }
+        binary.setSingleWordAtPosition(Integer.reverseBytes(slots), position + CODE_SLOTS_POSITION);
+        binary.setSingleWordAtPosition(Integer.reverseBytes((int) newCodeLimit), position + CODE_LIMIT_POSITION);
+    }
+
+    /**
+     * Gets the number of page hashes needed to cover a code limit.
+     * @param newCodeLimit The code limit.
+     * @return The number of pages.
+     * @throws IOException If the code limit does not fit in the 32-bit field.
+     */
+    public int getSlotsNeeded(long newCodeLimit) throws IOException {
+        if (newCodeLimit < 0 || newCodeLimit > 0xFFFFFFFFL) {
+            throw new IOException("Code limit " + newCodeLimit + " does not fit in a code directory");
+        }
+        return (int) ((newCodeLimit + pageSize - 1) / pageSize);
+    }
+
+    /**
+     * Gets the position of this code directory in the file.
+     * @return The position.
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Gets the position in the file of the hash of the first page.
+     * @return The position.
+     */
+    public long getHashesPosition() {
+        return hashesPosition;
+    }
+
+    /**
+     * Gets the number of page hashes.
+     * @return The number of pages covered.
+     */
+    public int getCodeSlots() {
+        return codeSlots;
+    }
+
+    /**
+     * Gets the number of page hashes that fit between the first page hash and the end of this code directory,
+     * which is usually exactly {@link #getCodeSlots()}.
+     * @return The number of page hashes there is room for.
+     */
+    public int getSlotCapacity() {
+        return hashSize == 0 ? 0 : (int) ((position + Integer.toUnsignedLong(length) - hashesPosition) / hashSize);
+    }
+
+    /**
+     * Gets the end of the part of the file that is hashed.
+     * @return The code limit.
+     */
+    public long getCodeLimit() {
+        return codeLimit;
+    }
+
+    /**
+     * Gets the size of each page hash.
+     * @return The size, in bytes.
+     */
+    public int getHashSize() {
+        return hashSize;
+    }
+
+    /**
+     * Gets the algorithm of the page hashes.
+     * @return The hash type, such as {@link #HASH_TYPE_SHA256}.
+     */
+    public int getHashType() {
+        return hashType;
+    }
+
+    /**
+     * Gets the name of the algorithm of the page hashes, as known to {@link java.security.MessageDigest}.
+     * @return The name.
+     * @throws IOException If the hash type is unknown.
+     */
+    public String getHashAlgorithm() throws IOException {
+        switch (hashType) {
+            case HASH_TYPE_SHA1:
+                return "SHA-1";
+            case HASH_TYPE_SHA256:
+            case HASH_TYPE_SHA256_TRUNCATED:
+                return "SHA-256";
+            case HASH_TYPE_SHA384:
+                return "SHA-384";
+            default:
+                throw new IOException("Unknown code signature hash type " + hashType);
+        }
+    }
+
+    /**
+     * Gets the size of the pages that are hashed.
+     * @return The size, in bytes.
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+}
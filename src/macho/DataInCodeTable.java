@@ -0,0 +1,162 @@
+package macho;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The regions of data embedded in code, such as jump tables, listed by a data in code command. <br>
+ * The {@code data_in_code_entry} table is decoded in a single pass into parallel primitive arrays sorted by
+ * offset, so whether a code offset falls in a data region can be answered with a binary search instead of a
+ * scan of the table.
+ */
+public class DataInCodeTable {
+
+    /**
+     * The size of a {@code data_in_code_entry}.
+     */
+    public static final int ENTRY_SIZE = 8;
+    /**
+     * Kind of a region of plain data.
+     */
+    public static final int DICE_KIND_DATA = 1;
+    /**
+     * Kind of a jump table of 8-bit entries.
+     */
+    public static final int DICE_KIND_JUMP_TABLE8 = 2;
+    /**
+     * Kind of a jump table of 16-bit entries.
+     */
+    public static final int DICE_KIND_JUMP_TABLE16 = 3;
+    /**
+     * Kind of a jump table of 32-bit entries.
+     */
+    public static final int DICE_KIND_JUMP_TABLE32 = 4;
+    /**
+     * Kind of a jump table of 32-bit absolute addresses.
+     */
+    public static final int DICE_KIND_ABS_JUMP_TABLE32 = 5;
+
+    private final int[] offsets;
+    private final short[] lengths;
+    private final short[] kinds;
+
+    private DataInCodeTable(int count) {
+        this.offsets = new int[count];
+        this.lengths = new short[count];
+        this.kinds = new short[count];
+    }
+
+    /**
+     * Decodes a data in code table.
+     * @param entries The table, such as the buffer returned by
+     * {@link macho.commands.LinkEditData#mapData(editor.BinaryWrapper)}.
+     * @return The decoded table.
+     * @throws IOException If the table is not a whole number of entries.
+     */
+    public static DataInCodeTable read(ByteBuffer entries) throws IOException {
+        if (entries.remaining() % ENTRY_SIZE != 0) {
+            throw new IOException("Data in code table of " + entries.remaining() + " bytes is not a whole number of entries");
+        }
+        int start = entries.position();
+        DataInCodeTable table = new DataInCodeTable(entries.remaining() / ENTRY_SIZE);
+        boolean sorted = true;
+        for (int i = 0; i < table.offsets.length; i++) {
+            int entry = start + i * ENTRY_SIZE;
+            table.offsets[i] = entries.getInt(entry);
+            table.lengths[i] = entries.getShort(entry + 4);
+            table.kinds[i] = entries.getShort(entry + 6);
+            sorted &= i == 0 || Integer.compareUnsigned(table.offsets[i - 1], table.offsets[i]) <= 0;
+        }
+        return sorted ? table : table.sorted();
+    }
+
+    /**
+     * Linkers always write the table in order, but it is cheap to cope with one that is not. Each entry is
+     * packed into a long with its offset above its index, and the sign bit flipped so that a signed primitive
+     * sort orders the offsets as unsigned values.
+     */
+    private DataInCodeTable sorted() {
+        long[] keys = new long[offsets.length];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = (Integer.toUnsignedLong(offsets[i]) << 32 | i) ^ Long.MIN_VALUE;
+        }
+        Arrays.sort(keys);
+        DataInCodeTable sorted = new DataInCodeTable(offsets.length);
+        for (int i = 0; i < keys.length; i++) {
+            int index = (int) keys[i];
+            sorted.offsets[i] = offsets[index];
+            sorted.lengths[i] = lengths[index];
+            sorted.kinds[i] = kinds[index];
+        }
+        return sorted;
+    }
+
+    /**
+     * Gets the number of entries.
+     * @return The number of entries.
+     */
+    public int size() {
+        return offsets.length;
+    }
+
+    /**
+     * Gets the offset of a region, from the start of the Mach-O header.
+     * @param index The index of the entry, in order of offset.
+     * @return The offset.
+     */
+    public long getOffset(int index) {
+        return Integer.toUnsignedLong(offsets[index]);
+    }
+
+    /**
+     * Gets the length of a region.
+     * @param index The index of the entry, in order of offset.
+     * @return The length, in bytes.
+     */
+    public int getLength(int index) {
+        return lengths[index] & 0xFFFF;
+    }
+
+    /**
+     * Gets the kind of a region.
+     * @param index The index of the entry, in order of offset.
+     * @return The kind, such as {@link #DICE_KIND_JUMP_TABLE32}.
+     */
+    public int getKind(int index) {
+        return kinds[index] & 0xFFFF;
+    }
+
+    /**
+     * Finds the region containing an offset.
+     * @param offset The offset, from the start of the Mach-O header.
+     * @return The index of the entry, or -1 if the offset is not in a data region.
+     */
+    public int findEntryContaining(long offset) {
+        int low = 0;
+        int high = offsets.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (getOffset(middle) <= offset) {
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+        if (low == 0 || offset >= getOffset(low - 1) + getLength(low - 1)) {
+            return -1;
+        }
+        return low - 1;
+    }
+
+    /**
+     * Checks whether an offset falls in a data region, so that a code scanner can skip it.
+     * @param offset The offset, from the start of the Mach-O header.
+     * @return True if the offset is in a data region.
+     */
+    public boolean isData(long offset) {
+        return findEntryContaining(offset) >= 0;
+    }
+
+}
@@ -0,0 +1,216 @@
+package macho;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import editor.BinaryWrapper;
+
+/**
+ * A class representing the header at the start of a universal (fat) binary, which lists the offset, size
+ * and alignment of the Mach-O file for each architecture. Unlike the rest of the format, the fat header is
+ * always big endian.
+ */
+public class FatHeader {
+
+    /**
+     * The magic number of a universal binary, as read big endian.
+     */
+    public static final int FAT_MAGIC = 0xCAFEBABE;
+    /**
+     * The size of the fixed part of the header, before the architecture entries.
+     */
+    public static final int HEADER_SIZE = 8;
+    /**
+     * The size of each architecture entry.
+     */
+    public static final int FAT_ARCH_SIZE = 20;
+
+    /**
+     * The largest architecture count accepted. Java class files share {@link #FAT_MAGIC} and hold their major
+     * version, 45 or more, where a universal binary holds its count, so a higher count is a class file.
+     */
+    public static final int MAX_ARCHITECTURES = 44;
+
+    private final List<FatArch> architectures;
+
+    private FatHeader(List<FatArch> architectures) {
+        this.architectures = Collections.unmodifiableList(architectures);
+    }
+
+    /**
+     * Checks if the {@link BinaryWrapper} holds a universal binary.
+     * @param binary The {@link BinaryWrapper} to check.
+     * @return True if the file starts with {@link #FAT_MAGIC} followed by a plausible architecture count.
+     * @throws IOException
+     */
+    public static boolean isFat(BinaryWrapper binary) throws IOException {
+        return binary.size() >= HEADER_SIZE && isFat(Integer.reverseBytes(binary.getSingleWordAtPosition(0)),
+                Integer.reverseBytes(binary.getSingleWordAtPosition(4)));
+    }
+
+    /**
+     * Checks if the first two words of a file are the start of a universal binary rather than a Java class file.
+     * @param magic The first word, read big endian.
+     * @param architectureCount The second word, read big endian.
+     * @return True if the magic is {@link #FAT_MAGIC} and the count is at most {@link #MAX_ARCHITECTURES}.
+     */
+    public static boolean isFat(int magic, int architectureCount) {
+        return magic == FAT_MAGIC && Integer.compareUnsigned(architectureCount, MAX_ARCHITECTURES) <= 0;
+    }
+
+    /**
+     * Reads the fat header from the start of the {@link BinaryWrapper}.
+     * @param binary The {@link BinaryWrapper} to read from.
+     * @return The header.
+     * @throws IOException If the file is not a universal binary, or an architecture lies outside of it.
+     */
+    public static FatHeader read(BinaryWrapper binary) throws IOException {
+        if (!isFat(binary)) {
+            throw new IOException("Not a universal binary");
+        }
+        int count = Integer.reverseBytes(binary.getSingleWordAtPosition(4));
+        ByteBuffer entries = ByteBuffer.allocate(count * FAT_ARCH_SIZE).order(ByteOrder.BIG_ENDIAN);
+        binary.getBytesAtPosition(entries, HEADER_SIZE);
+        entries.flip();
+        List<FatArch> architectures = new ArrayList<>(count);
+        long fileSize = binary.size();
+        for (int i = 0; i < count; i++) {
+            FatArch architecture = new FatArch(entries.getInt(), entries.getInt(), Integer.toUnsignedLong(entries.getInt()),
+                    Integer.toUnsignedLong(entries.getInt()), entries.getInt());
+            if (architecture.offset + architecture.size > fileSize || architecture.align < 0 || architecture.align > 31) {
+                throw new IOException("Architecture " + i + " does not fit in the file");
+            }
+            architectures.add(architecture);
+        }
+        return new FatHeader(architectures);
+    }
+
+    /**
+     * Gets the architectures in the binary, in the order they are listed.
+     * @return The architectures.
+     */
+    public List<FatArch> getArchitectures() {
+        return architectures;
+    }
+
+    /**
+     * Gets the size of the header including every architecture entry.
+     * @return The size, in bytes.
+     */
+    public int getSize() {
+        return HEADER_SIZE + architectures.size() * FAT_ARCH_SIZE;
+    }
+
+    /**
+     * Lays the architectures out again for slices of new sizes. Each slice is placed after the previous one,
+     * at the next offset that satisfies its alignment.
+     * @param sizes The new size of each slice, in the order of {@link #getArchitectures()}.
+     * @return The header describing the new layout.
+     */
+    public FatHeader withSliceSizes(long[] sizes) {
+        if (sizes.length != architectures.size()) {
+            throw new IllegalArgumentException("Expected " + architectures.size() + " sizes but got " + sizes.length);
+        }
+        List<FatArch> relaidOut = new ArrayList<>(sizes.length);
+        long end = getSize();
+        for (int i = 0; i < sizes.length; i++) {
+            FatArch architecture = architectures.get(i);
+            long alignment = architecture.getAlignment();
+            long offset = (end + alignment - 1) / alignment * alignment;
+            relaidOut.add(new FatArch(architecture.cpuType, architecture.cpuSubtype, offset, sizes[i], architecture.align));
+            end = offset + sizes[i];
+        }
+        return new FatHeader(relaidOut);
+    }
+
+    /**
+     * Encodes this header as it appears at the start of the file.
+     * @return A buffer holding the header, positioned at its start.
+     * @throws IOException If an architecture no longer fits in the 32-bit fields.
+     */
+    public ByteBuffer toBytes() throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(getSize()).order(ByteOrder.BIG_ENDIAN);
+        bytes.putInt(FAT_MAGIC).putInt(architectures.size());
+        for (FatArch architecture : architectures) {
+            if (architecture.offset + architecture.size > 0xFFFFFFFFL) {
+                throw new IOException("Architecture at offset " + architecture.offset + " is too large for a fat header");
+            }
+            bytes.putInt(architecture.cpuType).putInt(architecture.cpuSubtype).putInt((int) architecture.offset)
+                    .putInt((int) architecture.size).putInt(architecture.align);
+        }
+        bytes.flip();
+        return bytes;
+    }
+
+    /**
+     * A single architecture entry of a {@link FatHeader}.
+     */
+    public static class FatArch {
+        private final int cpuType;
+        private final int cpuSubtype;
+        private final long offset;
+        private final long size;
+        private final int align;
+
+        FatArch(int cpuType, int cpuSubtype, long offset, long size, int align) {
+            this.cpuType = cpuType;
+            this.cpuSubtype = cpuSubtype;
+            this.offset = offset;
+            this.size = size;
+            this.align = align;
+        }
+
+        /**
+         * Gets the type of CPU the slice is built for.
+         * @return The CPU type.
+         */
+        public int getCpuType() {
+            return cpuType;
+        }
+
+        /**
+         * Gets the subtype of CPU the slice is built for.
+         * @return The CPU subtype.
+         */
+        public int getCpuSubtype() {
+            return cpuSubtype;
+        }
+
+        /**
+         * Gets the offset of the slice in the file.
+         * @return The offset.
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * Gets the size of the slice.
+         * @return The size, in bytes.
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * Gets the alignment of the slice as a power of two.
+         * @return The base 2 logarithm of the alignment.
+         */
+        public int getAlign() {
+            return align;
+        }
+
+        /**
+         * Gets the alignment of the slice.
+         * @return The alignment, in bytes.
+         */
+        public long getAlignment() {
+            return 1L << align;
+        }
+    }
+
+}
@@ -0,0 +1,65 @@
+package macho;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes the LEB128 variable length integers used throughout the link edit data of Mach-O files.
+ */
+public final class Leb128 {
+
+    private Leb128() {
+    }
+
+    /**
+     * Reads an unsigned LEB128 value from the buffer, advancing its position past it.
+     * @param buffer The buffer to read from.
+     * @return The value.
+     * @throws IOException If the value does not fit in 64 bits or the buffer ends before it does.
+     */
+    public static long readUnsigned(ByteBuffer buffer) throws IOException {
+        long result = 0;
+        int shift = 0;
+        byte current;
+        do {
+            if (!buffer.hasRemaining()) {
+                throw new IOException("Truncated LEB128 value");
+            }
+            if (shift >= 64) {
+                throw new IOException("LEB128 value is too large");
+            }
+            current = buffer.get();
+            result |= (long) (current & 0x7F) << shift;
+            shift += 7;
+        } while ((current & 0x80) != 0);
+        return result;
+    }
+
+    /**
+     * Reads a signed LEB128 value from the buffer, advancing its position past it.
+     * @param buffer The buffer to read from.
+     * @return The value.
+     * @throws IOException If the value does not fit in 64 bits or the buffer ends before it does.
+     */
+    public static long readSigned(ByteBuffer buffer) throws IOException {
+        long result = 0;
+        int shift = 0;
+        byte current;
+        do {
+            if (!buffer.hasRemaining()) {
+                throw new IOException("Truncated LEB128 value");
+            }
+            if (shift >= 64) {
+                throw new IOException("LEB128 value is too large");
+            }
+            current = buffer.get();
+            result |= (long) (current & 0x7F) << shift;
+            shift += 7;
+        } while ((current & 0x80) != 0);
+        if (shift < 64 && (current & 0x40) != 0) {
+            result |= -1L << shift;
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,23 @@
+package macho;
+
+import java.io.IOException;
+
+import macho.commands.AbstractMachOCommand;
+import editor.BinaryWrapper;
+
+/**
+ * Constructs the {@link AbstractMachOCommand} subclass representing one type of Mach-O command. Command
+ * classes usually provide one as a constructor reference, such as {@code Segment::new}.
+ */
+@FunctionalInterface
+public interface MachOCommandConstructor {
+
+    /**
+     * Constructs the command starting at the current position in the {@link BinaryWrapper}.
+     * @param binary The {@link BinaryWrapper} to read the command from.
+     * @return The command. It will contain very little of value until it has been parsed.
+     * @throws IOException
+     */
+    AbstractMachOCommand create(BinaryWrapper binary) throws IOException;
+
+}
@@ -7,7 +7,8 @@ import editor.BinaryWrapper;
 
 /**
  * A class to construct the correct {@link AbstractMachOCommand} subclass from the command starting at the
- * current position in the {@link BinaryWrapper}.
+ * current position in the {@link BinaryWrapper}. The class is looked up in the default
+ * {@link MachOCommandRegistry}.
  */
 public class MachOCommandFactory {
 
@@ -19,7 +20,6 @@ public class MachOCommandFactory {
      * @throws IOException
      */
     public static AbstractMachOCommand createMachOCommand(BinaryWrapper binary) throws IOException {
-        int commandType = binary.getSingleWordAtRelativePosition(0);
-        return MachOCommandTypeEnum.getTypeForValue(commandType).instantiate(binary);
+        return MachOCommandRegistry.getDefault().create(binary);
     }
 }
@@ -0,0 +1,17 @@
+package macho;
+
+/**
+ * A service that adds support for additional Mach-O commands without modifying {@link MachOCommandTypeEnum}.
+ * Implementations listed in {@code META-INF/services/macho.MachOCommandProvider} are found with a
+ * {@link java.util.ServiceLoader} and registered with {@link MachOCommandRegistry#getDefault()} the first
+ * time it is used.
+ */
+public interface MachOCommandProvider {
+
+    /**
+     * Registers the constructors of the commands this provider supports.
+     * @param registry The registry to add them to.
+     */
+    void registerCommands(MachOCommandRegistry registry);
+
+}
@@ -0,0 +1,101 @@
+package macho;
+
+import java.io.IOException;
+import java.util.ServiceLoader;
+
+import macho.commands.AbstractMachOCommand;
+import editor.BinaryWrapper;
+
+/**
+ * Maps Mach-O command type codes to the {@link MachOCommandConstructor} that builds the matching
+ * {@link AbstractMachOCommand} subclass. <br>
+ * Lookups index directly into an array, so finding the constructor for a command costs the same no matter
+ * how many types are registered. Command types with the {@link #LC_REQ_DYLD} bit set are kept in a second
+ * array. <br>
+ * Registration is not synchronized, so commands should be registered before any parsing starts.
+ */
+public class MachOCommandRegistry {
+
+    /**
+     * The bit set in the type code of commands that dyld must understand to load the file.
+     */
+    public static final int LC_REQ_DYLD = 0x80000000;
+    /**
+     * The number of type codes that can be registered, with and without {@link #LC_REQ_DYLD}.
+     */
+    public static final int MAX_COMMAND_VALUE = 256;
+
+    private static final MachOCommandRegistry DEFAULT = createDefault();
+
+    private final MachOCommandConstructor[] constructors = new MachOCommandConstructor[MAX_COMMAND_VALUE];
+    private final MachOCommandConstructor[] requiredByDyldConstructors = new MachOCommandConstructor[MAX_COMMAND_VALUE];
+    private final MachOCommandConstructor unsupportedConstructor;
+
+    /**
+     * Creates a registry containing every command in {@link MachOCommandTypeEnum}, and nothing else.
+     */
+    public MachOCommandRegistry() {
+        for (MachOCommandTypeEnum type : MachOCommandTypeEnum.values()) {
+            if (type != MachOCommandTypeEnum.UNSUPPORTED) {
+                register(type.getCommandValue(), type.getConstructor());
+            }
+        }
+        unsupportedConstructor = MachOCommandTypeEnum.UNSUPPORTED.getConstructor();
+    }
+
+    private static MachOCommandRegistry createDefault() {
+        MachOCommandRegistry registry = new MachOCommandRegistry();
+        for (MachOCommandProvider provider : ServiceLoader.load(MachOCommandProvider.class)) {
+            provider.registerCommands(registry);
+        }
+        return registry;
+    }
+
+    /**
+     * Gets the registry used by {@link MachOCommandFactory}. It contains every command in
+     * {@link MachOCommandTypeEnum} and every command added by a {@link MachOCommandProvider}.
+     * @return The default registry.
+     */
+    public static MachOCommandRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Registers the constructor for a command type, replacing any constructor already registered for it.
+     * @param commandValue The command type code, optionally including {@link #LC_REQ_DYLD}.
+     * @param constructor The constructor for the command.
+     */
+    public void register(int commandValue, MachOCommandConstructor constructor) {
+        int index = commandValue & ~LC_REQ_DYLD;
+        if (index >= MAX_COMMAND_VALUE) {
+            throw new IllegalArgumentException("Command type 0x" + Integer.toHexString(commandValue) + " is out of range");
+        }
+        getTable(commandValue)[index] = constructor;
+    }
+
+    /**
+     * Gets the constructor for a command type.
+     * @param commandValue The command type code.
+     * @return The constructor, or the constructor for {@link MachOCommandTypeEnum#UNSUPPORTED} if none is registered.
+     */
+    public MachOCommandConstructor getConstructor(int commandValue) {
+        int index = commandValue & ~LC_REQ_DYLD;
+        MachOCommandConstructor constructor = index < MAX_COMMAND_VALUE ? getTable(commandValue)[index] : null;
+        return constructor != null ? constructor : unsupportedConstructor;
+    }
+
+    /**
+     * Constructs the command starting at the current position in the {@link BinaryWrapper}.
+     * @param binary The {@link BinaryWrapper} to read from.
+     * @return The command.
+     * @throws IOException
+     */
+    public AbstractMachOCommand create(BinaryWrapper binary) throws IOException {
+        return getConstructor(binary.getSingleWordAtRelativePosition(0)).create(binary);
+    }
+
+    private MachOCommandConstructor[] getTable(int commandValue) {
+        return (commandValue & LC_REQ_DYLD) != 0 ? requiredByDyldConstructors : constructors;
+    }
+
+}
@@ -1,14 +1,28 @@
 package macho;
 
+import java.io.IOException;
+
 import macho.commands.AbstractMachOCommand;
+import macho.commands.CodeSignature;
 import macho.commands.DataInCode;
 import macho.commands.DySymTab;
+import macho.commands.DyldChainedFixups;
+import macho.commands.DyldExportsTrie;
+import macho.commands.DyldInfo;
+import macho.commands.DylibCodeSignDrs;
+import macho.commands.EncryptionInfo;
+import macho.commands.EncryptionInfo64;
+import macho.commands.EntryPoint;
 import macho.commands.FunctionStarts;
 import macho.commands.LoadDylib;
+import macho.commands.LinkerOptimizationHint;
 import macho.commands.LoadDylinker;
 import macho.commands.Segment;
+import macho.commands.Segment64;
+import macho.commands.SegmentSplitInfo;
 import macho.commands.SymTab;
 import macho.commands.UnixThread;
+import macho.commands.UnsupportedCommand;
 import macho.commands.VersionMinMacOSX;
 import editor.BinaryWrapper;
 
@@ -19,34 +33,69 @@ import editor.BinaryWrapper;
  */
 public enum MachOCommandTypeEnum {
 
-    SEGMENT(1, "SEGMENT", Segment.class),
+    SEGMENT(1, "SEGMENT", Segment::new),
+
+    SYM_TAB(2, "SYM_TAB", SymTab::new),
+
+    UNIX_THREAD(5, "UNIX_THREAD", UnixThread::new),
+
+    DY_SYM_TAB(11, "DY_SYM_TAB", DySymTab::new),
+
+    LOAD_DYLIB(12, "LOAD_DYLIB", LoadDylib::new),
+
+    LOAD_DYLINKER(14, "LOAD_DYLINKER", LoadDylinker::new),
+
+    SEGMENT_64(25, "SEGMENT_64", Segment64::new),
 
-    SYM_TAB(2, "SYM_TAB", SymTab.class),
+    SEGMENT_SPLIT_INFO(0x1E, "SEGMENT_SPLIT_INFO", SegmentSplitInfo::new),
 
-    UNIX_THREAD(5, "UNIX_THREAD", UnixThread.class),
+    UUID(27, "UUID", macho.commands.UUID::new),
 
-    DY_SYM_TAB(11, "DY_SYM_TAB", DySymTab.class),
+    VERSION_MIN_MAC_OSX(36, "VERSION_MIN_MAC_OSX", VersionMinMacOSX::new),
 
-    LOAD_DYLIB(12, "LOAD_DYLIB", LoadDylib.class),
+    CODE_SIGNATURE(29, "CODE_SIGNATURE", CodeSignature::new),
 
-    LOAD_DYLINKER(14, "LOAD_DYLINKER", LoadDylinker.class),
+    FUNCTION_STARTS(38, "FUNCTION_STARTS", FunctionStarts::new),
 
-    UUID(27, "UUID", macho.commands.UUID.class),
+    DATA_IN_CODE(41, "DATA_IN_CODE", DataInCode::new),
 
-    VERSION_MIN_MAC_OSX(36, "VERSION_MIN_MAC_OSX", VersionMinMacOSX.class),
+    ENCRYPTION_INFO(0x21, "ENCRYPTION_INFO", EncryptionInfo::new),
 
-    FUNCTION_STARTS(38, "FUNCTION_STARTS", FunctionStarts.class),
+    DYLIB_CODE_SIGN_DRS(0x2B, "DYLIB_CODE_SIGN_DRS", DylibCodeSignDrs::new),
 
-    DATA_IN_CODE(41, "DATA_IN_CODE", DataInCode.class),
+    ENCRYPTION_INFO_64(0x2C, "ENCRYPTION_INFO_64", EncryptionInfo64::new),
+
+    LINKER_OPTIMIZATION_HINT(0x2E, "LINKER_OPTIMIZATION_HINT", LinkerOptimizationHint::new),
+
+    MAIN(0x28 | MachOCommandRegistry.LC_REQ_DYLD, "MAIN", EntryPoint::new),
+
+    DYLD_EXPORTS_TRIE(0x33 | MachOCommandRegistry.LC_REQ_DYLD, "DYLD_EXPORTS_TRIE", DyldExportsTrie::new),
+
+    DYLD_CHAINED_FIXUPS(0x34 | MachOCommandRegistry.LC_REQ_DYLD, "DYLD_CHAINED_FIXUPS", DyldChainedFixups::new),
+
+    DYLD_INFO(0x22, "DYLD_INFO", DyldInfo::new),
+
+    DYLD_INFO_ONLY(0x22 | MachOCommandRegistry.LC_REQ_DYLD, "DYLD_INFO_ONLY", DyldInfo::new),
     /**
      * Represents any unsupported command type.
      */
-    UNSUPPORTED(-1, "ERROR_UNSUPPORTED", AbstractMachOCommand.class);
+    UNSUPPORTED(-1, "ERROR_UNSUPPORTED", UnsupportedCommand::new);
+
 
+    private static final MachOCommandTypeEnum[] TYPES_BY_VALUE = new MachOCommandTypeEnum[MachOCommandRegistry.MAX_COMMAND_VALUE];
+    private static final MachOCommandTypeEnum[] REQUIRED_BY_DYLD_TYPES_BY_VALUE = new MachOCommandTypeEnum[MachOCommandRegistry.MAX_COMMAND_VALUE];
+
+    static {
+        for (MachOCommandTypeEnum type : values()) {
+            if (type != UNSUPPORTED) {
+                getTable(type.getCommandValue())[type.getCommandValue() & ~MachOCommandRegistry.LC_REQ_DYLD] = type;
+            }
+        }
+    }
 
     private int commandValue;
     private String name;
-    private Class<? extends AbstractMachOCommand> toInstantiate;
+    private MachOCommandConstructor constructor;
 
 
     /**
@@ -56,24 +105,25 @@ public enum MachOCommandTypeEnum {
      * @return The corresponding {@link MachOCommandTypeEnum} member.
      */
     public static MachOCommandTypeEnum getTypeForValue(int value){
-        for (MachOCommandTypeEnum type : MachOCommandTypeEnum.values()) {
-            if (type.getCommandValue() == value) {
-                return type;
-            }
-        }
-        return UNSUPPORTED;
+        int index = value & ~MachOCommandRegistry.LC_REQ_DYLD;
+        MachOCommandTypeEnum type = index < MachOCommandRegistry.MAX_COMMAND_VALUE ? getTable(value)[index] : null;
+        return type != null ? type : UNSUPPORTED;
+    }
+
+    private static MachOCommandTypeEnum[] getTable(int value) {
+        return (value & MachOCommandRegistry.LC_REQ_DYLD) != 0 ? REQUIRED_BY_DYLD_TYPES_BY_VALUE : TYPES_BY_VALUE;
     }
 
     /**
-     * Instantiates a {@link MachOCommandTypeEnum} with the given command code, name, and backing class.
+     * Instantiates a {@link MachOCommandTypeEnum} with the given command code, name, and constructor.
      * @param commandValue The command type code.
      * @param name The name of the command.
-     * @param toInstantiate The class representing this command.
+     * @param constructor The constructor of the class representing this command.
      */
-    MachOCommandTypeEnum(int commandValue, String name, Class<? extends AbstractMachOCommand> toInstantiate) {
+    MachOCommandTypeEnum(int commandValue, String name, MachOCommandConstructor constructor) {
         this.commandValue = commandValue;
         this.name = name;
-        this.toInstantiate = toInstantiate;
+        this.constructor = constructor;
     }
 
     /**
@@ -97,20 +147,22 @@ public enum MachOCommandTypeEnum {
         return name;
     }
 
+    /**
+     * Gets the constructor of the class that represents this type of command.
+     * @return The constructor.
+     */
+    public MachOCommandConstructor getConstructor() {
+        return constructor;
+    }
+
     /**
      * Instantiate an instance of the class that represents this type of command. This will instantiate the command
      * assuming that the current position of the {@link BinaryWrapper} is aligned to the start of this command.
      * @param binary The {@link BinaryWrapper} to read this command from.
      * @return The {@link AbstractMachOCommand} subclass representing this command.
+     * @throws IOException
      */
-    public AbstractMachOCommand instantiate(BinaryWrapper binary){
-        // Instantiate our corresponding command class.
-        try {
-            return toInstantiate.getConstructor(binary.getClass()).newInstance(binary);
-        }
-        catch (Exception e) {
-            e.printStackTrace();
-        }
-        throw new RuntimeException("Failed to instantiate " + toInstantiate.toString() +  " from type " + this.toString());
+    public AbstractMachOCommand instantiate(BinaryWrapper binary) throws IOException {
+        return constructor.create(binary);
     }
 }
@@ -0,0 +1,211 @@
+package macho;
+
+import java.io.IOException;
+
+import editor.BinaryWrapper;
+
+/**
+ * A class representing the header at the start of a Mach-O file. <br>
+ * Reading the header also loads the load commands that follow it into the {@link BinaryWrapper}'s
+ * header image, so that the commands can be parsed without any further reads from the file.
+ */
+public class MachOHeader {
+
+    /**
+     * The magic number of a 32-bit Mach-O file.
+     */
+    public static final int MH_MAGIC = 0xFEEDFACE;
+    /**
+     * The magic number of a 64-bit Mach-O file.
+     */
+    public static final int MH_MAGIC_64 = 0xFEEDFACF;
+    /**
+     * The size of the 32-bit Mach-O header, which is also the offset of the first load command.
+     */
+    public static final int HEADER_SIZE = 28;
+    /**
+     * The size of the 64-bit Mach-O header, which has a reserved word after the flags.
+     */
+    public static final int HEADER_SIZE_64 = 32;
+    /**
+     * How much of the file is read when loading the header. This is enough to hold the load commands of
+     * nearly every Mach-O file, so the header and the commands can usually be loaded with a single read.
+     */
+    public static final int DEFAULT_READ_AHEAD = 64 * 1024;
+    /**
+     * The page size of every platform except 64-bit ARM.
+     */
+    public static final int PAGE_SIZE = 0x1000;
+    /**
+     * The page size of 64-bit ARM, which is also the largest page size of any platform.
+     */
+    public static final int PAGE_SIZE_ARM64 = 0x4000;
+
+    private static final int MAGIC_POSITION = 0;
+    private static final int CPU_TYPE_POSITION = 4;
+    private static final int CPU_SUBTYPE_POSITION = 8;
+    private static final int FILE_TYPE_POSITION = 12;
+    private static final int COMMAND_COUNT_POSITION = 16;
+    private static final int COMMANDS_SIZE_POSITION = 20;
+    private static final int FLAGS_POSITION = 24;
+    private static final int CPU_TYPE_ARM = 12;
+    private static final int CPU_ARCH_MASK = 0xFF000000;
+
+    private final int magic;
+    private final int cpuType;
+    private final int cpuSubtype;
+    private final int fileType;
+    private final int commandCount;
+    private final int commandsSize;
+    private final int flags;
+
+    private MachOHeader(BinaryWrapper binary) throws IOException {
+        magic = binary.getSingleWordAtPosition(MAGIC_POSITION);
+        cpuType = binary.getSingleWordAtPosition(CPU_TYPE_POSITION);
+        cpuSubtype = binary.getSingleWordAtPosition(CPU_SUBTYPE_POSITION);
+        fileType = binary.getSingleWordAtPosition(FILE_TYPE_POSITION);
+        commandCount = binary.getSingleWordAtPosition(COMMAND_COUNT_POSITION);
+        commandsSize = binary.getSingleWordAtPosition(COMMANDS_SIZE_POSITION);
+        flags = binary.getSingleWordAtPosition(FLAGS_POSITION);
+    }
+
+    /**
+     * Reads the Mach-O header from the start of the {@link BinaryWrapper}, and loads the header and all of
+     * the load commands into its header image.
+     * @param binary The {@link BinaryWrapper} to read from.
+     * @return The header.
+     * @throws IOException If the file is not a 32-bit or 64-bit little endian Mach-O file, or its load
+     * commands do not fit in it.
+     */
+    public static MachOHeader read(BinaryWrapper binary) throws IOException {
+        binary.loadHeaderImage(DEFAULT_READ_AHEAD);
+        MachOHeader header = new MachOHeader(binary);
+        if (FatHeader.isFat(binary)) {
+            throw new IOException("Universal binaries must be edited one slice at a time, see FatBinarySwapper");
+        }
+        if (header.magic != MH_MAGIC && header.magic != MH_MAGIC_64) {
+            throw new IOException("Not a supported Mach-O file, magic was 0x" + Integer.toHexString(header.magic));
+        }
+        long headerImageSize = header.getFirstCommandOffset() + Integer.toUnsignedLong(header.commandsSize);
+        if (headerImageSize > binary.size() || headerImageSize > Integer.MAX_VALUE) {
+            throw new IOException("The load commands take " + Integer.toUnsignedString(header.commandsSize)
+                    + " bytes, which does not fit in a file of " + binary.size() + " bytes");
+        }
+        if (headerImageSize > DEFAULT_READ_AHEAD) {
+            binary.loadHeaderImage((int) headerImageSize);
+        }
+        else {
+            binary.limitHeaderImage((int) headerImageSize);
+        }
+        return header;
+    }
+
+    /**
+     * Gets the size of the header and all of the load commands, which {@link #read(BinaryWrapper)} has
+     * checked fits in the file.
+     * @return The size, in bytes.
+     */
+    public int getHeaderImageSize() {
+        return getFirstCommandOffset() + commandsSize;
+    }
+
+    /**
+     * Gets the offset of the first load command.
+     * @return The offset.
+     */
+    public int getFirstCommandOffset() {
+        return is64Bit() ? HEADER_SIZE_64 : HEADER_SIZE;
+    }
+
+    /**
+     * Checks if this is the header of a 64-bit Mach-O file.
+     * @return True if the magic number is {@link #MH_MAGIC_64}.
+     */
+    public boolean is64Bit() {
+        return magic == MH_MAGIC_64;
+    }
+
+    /**
+     * Gets the size of a pointer in the file.
+     * @return The size, in bytes.
+     */
+    public int getPointerSize() {
+        return is64Bit() ? 8 : 4;
+    }
+
+    /**
+     * Gets the size of the pages the file is loaded in, which the offsets and addresses of its segments are
+     * aligned to.
+     * @return The page size, in bytes.
+     */
+    public int getPageSize() {
+        return getPageSize(cpuType);
+    }
+
+    /**
+     * Gets the page size of a CPU type, as found in a Mach-O header or a fat header.
+     * @param cpuType The CPU type.
+     * @return {@link #PAGE_SIZE_ARM64} for arm64 and arm64_32, {@link #PAGE_SIZE} for anything else.
+     */
+    public static int getPageSize(int cpuType) {
+        boolean wideArm = (cpuType & ~CPU_ARCH_MASK) == CPU_TYPE_ARM && (cpuType & CPU_ARCH_MASK) != 0;
+        return wideArm ? PAGE_SIZE_ARM64 : PAGE_SIZE;
+    }
+
+    /**
+     * Gets the magic number identifying the file.
+     * @return The magic number.
+     */
+    public int getMagic() {
+        return magic;
+    }
+
+    /**
+     * Gets the type of CPU the file is built for.
+     * @return The CPU type.
+     */
+    public int getCpuType() {
+        return cpuType;
+    }
+
+    /**
+     * Gets the subtype of CPU the file is built for.
+     * @return The CPU subtype.
+     */
+    public int getCpuSubtype() {
+        return cpuSubtype;
+    }
+
+    /**
+     * Gets the type of the file, such as executable or dynamic library.
+     * @return The file type.
+     */
+    public int getFileType() {
+        return fileType;
+    }
+
+    /**
+     * Gets the number of load commands following the header.
+     * @return The number of load commands.
+     */
+    public int getCommandCount() {
+        return commandCount;
+    }
+
+    /**
+     * Gets the total size of the load commands following the header.
+     * @return The size, in bytes.
+     */
+    public int getCommandsSize() {
+        return commandsSize;
+    }
+
+    /**
+     * Gets the flags of the file.
+     * @return The flags.
+     */
+    public int getFlags() {
+        return flags;
+    }
+
+}
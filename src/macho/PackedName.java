@@ -0,0 +1,135 @@
+package macho;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import editor.BinaryWrapper;
+
+/**
+ * A segment or section name, packed into two longs exactly as its 16 bytes are laid out in the file. Names
+ * shorter than 16 bytes are padded with zeroes, so two names are equal exactly when both longs are. <br>
+ * Packing a name once lets it be compared and hashed without decoding it or reading it again.
+ */
+public final class PackedName {
+
+    /**
+     * The size of a name in the file, in bytes.
+     */
+    public static final int SIZE = 16;
+
+    private final long low;
+    private final long high;
+
+    private PackedName(long low, long high) {
+        this.low = low;
+        this.high = high;
+    }
+
+    /**
+     * Packs a name given as a String.
+     * @param name The name, such as {@code __DATA}.
+     * @return The packed name.
+     * @throws IllegalArgumentException If the name is longer than {@link #SIZE} bytes.
+     */
+    public static PackedName of(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > SIZE) {
+            throw new IllegalArgumentException("Name is longer than " + SIZE + " bytes: " + name);
+        }
+        long low = 0;
+        long high = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            long shifted = (bytes[i] & 0xFFL) << (8 * (i % 8));
+            if (i < 8) {
+                low |= shifted;
+            }
+            else {
+                high |= shifted;
+            }
+        }
+        return new PackedName(low, high);
+    }
+
+    /**
+     * Reads a name from the file.
+     * @param binary The file.
+     * @param position The absolute position of the first byte of the name.
+     * @return The packed name.
+     * @throws IOException
+     */
+    public static PackedName read(BinaryWrapper binary, long position) throws IOException {
+        return new PackedName(binary.getLongAtPosition(position), binary.getLongAtPosition(position + 8));
+    }
+
+    /**
+     * Reads a name written by {@link #write(DataOutput)}.
+     * @param input Where to read the name from.
+     * @return The packed name.
+     * @throws IOException
+     */
+    public static PackedName read(DataInput input) throws IOException {
+        return new PackedName(input.readLong(), input.readLong());
+    }
+
+    /**
+     * Writes the name as two longs, to be read by {@link #read(DataInput)}.
+     * @param output Where to write the name.
+     * @throws IOException
+     */
+    public void write(DataOutput output) throws IOException {
+        output.writeLong(low);
+        output.writeLong(high);
+    }
+
+    /**
+     * Gets the first 8 bytes of the name, in little endian order.
+     * @return The bytes.
+     */
+    public long getLow() {
+        return low;
+    }
+
+    /**
+     * Gets the last 8 bytes of the name, in little endian order.
+     * @return The bytes.
+     */
+    public long getHigh() {
+        return high;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof PackedName)) {
+            return false;
+        }
+        PackedName name = (PackedName) other;
+        return low == name.low && high == name.high;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(low * 31 + high);
+    }
+
+    /**
+     * Decodes the name, without its padding.
+     * @return The name.
+     */
+    @Override
+    public String toString() {
+        byte[] bytes = new byte[SIZE];
+        int length = 0;
+        while (length < SIZE) {
+            long word = length < 8 ? low : high;
+            byte value = (byte) (word >>> (8 * (length % 8)));
+            if (value == 0) {
+                break;
+            }
+            bytes[length++] = value;
+        }
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,145 @@
+package macho;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import macho.commands.AbstractMachOCommand;
+import macho.commands.Segment;
+
+/**
+ * An index of the segments and sections of a single binary by name, giving their offset, address and size as
+ * they were parsed. <br>
+ * The keys are the {@link PackedName}s read while the segment commands were parsed, so a lookup only packs
+ * the name asked for and hashes it; nothing is read from the file. A section is found by the segment name
+ * in its own header, which in object files differs from the name of the segment containing it. If a name
+ * occurs more than once, the first one added is kept.
+ */
+public class SegmentIndex {
+
+    private final Map<PackedName, Segment> segments = new HashMap<>();
+    private final Map<SectionKey, Segment.Section> sections = new HashMap<>();
+
+    /**
+     * Creates an empty index, to which segments are added as they are parsed.
+     */
+    public SegmentIndex() {
+        // Filled in by add.
+    }
+
+    /**
+     * Builds the index of every segment among the given load commands.
+     * @param commands The parsed load commands.
+     * @return The index.
+     */
+    public static SegmentIndex of(List<AbstractMachOCommand> commands) {
+        SegmentIndex index = new SegmentIndex();
+        for (AbstractMachOCommand command : commands) {
+            if (command instanceof Segment) {
+                index.add((Segment) command);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Adds a parsed segment and all of its sections.
+     * @param segment The segment.
+     */
+    public void add(Segment segment) {
+        segments.putIfAbsent(segment.getPackedName(), segment);
+        for (Segment.Section section : segment.getSections()) {
+            sections.putIfAbsent(new SectionKey(section.getPackedSegmentName(), section.getPackedSectionName()), section);
+        }
+    }
+
+    /**
+     * Finds a segment by name.
+     * @param segmentName The name, such as {@code __DATA}.
+     * @return The segment, or null if there is none with that name.
+     */
+    public Segment findSegment(String segmentName) {
+        PackedName name = packOrNull(segmentName);
+        return name != null ? findSegment(name) : null;
+    }
+
+    /**
+     * Finds a segment by its packed name.
+     * @param segmentName The name.
+     * @return The segment, or null if there is none with that name.
+     */
+    public Segment findSegment(PackedName segmentName) {
+        return segments.get(segmentName);
+    }
+
+    /**
+     * Finds a section by the name of its segment and its own name.
+     * @param segmentName The name of the segment, such as {@code __DATA}.
+     * @param sectionName The name of the section, such as {@code __data}.
+     * @return The section, or null if there is none with those names.
+     */
+    public Segment.Section findSection(String segmentName, String sectionName) {
+        PackedName packedSegmentName = packOrNull(segmentName);
+        PackedName packedSectionName = packOrNull(sectionName);
+        if (packedSegmentName == null || packedSectionName == null) {
+            return null;
+        }
+        return findSection(packedSegmentName, packedSectionName);
+    }
+
+    /**
+     * Finds a section by the packed names of its segment and of itself.
+     * @param segmentName The name of the segment.
+     * @param sectionName The name of the section.
+     * @return The section, or null if there is none with those names.
+     */
+    public Segment.Section findSection(PackedName segmentName, PackedName sectionName) {
+        return sections.get(new SectionKey(segmentName, sectionName));
+    }
+
+    /**
+     * Gets the number of segments in the index.
+     * @return The number of segments.
+     */
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    private static PackedName packOrNull(String name) {
+        try {
+            return PackedName.of(name);
+        }
+        catch (IllegalArgumentException e) {
+            // Too long to be the name of anything.
+            return null;
+        }
+    }
+
+    /**
+     * The names identifying a section.
+     */
+    private static class SectionKey {
+        final PackedName segmentName;
+        final PackedName sectionName;
+
+        SectionKey(PackedName segmentName, PackedName sectionName) {
+            this.segmentName = segmentName;
+            this.sectionName = sectionName;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof SectionKey)) {
+                return false;
+            }
+            SectionKey key = (SectionKey) other;
+            return segmentName.equals(key.segmentName) && sectionName.equals(key.sectionName);
+        }
+
+        @Override
+        public int hashCode() {
+            return segmentName.hashCode() * 31 + sectionName.hashCode();
+        }
+    }
+
+}
@@ -0,0 +1,195 @@
+package macho;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Lookup indexes over a {@link SymbolTable}, for finding the symbol containing an address and the symbol
+ * with a given name. <br>
+ * The address index is a sorted {@code long[]} of the addresses of the symbols defined in a section,
+ * searched with a binary search. The name index is an open addressing hash table of symbol indexes, keyed
+ * by a hash of the raw bytes in the string table, so building it decodes no names. Both are built once and
+ * are immutable afterwards, so a single index can answer any number of queries from any number of threads.
+ */
+public class SymbolIndex {
+
+    /**
+     * Mask of the {@code n_type} bits that mark a debugging symbol.
+     */
+    public static final int N_STAB = 0xE0;
+    /**
+     * Mask of the {@code n_type} bits giving the kind of symbol.
+     */
+    public static final int N_TYPE = 0x0E;
+    /**
+     * The kind of symbol defined in a section.
+     */
+    public static final int N_SECT = 0x0E;
+
+    private static final int EMPTY = -1;
+
+    private final SymbolTable table;
+    private final long[] addresses;
+    private final int[] symbolsByAddress;
+    private final int[] nameSlots;
+
+    /**
+     * Builds the indexes of a symbol table.
+     * @param table The symbol table.
+     */
+    public SymbolIndex(SymbolTable table) {
+        this.table = table;
+        int definedCount = 0;
+        for (int i = 0; i < table.size(); i++) {
+            if (isDefinedInSection(i)) {
+                definedCount++;
+            }
+        }
+        int[] defined = new int[definedCount];
+        long[] definedAddresses = new long[definedCount];
+        definedCount = 0;
+        for (int i = 0; i < table.size(); i++) {
+            if (isDefinedInSection(i)) {
+                defined[definedCount] = i;
+                definedAddresses[definedCount++] = table.getValue(i);
+            }
+        }
+        sortByKey(defined, definedAddresses);
+        this.symbolsByAddress = defined;
+        this.addresses = definedAddresses;
+        this.nameSlots = buildNameSlots(table);
+    }
+
+    private boolean isDefinedInSection(int index) {
+        int type = table.getType(index);
+        return (type & N_STAB) == 0 && (type & N_TYPE) == N_SECT;
+    }
+
+    /**
+     * Sorts the keys into ascending order, moving the matching values with them. The sort is stable, so
+     * symbols at the same address stay in symbol table order.
+     */
+    private static void sortByKey(int[] values, long[] keys) {
+        int[] valueBuffer = new int[values.length];
+        long[] keyBuffer = new long[keys.length];
+        for (int width = 1; width < keys.length; width *= 2) {
+            for (int low = 0; low < keys.length - width; low += 2 * width) {
+                int middle = low + width;
+                int high = Math.min(low + 2 * width, keys.length);
+                int left = low;
+                int right = middle;
+                int out = low;
+                while (left < middle && right < high) {
+                    if (Long.compareUnsigned(keys[right], keys[left]) < 0) {
+                        keyBuffer[out] = keys[right];
+                        valueBuffer[out++] = values[right++];
+                    }
+                    else {
+                        keyBuffer[out] = keys[left];
+                        valueBuffer[out++] = values[left++];
+                    }
+                }
+                while (left < middle) {
+                    keyBuffer[out] = keys[left];
+                    valueBuffer[out++] = values[left++];
+                }
+                while (right < high) {
+                    keyBuffer[out] = keys[right];
+                    valueBuffer[out++] = values[right++];
+                }
+                System.arraycopy(keyBuffer, low, keys, low, high - low);
+                System.arraycopy(valueBuffer, low, values, low, high - low);
+            }
+        }
+    }
+
+    private static int[] buildNameSlots(SymbolTable table) {
+        int capacity = Integer.highestOneBit(Math.max(1, table.size()) * 2 - 1) * 2;
+        int[] slots = new int[capacity];
+        int[] slotHashes = new int[capacity];
+        Arrays.fill(slots, EMPTY);
+        int mask = capacity - 1;
+        for (int i = 0; i < table.size(); i++) {
+            if (table.getNameOffset(i) == 0) {
+                // Offset 0 is the empty name shared by anonymous symbols.
+                continue;
+            }
+            int hash = table.hashName(i);
+            int slot = hash & mask;
+            while (slots[slot] != EMPTY && !(slotHashes[slot] == hash && table.namesEqual(slots[slot], i))) {
+                slot = (slot + 1) & mask;
+            }
+            if (slots[slot] == EMPTY) {
+                slots[slot] = i;
+                slotHashes[slot] = hash;
+            }
+        }
+        return slots;
+    }
+
+    /**
+     * Gets the symbol table this index was built from.
+     * @return The symbol table.
+     */
+    public SymbolTable getTable() {
+        return table;
+    }
+
+    /**
+     * Finds the symbol containing an address, which is the defined symbol with the highest address that is
+     * not above it.
+     * @param address The address.
+     * @return The index of the symbol in the symbol table, or -1 if every symbol is above the address.
+     */
+    public int findSymbolContaining(long address) {
+        int low = 0;
+        int high = addresses.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (Long.compareUnsigned(addresses[middle], address) <= 0) {
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+        if (low == 0) {
+            return -1;
+        }
+        // Several symbols can share an address, report the first of them.
+        long found = addresses[low - 1];
+        int first = low - 1;
+        while (first > 0 && addresses[first - 1] == found) {
+            first--;
+        }
+        return symbolsByAddress[first];
+    }
+
+    /**
+     * Finds the symbol with the given name. If several symbols share the name, the first one in the symbol
+     * table is returned.
+     * @param name The name, such as {@code _main}.
+     * @return The index of the symbol in the symbol table, or -1 if there is none.
+     */
+    public int findSymbol(String name) {
+        byte[] encoded = name.getBytes(StandardCharsets.UTF_8);
+        int mask = nameSlots.length - 1;
+        int slot = SymbolTable.hashName(encoded) & mask;
+        while (nameSlots[slot] != EMPTY) {
+            if (table.nameEquals(nameSlots[slot], encoded)) {
+                return nameSlots[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the number of symbols in the address index.
+     * @return The number of symbols defined in a section.
+     */
+    public int getDefinedSymbolCount() {
+        return addresses.length;
+    }
+
+}
@@ -0,0 +1,231 @@
+package macho;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import editor.BinaryWrapper;
+
+/**
+ * The symbols listed by a symbol table command, held as parallel primitive arrays rather than one object
+ * per symbol. <br>
+ * The {@code nlist} entries are decoded once, with a single mapping of the table, into about sixteen bytes
+ * per symbol. The string table is left mapped and names are only decoded when they are asked for, so even
+ * binaries with millions of symbols are cheap to load.
+ */
+public class SymbolTable {
+
+    /**
+     * The size of a 32-bit {@code nlist} entry.
+     */
+    public static final int NLIST_SIZE = 12;
+    /**
+     * The size of a 64-bit {@code nlist_64} entry.
+     */
+    public static final int NLIST_64_SIZE = 16;
+
+    private static final int FNV_OFFSET_BASIS = 0x811C9DC5;
+    private static final int FNV_PRIME = 0x01000193;
+
+    private final int[] nameOffsets;
+    private final byte[] types;
+    private final byte[] sections;
+    private final short[] descriptions;
+    private final long[] values;
+    private final ByteBuffer strings;
+
+    private SymbolTable(int count, ByteBuffer strings) {
+        this.nameOffsets = new int[count];
+        this.types = new byte[count];
+        this.sections = new byte[count];
+        this.descriptions = new short[count];
+        this.values = new long[count];
+        this.strings = strings;
+    }
+
+    /**
+     * Reads a symbol table from the file.
+     * @param binary The file to read from.
+     * @param symbolsOffset The offset of the first {@code nlist} entry.
+     * @param symbolCount The number of entries.
+     * @param stringsOffset The offset of the string table.
+     * @param stringsSize The size of the string table.
+     * @param wide True if the entries are 64-bit {@code nlist_64} entries.
+     * @return The symbol table.
+     * @throws IOException If the tables do not lie within the file.
+     */
+    public static SymbolTable read(BinaryWrapper binary, long symbolsOffset, long symbolCount, long stringsOffset,
+            long stringsSize, boolean wide) throws IOException {
+        int entrySize = wide ? NLIST_64_SIZE : NLIST_SIZE;
+        if (symbolCount < 0 || symbolCount * entrySize > Integer.MAX_VALUE) {
+            throw new IOException("Invalid number of symbols " + symbolCount);
+        }
+        SymbolTable table = new SymbolTable((int) symbolCount, binary.map(stringsOffset, stringsSize));
+        ByteBuffer entries = binary.map(symbolsOffset, symbolCount * entrySize);
+        for (int i = 0; i < symbolCount; i++) {
+            int entry = i * entrySize;
+            table.nameOffsets[i] = entries.getInt(entry);
+            table.types[i] = entries.get(entry + 4);
+            table.sections[i] = entries.get(entry + 5);
+            table.descriptions[i] = entries.getShort(entry + 6);
+            table.values[i] = wide ? entries.getLong(entry + 8) : Integer.toUnsignedLong(entries.getInt(entry + 8));
+        }
+        return table;
+    }
+
+    /**
+     * Gets the number of symbols.
+     * @return The number of symbols.
+     */
+    public int size() {
+        return values.length;
+    }
+
+    /**
+     * Gets the offset of a symbol's name in the string table.
+     * @param index The index of the symbol.
+     * @return The offset, as the unsigned {@code n_strx} field.
+     */
+    public long getNameOffset(int index) {
+        return Integer.toUnsignedLong(nameOffsets[index]);
+    }
+
+    /**
+     * Gets the type flags of a symbol.
+     * @param index The index of the symbol.
+     * @return The {@code n_type} field.
+     */
+    public int getType(int index) {
+        return types[index] & 0xFF;
+    }
+
+    /**
+     * Gets the number of the section a symbol is defined in.
+     * @param index The index of the symbol.
+     * @return The {@code n_sect} field, counting sections from 1, or 0 if the symbol is in no section.
+     */
+    public int getSection(int index) {
+        return sections[index] & 0xFF;
+    }
+
+    /**
+     * Gets the description flags of a symbol.
+     * @param index The index of the symbol.
+     * @return The {@code n_desc} field.
+     */
+    public int getDescription(int index) {
+        return descriptions[index] & 0xFFFF;
+    }
+
+    /**
+     * Gets the value of a symbol, which is usually its address.
+     * @param index The index of the symbol.
+     * @return The {@code n_value} field.
+     */
+    public long getValue(int index) {
+        return values[index];
+    }
+
+    /**
+     * Decodes the name of a symbol from the string table.
+     * @param index The index of the symbol.
+     * @return The name.
+     * @throws IndexOutOfBoundsException If the name lies outside of the string table.
+     */
+    public String getName(int index) {
+        long start = getNameOffset(index);
+        if (start >= strings.limit()) {
+            throw new IndexOutOfBoundsException("Name of symbol " + index + " is at " + start
+                    + ", outside of the string table of " + strings.limit() + " bytes");
+        }
+        int end = (int) start;
+        while (end < strings.limit() && strings.get(end) != 0) {
+            end++;
+        }
+        byte[] name = new byte[end - (int) start];
+        strings.get((int) start, name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Hashes the raw bytes of a symbol's name in the string table, without decoding it.
+     * @param index The index of the symbol.
+     * @return The hash, or 0 if the name lies outside of the string table.
+     */
+    int hashName(int index) {
+        long start = getNameOffset(index);
+        if (start >= strings.limit()) {
+            return 0;
+        }
+        int hash = FNV_OFFSET_BASIS;
+        for (int i = (int) start; i < strings.limit() && strings.get(i) != 0; i++) {
+            hash = (hash ^ (strings.get(i) & 0xFF)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * Hashes a name the same way as {@link #hashName(int)}.
+     * @param name The encoded name.
+     * @return The hash.
+     */
+    static int hashName(byte[] name) {
+        int hash = FNV_OFFSET_BASIS;
+        for (byte b : name) {
+            hash = (hash ^ (b & 0xFF)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * Compares a symbol's name in the string table with the given encoded name, without decoding it.
+     * @param index The index of the symbol.
+     * @param name The encoded name.
+     * @return True if they are the same.
+     */
+    boolean nameEquals(int index, byte[] name) {
+        long start = getNameOffset(index);
+        if (start + name.length > strings.limit()) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (strings.get((int) start + i) != name[i]) {
+                return false;
+            }
+        }
+        int end = (int) start + name.length;
+        return end == strings.limit() || strings.get(end) == 0;
+    }
+
+    /**
+     * Compares the names of two symbols in the string table, without decoding them.
+     * @param first The index of the first symbol.
+     * @param second The index of the second symbol.
+     * @return True if they have the same name.
+     */
+    boolean namesEqual(int first, int second) {
+        long firstStart = getNameOffset(first);
+        long secondStart = getNameOffset(second);
+        if (firstStart == secondStart) {
+            return true;
+        }
+        if (firstStart >= strings.limit() || secondStart >= strings.limit()) {
+            return false;
+        }
+        int i = (int) firstStart;
+        int j = (int) secondStart;
+        while (i < strings.limit() && j < strings.limit()) {
+            byte firstByte = strings.get(i++);
+            byte secondByte = strings.get(j++);
+            if (firstByte != secondByte) {
+                return false;
+            }
+            if (firstByte == 0) {
+                return true;
+            }
+        }
+        // At least one name runs to the end of the table, so they only match if both do.
+        return (i == strings.limit() || strings.get(i) == 0) && (j == strings.limit() || strings.get(j) == 0);
+    }
+
+}
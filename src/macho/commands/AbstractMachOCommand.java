@@ -1,26 +1,37 @@
 package macho.commands;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 
 import macho.MachOCommandTypeEnum;
 import editor.BinaryWrapper;
+import editor.EditLayout;
 
 /**
  * A class to serve as the basis of classes representing Mach-O commands.
- * Specifies methods for interacting with Mach-O commands.
+ * Specifies methods for interacting with Mach-O commands. What a command has parsed can be written out and
+ * restored without parsing it again, so that it can be kept in a {@link editor.HeaderCache}.
  */
 public abstract class AbstractMachOCommand {
 
     protected MachOCommandTypeEnum commandType = null;
     protected long startOffset;
     protected int commandSize;
-    protected Map<Integer, Integer> offsetEntries;
-    protected Map<Integer, Integer> addressEntries;
+    protected Map<Integer, Long> offsetEntries;
+    protected Map<Integer, Long> addressEntries;
+    /**
+     * The positions of the entries in {@link #offsetEntries} and {@link #addressEntries} that are 64-bit
+     * fields. Every other entry is a 32-bit field.
+     */
+    protected Set<Integer> wideEntries;
 
     /**
      * Construct a Mach-O command from the given {@link BinaryWrapper} starting at the current
@@ -33,6 +44,7 @@ public abstract class AbstractMachOCommand {
         startOffset = binary.getPosition();
         offsetEntries = new HashMap<>();
         addressEntries = new HashMap<>();
+        wideEntries = new HashSet<>();
     }
 
     /**
@@ -64,7 +76,7 @@ public abstract class AbstractMachOCommand {
      * Gets the lists of offsets associated with this command.
      * @return The list of offsets.
      */
-    public List<Integer> getOffsetsList(){
+    public List<Long> getOffsetsList(){
         return new ArrayList<>(offsetEntries.values());
     }
 
@@ -76,9 +88,20 @@ public abstract class AbstractMachOCommand {
      * @throws IOException
      */
     public void updateOffsetsIfNeeded(BinaryWrapper binary, int modifiedStartOffset, int diffFromOriginal) throws IOException {
-        for (Entry<Integer,Integer> entry : offsetEntries.entrySet()){
-            if (entry.getValue() > modifiedStartOffset) {
-                binary.setSingleWordAtRelativePosition(entry.getValue()+ diffFromOriginal, entry.getKey());
+        updateOffsetsIfNeeded(binary, EditLayout.forSingleEdit(modifiedStartOffset, modifiedStartOffset, diffFromOriginal));
+    }
+
+    /**
+     * Updates any offsets that point after one or more of the modifications described by the layout.
+     * @param binary The file to modify
+     * @param layout The modifications that were made.
+     * @throws IOException
+     */
+    public void updateOffsetsIfNeeded(BinaryWrapper binary, EditLayout layout) throws IOException {
+        for (Entry<Integer,Long> entry : offsetEntries.entrySet()){
+            long shift = layout.getOffsetShift(entry.getValue());
+            if (shift != 0) {
+                writeField(binary, entry.getKey(), entry.getValue() + shift);
             }
         }
     }
@@ -91,9 +114,20 @@ public abstract class AbstractMachOCommand {
      * @throws IOException
      */
     public void updateAddressesIfNeeded(BinaryWrapper binary, int modifiedStartAddress, int diffFromOriginal) throws IOException {
-        for (Entry<Integer,Integer> entry : addressEntries.entrySet()){
-            if (entry.getValue() > modifiedStartAddress) {
-                binary.setSingleWordAtRelativePosition(entry.getValue()+ diffFromOriginal, entry.getKey());
+        updateAddressesIfNeeded(binary, EditLayout.forSingleEdit(modifiedStartAddress, modifiedStartAddress, diffFromOriginal));
+    }
+
+    /**
+     * Updates any addresses that are after one or more of the modifications described by the layout.
+     * @param binary The file to modify
+     * @param layout The modifications that were made.
+     * @throws IOException
+     */
+    public void updateAddressesIfNeeded(BinaryWrapper binary, EditLayout layout) throws IOException {
+        for (Entry<Integer,Long> entry : addressEntries.entrySet()){
+            long shift = layout.getAddressShift(entry.getValue());
+            if (shift != 0) {
+                writeField(binary, entry.getKey(), entry.getValue() + shift);
             }
         }
     }
@@ -107,6 +141,18 @@ public abstract class AbstractMachOCommand {
      * @throws IOException
      */
     public void updateObjCAddressesIfNeeded(BinaryWrapper binary, int modifiedStartAddress, int diffFromOriginal) throws IOException {
+        updateObjCAddressesIfNeeded(binary, EditLayout.forSingleEdit(modifiedStartAddress, modifiedStartAddress, diffFromOriginal));
+    }
+
+    /**
+     * Update any references in the compiled code to addresses after the modifications described by the layout. <br>
+     * <b> WARNING: The implementation of this is currently buggy </b>
+     * @param binary The file to modify
+     * @param layout The modifications that were made.
+     * @throws IOException
+     */
+    @SuppressWarnings("unused")
+    public void updateObjCAddressesIfNeeded(BinaryWrapper binary, EditLayout layout) throws IOException {
         // Do nothing by default. Only Segment needs to do this for our purposes.
     }
 
@@ -118,8 +164,19 @@ public abstract class AbstractMachOCommand {
      * @param diffFromOriginal The change in size the modification caused.
      * @throws IOException
      */
-    @SuppressWarnings("unused")
     public void updateSizeifNeeded(BinaryWrapper binary, int modifiedStartOffset, int diffFromOriginal) throws IOException {
+        updateSizeifNeeded(binary, EditLayout.forSingleEdit(modifiedStartOffset, modifiedStartOffset, diffFromOriginal));
+    }
+
+    /**
+     * Update the size of this command, if needed. This will only be necessary if this Mach-O command
+     * contained one or more of the modifications described by the layout.
+     * @param binary The file to modify
+     * @param layout The modifications that were made.
+     * @throws IOException
+     */
+    @SuppressWarnings("unused")
+    public void updateSizeifNeeded(BinaryWrapper binary, EditLayout layout) throws IOException {
         // Do nothing by default. Only Segment needs to do this for our purposes.
     }
 
@@ -133,4 +190,143 @@ public abstract class AbstractMachOCommand {
         commandSize = binary.getSingleWordAtPosition(startOffset + 4);
     }
 
+    /**
+     * Writes everything {@link #parseCommand(BinaryWrapper)} read, so that {@link #readParsedState(DataInput)}
+     * can restore it. Subclasses that keep fields of their own, besides the offset and address entries, must
+     * extend both methods and call them first.
+     * @param output Where to write the state.
+     * @throws IOException
+     */
+    public void writeParsedState(DataOutput output) throws IOException {
+        output.writeInt(commandSize);
+        writeEntries(output, offsetEntries);
+        writeEntries(output, addressEntries);
+    }
+
+    /**
+     * Restores the state written by {@link #writeParsedState(DataOutput)}, in place of calling
+     * {@link #parseCommand(BinaryWrapper)}. The command must have been constructed at the same offset as the
+     * one whose state was written.
+     * @param input Where to read the state from.
+     * @throws IOException If the state is malformed.
+     */
+    public void readParsedState(DataInput input) throws IOException {
+        commandSize = input.readInt();
+        readEntries(input, offsetEntries);
+        readEntries(input, addressEntries);
+    }
+
+    private void writeEntries(DataOutput output, Map<Integer, Long> entries) throws IOException {
+        output.writeInt(entries.size());
+        for (Entry<Integer, Long> entry : entries.entrySet()) {
+            output.writeInt(entry.getKey());
+            output.writeLong(entry.getValue());
+            output.writeBoolean(wideEntries.contains(entry.getKey()));
+        }
+    }
+
+    private void readEntries(DataInput input, Map<Integer, Long> entries) throws IOException {
+        int count = input.readInt();
+        if (count < 0 || count > commandSize) {
+            throw new IOException("Invalid number of entries " + count);
+        }
+        for (int i = 0; i < count; i++) {
+            int position = input.readInt();
+            entries.put(position, input.readLong());
+            if (input.readBoolean()) {
+                wideEntries.add(position);
+            }
+        }
+    }
+
+    /**
+     * Reads a 32-bit offset field at the given position relative to the start of this command and records
+     * it in {@link #offsetEntries}.
+     * @param binary The {@link BinaryWrapper}, positioned at the start of this command.
+     * @param position The position of the field, relative to the start of this command.
+     * @throws IOException
+     */
+    protected void parseOffsetEntry(BinaryWrapper binary, int position) throws IOException {
+        offsetEntries.put(position, readField(binary, position, false));
+    }
+
+    /**
+     * Reads a 64-bit offset field at the given position relative to the start of this command and records
+     * it in {@link #offsetEntries}.
+     * @param binary The {@link BinaryWrapper}, positioned at the start of this command.
+     * @param position The position of the field, relative to the start of this command.
+     * @throws IOException
+     */
+    protected void parseWideOffsetEntry(BinaryWrapper binary, int position) throws IOException {
+        wideEntries.add(position);
+        offsetEntries.put(position, readField(binary, position, true));
+    }
+
+    /**
+     * Reads a 32-bit address field at the given position relative to the start of this command and records
+     * it in {@link #addressEntries}.
+     * @param binary The {@link BinaryWrapper}, positioned at the start of this command.
+     * @param position The position of the field, relative to the start of this command.
+     * @throws IOException
+     */
+    protected void parseAddressEntry(BinaryWrapper binary, int position) throws IOException {
+        addressEntries.put(position, readField(binary, position, false));
+    }
+
+    /**
+     * Reads a 64-bit address field at the given position relative to the start of this command and records
+     * it in {@link #addressEntries}.
+     * @param binary The {@link BinaryWrapper}, positioned at the start of this command.
+     * @param position The position of the field, relative to the start of this command.
+     * @throws IOException
+     */
+    protected void parseWideAddressEntry(BinaryWrapper binary, int position) throws IOException {
+        wideEntries.add(position);
+        addressEntries.put(position, readField(binary, position, true));
+    }
+
+    /**
+     * Reads an unsigned field at the given position relative to the start of this command.
+     * @param binary The {@link BinaryWrapper}, positioned at the start of this command.
+     * @param position The position of the field, relative to the start of this command.
+     * @param wide True for a 64-bit field, false for a 32-bit one.
+     * @return The value of the field.
+     * @throws IOException
+     */
+    protected static long readField(BinaryWrapper binary, int position, boolean wide) throws IOException {
+        return wide ? binary.getLongAtRelativePosition(position) : Integer.toUnsignedLong(binary.getSingleWordAtRelativePosition(position));
+    }
+
+    /**
+     * Writes a field recorded in {@link #offsetEntries} or {@link #addressEntries}, using the width it was
+     * parsed with.
+     * @param binary The {@link BinaryWrapper}, positioned at the start of this command.
+     * @param position The position of the field, relative to the start of this command.
+     * @param value The new value of the field.
+     * @throws IOException If the value does not fit in a 32-bit field.
+     */
+    protected void writeField(BinaryWrapper binary, int position, long value) throws IOException {
+        writeField(binary, position, value, wideEntries.contains(position));
+    }
+
+    /**
+     * Writes an unsigned field at the given position relative to the start of this command.
+     * @param binary The {@link BinaryWrapper}, positioned at the start of this command.
+     * @param position The position of the field, relative to the start of this command.
+     * @param value The new value of the field.
+     * @param wide True for a 64-bit field, false for a 32-bit one.
+     * @throws IOException If the value does not fit in a 32-bit field.
+     */
+    protected static void writeField(BinaryWrapper binary, int position, long value, boolean wide) throws IOException {
+        if (wide) {
+            binary.setLongAtRelativePosition(value, position);
+        }
+        else if (value < 0 || value > 0xFFFFFFFFL) {
+            throw new IOException("Value " + value + " does not fit in the 32-bit field at " + position);
+        }
+        else {
+            binary.setSingleWordAtRelativePosition((int) value, position);
+        }
+    }
+
 }
@@ -0,0 +1,37 @@
+package macho.commands;
+
+import java.io.IOException;
+import java.util.List;
+
+import macho.CodeDirectory;
+import macho.MachOCommandTypeEnum;
+import editor.BinaryWrapper;
+
+/**
+ * A class representing the Mach-O code signature command, which gives the location of the signature blob in
+ * the link edit segment.
+ */
+public class CodeSignature extends LinkEditData {
+
+    public CodeSignature(BinaryWrapper binary) throws IOException {
+        super(binary);
+        this.commandType = MachOCommandTypeEnum.CODE_SIGNATURE;
+    }
+
+    /**
+     * Reads the code directories of the signature. The command is read again from the file, so this also
+     * works after the file has been edited and the signature has moved.
+     * @param binary The file containing this command.
+     * @return The code directories, the primary one first.
+     * @throws IOException If the signature does not lie within the file or is malformed.
+     */
+    public List<CodeDirectory> readCodeDirectories(BinaryWrapper binary) throws IOException {
+        long signatureOffset = readDataOffset(binary);
+        long signatureSize = readDataSize(binary);
+        if (signatureOffset + signatureSize > binary.size()) {
+            throw new IOException("Code signature at " + signatureOffset + " lies outside of the file");
+        }
+        return CodeDirectory.readAll(binary, signatureOffset, signatureSize);
+    }
+
+}
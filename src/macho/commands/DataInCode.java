@@ -2,18 +2,29 @@ package macho.commands;
 
 import java.io.IOException;
 
+import macho.DataInCodeTable;
 import macho.MachOCommandTypeEnum;
 import editor.BinaryWrapper;
 
 
 /**
- * A class representing the Mach-O Data in Code command. Currently does nothing.
+ * A class representing the Mach-O Data in Code command, which lists the regions of data embedded in code.
  */
-public class DataInCode extends AbstractMachOCommand {
+public class DataInCode extends LinkEditData {
 
     public DataInCode(BinaryWrapper binary) throws IOException {
         super(binary);
         this.commandType = MachOCommandTypeEnum.DATA_IN_CODE;
     }
 
+    /**
+     * Reads the regions this command refers to.
+     * @param binary The file containing this command.
+     * @return The regions.
+     * @throws IOException If the table does not lie within the file or is malformed.
+     */
+    public DataInCodeTable readTable(BinaryWrapper binary) throws IOException {
+        return DataInCodeTable.read(mapData(binary));
+    }
+
 }
@@ -11,8 +11,12 @@ import editor.BinaryWrapper;
  */
 public class DySymTab extends AbstractMachOCommand {
 
+    private static final int TABLE_OF_CONTENTS_OFFSET_POSITION = 32;
+    private static final int MODULE_TABLE_OFFSET_POSITION = 40;
+    private static final int EXTERNAL_REFERENCES_OFFSET_POSITION = 48;
     private static final int INDIRECT_SYMBOL_TABLE_OFFSET_POSITION = 56;
     private static final int EXTERNAL_RELOCATION_ENTRIES_OFFSET_POSITION = 64;
+    private static final int LOCAL_RELOCATION_ENTRIES_OFFSET_POSITION = 72;
 
     public DySymTab(BinaryWrapper binary) throws IOException {
         super(binary);
@@ -22,8 +26,12 @@ public class DySymTab extends AbstractMachOCommand {
     @Override
     public void parseCommand(BinaryWrapper binary) throws IOException {
         super.parseCommand(binary);
-        this.offsetEntries.put(INDIRECT_SYMBOL_TABLE_OFFSET_POSITION, binary.getSingleWordAtRelativePosition(INDIRECT_SYMBOL_TABLE_OFFSET_POSITION));
-        this.offsetEntries.put(EXTERNAL_RELOCATION_ENTRIES_OFFSET_POSITION, binary.getSingleWordAtRelativePosition(EXTERNAL_RELOCATION_ENTRIES_OFFSET_POSITION));
+        parseOffsetEntry(binary, TABLE_OF_CONTENTS_OFFSET_POSITION);
+        parseOffsetEntry(binary, MODULE_TABLE_OFFSET_POSITION);
+        parseOffsetEntry(binary, EXTERNAL_REFERENCES_OFFSET_POSITION);
+        parseOffsetEntry(binary, INDIRECT_SYMBOL_TABLE_OFFSET_POSITION);
+        parseOffsetEntry(binary, EXTERNAL_RELOCATION_ENTRIES_OFFSET_POSITION);
+        parseOffsetEntry(binary, LOCAL_RELOCATION_ENTRIES_OFFSET_POSITION);
     }
 
 }
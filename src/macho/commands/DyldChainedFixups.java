@@ -0,0 +1,21 @@
+package macho.commands;
+
+import java.io.IOException;
+
+import macho.MachOCommandTypeEnum;
+import editor.BinaryWrapper;
+
+/**
+ * A class representing the Mach-O chained fixups command, which gives the location of the header of
+ * the chains of rebases and binds threaded through the pointers of the file. <br>
+ * The chains themselves are not rewritten, so the pointers they run through are not shifted when the
+ * file changes size; {@link editor.DataSegmentSwapper} refuses such edits.
+ */
+public class DyldChainedFixups extends LinkEditData {
+
+    public DyldChainedFixups(BinaryWrapper binary) throws IOException {
+        super(binary);
+        this.commandType = MachOCommandTypeEnum.DYLD_CHAINED_FIXUPS;
+    }
+
+}
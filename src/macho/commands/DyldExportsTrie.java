@@ -0,0 +1,19 @@
+package macho.commands;
+
+import java.io.IOException;
+
+import macho.MachOCommandTypeEnum;
+import editor.BinaryWrapper;
+
+/**
+ * A class representing the Mach-O exports trie command, which gives the location of the trie of
+ * exported symbols in files that use chained fixups.
+ */
+public class DyldExportsTrie extends LinkEditData {
+
+    public DyldExportsTrie(BinaryWrapper binary) throws IOException {
+        super(binary);
+        this.commandType = MachOCommandTypeEnum.DYLD_EXPORTS_TRIE;
+    }
+
+}
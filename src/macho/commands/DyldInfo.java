@@ -0,0 +1,192 @@
+package macho.commands;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import macho.Leb128;
+import macho.MachOCommandTypeEnum;
+import editor.BinaryWrapper;
+
+/**
+ * A class representing the Mach-O dyld info command, in both its {@code LC_DYLD_INFO} and
+ * {@code LC_DYLD_INFO_ONLY} forms. <br>
+ * Besides keeping the offsets of the rebase, bind, lazy bind, weak bind and export information up to date,
+ * it can decode the rebase opcodes, which list every location in the file that holds a pointer the loader
+ * slides. Those are exactly the words that need updating when addresses move.
+ */
+public class DyldInfo extends AbstractMachOCommand {
+
+    /**
+     * Rebase type of a pointer sized absolute address.
+     */
+    public static final int REBASE_TYPE_POINTER = 1;
+    /**
+     * Rebase type of a 32-bit absolute address within code.
+     */
+    public static final int REBASE_TYPE_TEXT_ABSOLUTE32 = 2;
+    /**
+     * Rebase type of a 32-bit pc relative address within code.
+     */
+    public static final int REBASE_TYPE_TEXT_PCREL32 = 3;
+
+    private static final int REBASE_OFFSET_POSITION = 8;
+    private static final int REBASE_SIZE_POSITION = 12;
+    private static final int BIND_OFFSET_POSITION = 16;
+    private static final int WEAK_BIND_OFFSET_POSITION = 24;
+    private static final int LAZY_BIND_OFFSET_POSITION = 32;
+    private static final int EXPORT_OFFSET_POSITION = 40;
+
+    private static final int REBASE_OPCODE_MASK = 0xF0;
+    private static final int REBASE_IMMEDIATE_MASK = 0x0F;
+    private static final int REBASE_OPCODE_DONE = 0x00;
+    private static final int REBASE_OPCODE_SET_TYPE_IMM = 0x10;
+    private static final int REBASE_OPCODE_SET_SEGMENT_AND_OFFSET_ULEB = 0x20;
+    private static final int REBASE_OPCODE_ADD_ADDR_ULEB = 0x30;
+    private static final int REBASE_OPCODE_ADD_ADDR_IMM_SCALED = 0x40;
+    private static final int REBASE_OPCODE_DO_REBASE_IMM_TIMES = 0x50;
+    private static final int REBASE_OPCODE_DO_REBASE_ULEB_TIMES = 0x60;
+    private static final int REBASE_OPCODE_DO_REBASE_ADD_ADDR_ULEB = 0x70;
+    private static final int REBASE_OPCODE_DO_REBASE_ULEB_TIMES_SKIPPING_ULEB = 0x80;
+
+    private int rebaseSize;
+
+    public DyldInfo(BinaryWrapper binary) throws IOException {
+        super(binary);
+        this.commandType = MachOCommandTypeEnum.DYLD_INFO;
+    }
+
+    @Override
+    public void parseCommand(BinaryWrapper binary) throws IOException {
+        super.parseCommand(binary);
+        if (binary.getSingleWordAtRelativePosition(0) == MachOCommandTypeEnum.DYLD_INFO_ONLY.getCommandValue()) {
+            this.commandType = MachOCommandTypeEnum.DYLD_INFO_ONLY;
+        }
+        parseOffsetEntry(binary, REBASE_OFFSET_POSITION);
+        parseOffsetEntry(binary, BIND_OFFSET_POSITION);
+        parseOffsetEntry(binary, WEAK_BIND_OFFSET_POSITION);
+        parseOffsetEntry(binary, LAZY_BIND_OFFSET_POSITION);
+        parseOffsetEntry(binary, EXPORT_OFFSET_POSITION);
+        this.rebaseSize = binary.getSingleWordAtRelativePosition(REBASE_SIZE_POSITION);
+    }
+
+    @Override
+    public void writeParsedState(DataOutput output) throws IOException {
+        super.writeParsedState(output);
+        output.writeBoolean(this.commandType == MachOCommandTypeEnum.DYLD_INFO_ONLY);
+        output.writeInt(rebaseSize);
+    }
+
+    @Override
+    public void readParsedState(DataInput input) throws IOException {
+        super.readParsedState(input);
+        if (input.readBoolean()) {
+            this.commandType = MachOCommandTypeEnum.DYLD_INFO_ONLY;
+        }
+        this.rebaseSize = input.readInt();
+    }
+
+    /**
+     * Gets the offset of the rebase information in the file, as it was when the command was parsed.
+     * @return The offset.
+     */
+    public long getRebaseOffset() {
+        return this.offsetEntries.get(REBASE_OFFSET_POSITION);
+    }
+
+    /**
+     * Gets the size of the rebase information.
+     * @return The size, in bytes.
+     */
+    public int getRebaseSize() {
+        return rebaseSize;
+    }
+
+    /**
+     * Decodes the rebase opcodes, calling the visitor once for every location that is rebased. The opcodes
+     * are read with a single read and decoded as a stream, so the locations are never all held in memory.
+     * @param binary The file to read the opcodes from.
+     * @param rebaseInfoPosition Where the rebase information currently starts in the file. This is
+     * {@link #getRebaseOffset()} unless the file has been modified since it was parsed.
+     * @param pointerSize The size of a pointer in the file, in bytes.
+     * @param visitor The visitor to call.
+     * @throws IOException If the opcodes are malformed.
+     */
+    public void forEachRebase(BinaryWrapper binary, long rebaseInfoPosition, int pointerSize, RebaseVisitor visitor) throws IOException {
+        ByteBuffer opcodes = ByteBuffer.allocate(rebaseSize);
+        binary.getMetrics().onBufferAllocated(rebaseSize);
+        binary.getBytesAtPosition(opcodes, rebaseInfoPosition);
+        opcodes.flip();
+        int type = 0;
+        int segmentIndex = 0;
+        long segmentOffset = 0;
+        while (opcodes.hasRemaining()) {
+            int current = opcodes.get() & 0xFF;
+            int immediate = current & REBASE_IMMEDIATE_MASK;
+            switch (current & REBASE_OPCODE_MASK) {
+                case REBASE_OPCODE_DONE:
+                    return;
+                case REBASE_OPCODE_SET_TYPE_IMM:
+                    type = immediate;
+                    break;
+                case REBASE_OPCODE_SET_SEGMENT_AND_OFFSET_ULEB:
+                    segmentIndex = immediate;
+                    segmentOffset = Leb128.readUnsigned(opcodes);
+                    break;
+                case REBASE_OPCODE_ADD_ADDR_ULEB:
+                    segmentOffset += Leb128.readUnsigned(opcodes);
+                    break;
+                case REBASE_OPCODE_ADD_ADDR_IMM_SCALED:
+                    segmentOffset += (long) immediate * pointerSize;
+                    break;
+                case REBASE_OPCODE_DO_REBASE_IMM_TIMES:
+                    for (int i = 0; i < immediate; i++) {
+                        visitor.rebase(segmentIndex, segmentOffset, type);
+                        segmentOffset += pointerSize;
+                    }
+                    break;
+                case REBASE_OPCODE_DO_REBASE_ULEB_TIMES: {
+                    long count = Leb128.readUnsigned(opcodes);
+                    for (long i = 0; i < count; i++) {
+                        visitor.rebase(segmentIndex, segmentOffset, type);
+                        segmentOffset += pointerSize;
+                    }
+                    break;
+                }
+                case REBASE_OPCODE_DO_REBASE_ADD_ADDR_ULEB:
+                    visitor.rebase(segmentIndex, segmentOffset, type);
+                    segmentOffset += Leb128.readUnsigned(opcodes) + pointerSize;
+                    break;
+                case REBASE_OPCODE_DO_REBASE_ULEB_TIMES_SKIPPING_ULEB: {
+                    long count = Leb128.readUnsigned(opcodes);
+                    long skip = Leb128.readUnsigned(opcodes);
+                    for (long i = 0; i < count; i++) {
+                        visitor.rebase(segmentIndex, segmentOffset, type);
+                        segmentOffset += skip + pointerSize;
+                    }
+                    break;
+                }
+                default:
+                    throw new IOException("Unknown rebase opcode 0x" + Integer.toHexString(current));
+            }
+        }
+    }
+
+    /**
+     * Receives the locations decoded by {@link DyldInfo#forEachRebase(BinaryWrapper, long, int, RebaseVisitor)}.
+     */
+    @FunctionalInterface
+    public interface RebaseVisitor {
+
+        /**
+         * Called for every rebased location.
+         * @param segmentIndex The index of the segment holding the location, counting segment commands in order.
+         * @param segmentOffset The offset of the location from the start of the segment.
+         * @param type The rebase type, such as {@link DyldInfo#REBASE_TYPE_POINTER}.
+         * @throws IOException
+         */
+        void rebase(int segmentIndex, long segmentOffset, int type) throws IOException;
+    }
+
+}
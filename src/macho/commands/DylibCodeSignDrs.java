@@ -0,0 +1,19 @@
+package macho.commands;
+
+import java.io.IOException;
+
+import macho.MachOCommandTypeEnum;
+import editor.BinaryWrapper;
+
+/**
+ * A class representing the Mach-O dylib code signing designated requirements command, which gives
+ * the location of the requirements copied from the dylibs the file was linked against.
+ */
+public class DylibCodeSignDrs extends LinkEditData {
+
+    public DylibCodeSignDrs(BinaryWrapper binary) throws IOException {
+        super(binary);
+        this.commandType = MachOCommandTypeEnum.DYLIB_CODE_SIGN_DRS;
+    }
+
+}
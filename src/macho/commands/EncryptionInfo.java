@@ -0,0 +1,70 @@
+package macho.commands;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import macho.MachOCommandTypeEnum;
+import editor.BinaryWrapper;
+import editor.EditLayout;
+
+/**
+ * A class representing the Mach-O encryption info command, which gives the range of the file that is
+ * encrypted. The range moves and changes size with the edits made before and within it.
+ */
+public class EncryptionInfo extends AbstractMachOCommand {
+
+    private static final int CRYPT_OFFSET_POSITION = 8;
+    private static final int CRYPT_SIZE_POSITION = 12;
+
+    private long cryptSize;
+
+    public EncryptionInfo(BinaryWrapper binary) throws IOException {
+        super(binary);
+        this.commandType = MachOCommandTypeEnum.ENCRYPTION_INFO;
+    }
+
+    @Override
+    public void parseCommand(BinaryWrapper binary) throws IOException {
+        super.parseCommand(binary);
+        parseOffsetEntry(binary, CRYPT_OFFSET_POSITION);
+        this.cryptSize = readField(binary, CRYPT_SIZE_POSITION, false);
+    }
+
+    @Override
+    public void writeParsedState(DataOutput output) throws IOException {
+        super.writeParsedState(output);
+        output.writeLong(cryptSize);
+    }
+
+    @Override
+    public void readParsedState(DataInput input) throws IOException {
+        super.readParsedState(input);
+        this.cryptSize = input.readLong();
+    }
+
+    /**
+     * Gets the offset of the encrypted range, as it was when the command was parsed.
+     * @return The offset.
+     */
+    public long getCryptOffset() {
+        return this.offsetEntries.get(CRYPT_OFFSET_POSITION);
+    }
+
+    /**
+     * Gets the size of the encrypted range, as it was when the command was parsed.
+     * @return The size, in bytes.
+     */
+    public long getCryptSize() {
+        return cryptSize;
+    }
+
+    @Override
+    public void updateSizeifNeeded(BinaryWrapper binary, EditLayout layout) throws IOException {
+        long diffFromOriginal = layout.getSizeDiffWithin(getCryptOffset(), cryptSize);
+        if (diffFromOriginal != 0) {
+            writeField(binary, CRYPT_SIZE_POSITION, cryptSize + diffFromOriginal, false);
+        }
+    }
+
+}
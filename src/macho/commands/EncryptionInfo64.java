@@ -0,0 +1,19 @@
+package macho.commands;
+
+import java.io.IOException;
+
+import macho.MachOCommandTypeEnum;
+import editor.BinaryWrapper;
+
+/**
+ * A class representing the Mach-O 64-bit encryption info command. Its fields are the same as those of
+ * {@link EncryptionInfo}, followed by padding.
+ */
+public class EncryptionInfo64 extends EncryptionInfo {
+
+    public EncryptionInfo64(BinaryWrapper binary) throws IOException {
+        super(binary);
+        this.commandType = MachOCommandTypeEnum.ENCRYPTION_INFO_64;
+    }
+
+}
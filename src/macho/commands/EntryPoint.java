@@ -0,0 +1,35 @@
+package macho.commands;
+
+import java.io.IOException;
+
+import macho.MachOCommandTypeEnum;
+import editor.BinaryWrapper;
+
+/**
+ * A class representing the Mach-O main command, which replaces {@link UnixThread} in newer files. It gives
+ * the file offset of {@code main}, which moves along with the rest of {@code __TEXT}.
+ */
+public class EntryPoint extends AbstractMachOCommand {
+
+    private static final int ENTRY_OFFSET_POSITION = 8;
+
+    public EntryPoint(BinaryWrapper binary) throws IOException {
+        super(binary);
+        this.commandType = MachOCommandTypeEnum.MAIN;
+    }
+
+    @Override
+    public void parseCommand(BinaryWrapper binary) throws IOException {
+        super.parseCommand(binary);
+        parseWideOffsetEntry(binary, ENTRY_OFFSET_POSITION);
+    }
+
+    /**
+     * Gets the file offset of the entry point, as it was when the command was parsed.
+     * @return The offset.
+     */
+    public long getEntryOffset() {
+        return this.offsetEntries.get(ENTRY_OFFSET_POSITION);
+    }
+
+}
@@ -1,19 +1,81 @@
 package macho.commands;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.LongConsumer;
 
+import macho.Leb128;
 import macho.MachOCommandTypeEnum;
 import editor.BinaryWrapper;
 
 /**
- * A class representing the Mach-O function starts command. Currently does nothing.
+ * A class representing the Mach-O function starts command. <br>
+ * Its data is a stream of ULEB128 values, the first giving the offset of the first function from the start
+ * of the {@code __TEXT} segment and each of the others the distance from the previous function, ended by a
+ * zero. It is decoded straight from a mapping of the file into primitive longs, so even binaries with
+ * millions of functions can be indexed cheaply.
  */
-public class FunctionStarts extends AbstractMachOCommand {
+public class FunctionStarts extends LinkEditData {
+
+    private static final int INITIAL_CAPACITY = 256;
 
     public FunctionStarts(BinaryWrapper binary) throws IOException {
         super(binary);
         this.commandType = MachOCommandTypeEnum.FUNCTION_STARTS;
     }
 
+    /**
+     * Decodes the start address of every function, in ascending order, passing each one to the sink.
+     * @param binary The file containing this command.
+     * @param textAddress The address of the {@code __TEXT} segment, which the first offset is relative to.
+     * @param sink Receives the addresses.
+     * @throws IOException If the data does not lie within the file or is malformed.
+     */
+    public void forEachFunctionStart(BinaryWrapper binary, long textAddress, LongConsumer sink) throws IOException {
+        ByteBuffer data = mapData(binary);
+        long address = textAddress;
+        while (data.hasRemaining()) {
+            long delta = Leb128.readUnsigned(data);
+            if (delta == 0) {
+                return;
+            }
+            address += delta;
+            sink.accept(address);
+        }
+    }
+
+    /**
+     * Decodes the start address of every function into an array.
+     * @param binary The file containing this command.
+     * @param textAddress The address of the {@code __TEXT} segment, which the first offset is relative to.
+     * @return The addresses, in ascending order.
+     * @throws IOException If the data does not lie within the file or is malformed.
+     */
+    public long[] getFunctionStarts(BinaryWrapper binary, long textAddress) throws IOException {
+        Starts starts = new Starts();
+        forEachFunctionStart(binary, textAddress, starts);
+        return starts.toArray();
+    }
+
+    /**
+     * Collects the addresses given to it into a growable array.
+     */
+    private static class Starts implements LongConsumer {
+        private long[] addresses = new long[INITIAL_CAPACITY];
+        private int count;
+
+        @Override
+        public void accept(long address) {
+            if (count == addresses.length) {
+                addresses = Arrays.copyOf(addresses, count * 2);
+            }
+            addresses[count++] = address;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(addresses, count);
+        }
+    }
 
 }
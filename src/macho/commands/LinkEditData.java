@@ -0,0 +1,92 @@
+package macho.commands;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import editor.BinaryWrapper;
+
+/**
+ * A class to serve as the basis of the Mach-O commands that are a {@code linkedit_data_command}, which
+ * only give the offset and size of a blob of data in the link edit segment. <br>
+ * The offset is recorded in {@link #offsetEntries} so that it is kept up to date when the file is edited.
+ */
+public abstract class LinkEditData extends AbstractMachOCommand {
+
+    private static final int DATA_OFFSET_POSITION = 8;
+    private static final int DATA_SIZE_POSITION = 12;
+
+    private long dataSize;
+
+    public LinkEditData(BinaryWrapper binary) throws IOException {
+        super(binary);
+    }
+
+    @Override
+    public void parseCommand(BinaryWrapper binary) throws IOException {
+        super.parseCommand(binary);
+        parseOffsetEntry(binary, DATA_OFFSET_POSITION);
+        this.dataSize = readField(binary, DATA_SIZE_POSITION, false);
+    }
+
+    @Override
+    public void writeParsedState(DataOutput output) throws IOException {
+        super.writeParsedState(output);
+        output.writeLong(dataSize);
+    }
+
+    @Override
+    public void readParsedState(DataInput input) throws IOException {
+        super.readParsedState(input);
+        this.dataSize = input.readLong();
+    }
+
+    /**
+     * Gets the offset of the data in the file, as it was when the command was parsed.
+     * @return The offset.
+     */
+    public long getDataOffset() {
+        return this.offsetEntries.get(DATA_OFFSET_POSITION);
+    }
+
+    /**
+     * Gets the size of the data.
+     * @return The size, in bytes.
+     */
+    public long getDataSize() {
+        return dataSize;
+    }
+
+    /**
+     * Maps the data this command refers to. The command is read again from the file, so this also works
+     * after the file has been edited and the data has moved.
+     * @param binary The file containing this command.
+     * @return A read only little endian buffer over the data.
+     * @throws IOException If the data does not lie within the file.
+     */
+    public ByteBuffer mapData(BinaryWrapper binary) throws IOException {
+        return binary.map(readDataOffset(binary), readDataSize(binary));
+    }
+
+    /**
+     * Reads the offset of the data from this command as it is in the file now.
+     * @param binary The file containing this command.
+     * @return The offset.
+     * @throws IOException
+     */
+    protected long readDataOffset(BinaryWrapper binary) throws IOException {
+        return Integer.toUnsignedLong(binary.getSingleWordAtPosition(getCommandStartOffset() + DATA_OFFSET_POSITION));
+    }
+
+    /**
+     * Reads the size of the data from this command as it is in the file now.
+     * @param binary The file containing this command.
+     * @return The size, in bytes.
+     * @throws IOException
+     */
+    protected long readDataSize(BinaryWrapper binary) throws IOException {
+        return Integer.toUnsignedLong(binary.getSingleWordAtPosition(getCommandStartOffset() + DATA_SIZE_POSITION));
+    }
+
+}
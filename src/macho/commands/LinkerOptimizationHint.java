@@ -0,0 +1,19 @@
+package macho.commands;
+
+import java.io.IOException;
+
+import macho.MachOCommandTypeEnum;
+import editor.BinaryWrapper;
+
+/**
+ * A class representing the Mach-O linker optimization hint command, which gives the location of the
+ * hints left in object files for the linker.
+ */
+public class LinkerOptimizationHint extends LinkEditData {
+
+    public LinkerOptimizationHint(BinaryWrapper binary) throws IOException {
+        super(binary);
+        this.commandType = MachOCommandTypeEnum.LINKER_OPTIMIZATION_HINT;
+    }
+
+}
@@ -1,97 +1,244 @@
 package macho.commands;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.List;
 
 import macho.MachOCommandTypeEnum;
+import macho.PackedName;
+import editor.AddressRewriter;
 import editor.BinaryWrapper;
+import editor.EditLayout;
 
 /**
  * A class representing the Mach-O Segment command.
  */
 public class Segment extends AbstractMachOCommand {
 
-
-    private static final char[] OBJ_C = "__OBJC".toCharArray();
-    private static final char[] MODULE_INFO = "__module_info".toCharArray();
-    private static final char[] META_CLASS = "__meta_class".toCharArray();
-    private static final char[] INSTANCE_VARS = "__instance_vars".toCharArray();
-    private static final char[] CLASS = "__class".toCharArray();
-    private static final char[] SYMBOLS = "__symbols".toCharArray();
+    private static final PackedName OBJ_C = PackedName.of("__OBJC");
+    private static final PackedName MODULE_INFO = PackedName.of("__module_info");
+    private static final PackedName META_CLASS = PackedName.of("__meta_class");
+    private static final PackedName INSTANCE_VARS = PackedName.of("__instance_vars");
+    private static final PackedName CLASS = PackedName.of("__class");
+    private static final PackedName SYMBOLS = PackedName.of("__symbols");
     private static final int SEGMENT_NAME_POSITION = 8;
-    private static final int NAME_SIZE = 16;
-    private static final int FILE_OFFSET_POSITION = 32;
-    private static final int FILE_SIZE_POSITION = 36;
     private static final int VM_ADDRESS_POSITION = 24;
-    private static final int VM_SIZE_POSITION = 28;
-    private static final int NUMBER_OF_SECTIONS_POSITION = 48;
-    private static final int FIRST_SECTION_POSITION = 56;
-    private static final int SECTION_HEADER_SIZE = 68;
+    private static final int SECTION_TYPE_MASK = 0xFF;
+    private static final int S_ZEROFILL = 0x1;
+    private static final int S_GB_ZEROFILL = 0xC;
+    private static final int S_THREAD_LOCAL_ZEROFILL = 0x12;
+    private static final Layout LAYOUT_32 = new Layout(false, 28, 32, 36, 48, 56, 68, 36, 40);
+    private static final Layout LAYOUT_64 = new Layout(true, 32, 40, 48, 64, 72, 80, 40, 48);
+
+    private final Layout layout;
     private int numberOfSections;
     private List<Section> sections;
+    private long fileSize;
+    private PackedName segmentName;
 
     public Segment(BinaryWrapper binary) throws IOException {
-        super(binary);
+        this(binary, false);
         this.commandType = MachOCommandTypeEnum.SEGMENT;
     }
 
+    /**
+     * Construct a segment command of either width. Only {@link Segment64} needs the 64-bit layout.
+     * @param binary The {@link BinaryWrapper}
+     * @param wide True for {@code LC_SEGMENT_64}, false for {@code LC_SEGMENT}.
+     * @throws IOException
+     */
+    protected Segment(BinaryWrapper binary, boolean wide) throws IOException {
+        super(binary);
+        this.layout = wide ? LAYOUT_64 : LAYOUT_32;
+    }
+
+    /**
+     * The positions of the fields of a segment command and its sections, which differ between
+     * {@code LC_SEGMENT} and {@code LC_SEGMENT_64}.
+     */
+    private static class Layout {
+        final boolean wide;
+        final int vmSizePosition;
+        final int fileOffsetPosition;
+        final int fileSizePosition;
+        final int numberOfSectionsPosition;
+        final int firstSectionPosition;
+        final int sectionHeaderSize;
+        final int sectionSizePosition;
+        final int sectionOffsetPosition;
+
+        Layout(boolean wide, int vmSizePosition, int fileOffsetPosition, int fileSizePosition, int numberOfSectionsPosition,
+                int firstSectionPosition, int sectionHeaderSize, int sectionSizePosition, int sectionOffsetPosition) {
+            this.wide = wide;
+            this.vmSizePosition = vmSizePosition;
+            this.fileOffsetPosition = fileOffsetPosition;
+            this.fileSizePosition = fileSizePosition;
+            this.numberOfSectionsPosition = numberOfSectionsPosition;
+            this.firstSectionPosition = firstSectionPosition;
+            this.sectionHeaderSize = sectionHeaderSize;
+            this.sectionSizePosition = sectionSizePosition;
+            this.sectionOffsetPosition = sectionOffsetPosition;
+        }
+    }
+
+    /**
+     * Gets the offset of this segment in the file, as it was when the command was parsed.
+     * @return The offset.
+     */
+    public long getFileOffset() {
+        return this.offsetEntries.get(layout.fileOffsetPosition);
+    }
+
+    /**
+     * Gets the name of this segment, such as {@code __DATA}.
+     * @return The name, without padding.
+     */
+    public String getSegmentName() {
+        return segmentName.toString();
+    }
+
+    /**
+     * Gets the name of this segment as it was read from the file.
+     * @return The packed name.
+     */
+    public PackedName getPackedName() {
+        return segmentName;
+    }
+
+    /**
+     * Gets the size of this segment in the file, as it was when the command was parsed.
+     * @return The size, in bytes.
+     */
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    /**
+     * Gets the address this segment is loaded at, as it was when the command was parsed.
+     * @return The address.
+     */
+    public long getVmAddress() {
+        return this.addressEntries.get(VM_ADDRESS_POSITION);
+    }
+
+    /**
+     * Gets the sections contained in this segment.
+     * @return The sections.
+     */
+    public List<Section> getSections() {
+        return sections;
+    }
+
+    /**
+     * Maps the contents of this segment in the file, without copying them. The command is read again from
+     * the file, so this also works after the file has been edited and the segment has moved.
+     * @param binary The file containing this command.
+     * @return A read only little endian buffer over the contents.
+     * @throws IOException If the contents do not lie within the file or are larger than 2 GB.
+     */
+    public ByteBuffer mapContents(BinaryWrapper binary) throws IOException {
+        return binary.map(readCurrentField(binary, layout.fileOffsetPosition, layout.wide),
+                readCurrentField(binary, layout.fileSizePosition, layout.wide));
+    }
+
+    /**
+     * Writes the contents of this segment in the file to a channel with
+     * {@link java.nio.channels.FileChannel#transferTo(long, long, WritableByteChannel)}, so they are not
+     * copied through the Java heap. Like {@link #mapContents(BinaryWrapper)}, this works after the file has
+     * been edited.
+     * @param binary The file containing this command.
+     * @param target The channel to write to, starting at its current position.
+     * @throws IOException
+     */
+    public void transferContents(BinaryWrapper binary, WritableByteChannel target) throws IOException {
+        binary.transferTo(readCurrentField(binary, layout.fileOffsetPosition, layout.wide),
+                readCurrentField(binary, layout.fileSizePosition, layout.wide), target);
+    }
+
+    /**
+     * Reads a field of this command as it is in the file now, wherever the file is positioned.
+     */
+    private long readCurrentField(BinaryWrapper binary, int position, boolean wide) throws IOException {
+        long absolutePosition = getCommandStartOffset() + position;
+        return wide ? binary.getLongAtPosition(absolutePosition) : Integer.toUnsignedLong(binary.getSingleWordAtPosition(absolutePosition));
+    }
+
     @Override
-    public void updateSizeifNeeded(BinaryWrapper binary, int modifiedStartOffset, int diffFromOriginal) throws IOException {
-        int originalSize = binary.getSingleWordAtRelativePosition(FILE_SIZE_POSITION);
-        if (modifiedStartOffset >= this.offsetEntries.get(FILE_OFFSET_POSITION) &&
-            modifiedStartOffset < this.offsetEntries.get(FILE_OFFSET_POSITION) + originalSize){
-            binary.setSingleWordAtRelativePosition(originalSize + diffFromOriginal, FILE_SIZE_POSITION);
-            // Pretty sure VM_SIZE always equals FILE_SIZE...
-            binary.setSingleWordAtRelativePosition(originalSize + diffFromOriginal, VM_SIZE_POSITION);
+    public void updateSizeifNeeded(BinaryWrapper binary, EditLayout layout) throws IOException {
+        long originalSize = readField(binary, this.layout.fileSizePosition, this.layout.wide);
+        long diffFromOriginal = layout.getSizeDiffWithin(this.offsetEntries.get(this.layout.fileOffsetPosition), originalSize);
+        if (diffFromOriginal != 0){
+            writeField(binary, this.layout.fileSizePosition, originalSize + diffFromOriginal, this.layout.wide);
+            // The memory size also covers zero fill sections, such as __bss, which are not in the file.
+            long originalVmSize = readField(binary, this.layout.vmSizePosition, this.layout.wide);
+            writeField(binary, this.layout.vmSizePosition, originalVmSize + diffFromOriginal, this.layout.wide);
             for (Section section : sections) {
-                section.updateSizeifNeeded(binary, modifiedStartOffset, diffFromOriginal) ;
+                section.updateSizeifNeeded(binary, layout) ;
             }
         }
     }
 
     @Override
-    public void updateObjCAddressesIfNeeded(BinaryWrapper binary, int modifiedStartAddress, int diffFromOriginal) throws IOException {
-        char[] name = getName(binary, SEGMENT_NAME_POSITION);
-        if (!compareCharArrays(name, OBJ_C)) {
+    public void updateObjCAddressesIfNeeded(BinaryWrapper binary, EditLayout layout) throws IOException {
+        if (!segmentName.equals(OBJ_C)) {
             return;
         }
         for (Section section : sections) {
-            section.updateObjCAddressesifNeeded(binary, modifiedStartAddress, diffFromOriginal) ;
+            section.updateObjCAddressesifNeeded(binary, layout) ;
         }
     }
 
-    private static char[] getName(BinaryWrapper binary, int position) throws IOException {
-        char[] name = new char[NAME_SIZE];
-        for (int i = 0; i < NAME_SIZE; i++) {
-            name[i] = binary.getSingleByteAtRelativePosition(position + i);
+    @Override
+    public void parseCommand(BinaryWrapper binary) throws IOException {
+        super.parseCommand(binary);
+        if (layout.wide) {
+            parseWideOffsetEntry(binary, layout.fileOffsetPosition);
+            parseWideAddressEntry(binary, VM_ADDRESS_POSITION);
         }
-        return name;
+        else {
+            parseOffsetEntry(binary, layout.fileOffsetPosition);
+            parseAddressEntry(binary, VM_ADDRESS_POSITION);
+        }
+        this.fileSize = readField(binary, layout.fileSizePosition, layout.wide);
+        this.segmentName = PackedName.read(binary, binary.getPosition() + SEGMENT_NAME_POSITION);
+        parseSections(binary);
+
     }
 
-    private static boolean compareCharArrays(char[] raw, char[] nonPadded) {
-        if (raw.length < nonPadded.length) {
-            return false;
-        }
-        for (int i = 0; i < raw.length; i++) {
-            if ((i < nonPadded.length && raw[i] != nonPadded[i]) || (i >= nonPadded.length && raw[i] != '\0')) {
-                return false;
-            }
+    @Override
+    public void writeParsedState(DataOutput output) throws IOException {
+        super.writeParsedState(output);
+        output.writeLong(fileSize);
+        segmentName.write(output);
+        output.writeInt(numberOfSections);
+        for (Section section : sections) {
+            section.writeParsedState(output);
         }
-        return true;
     }
 
     @Override
-    public void parseCommand(BinaryWrapper binary) throws IOException {
-        super.parseCommand(binary);
-        this.offsetEntries.put(FILE_OFFSET_POSITION, binary.getSingleWordAtRelativePosition(FILE_OFFSET_POSITION));
-        this.addressEntries.put(VM_ADDRESS_POSITION, binary.getSingleWordAtRelativePosition(VM_ADDRESS_POSITION));
-        getSections(binary);
-
+    public void readParsedState(DataInput input) throws IOException {
+        super.readParsedState(input);
+        this.fileSize = input.readLong();
+        this.segmentName = PackedName.read(input);
+        this.numberOfSections = input.readInt();
+        if (numberOfSections < 0 || layout.firstSectionPosition + (long) numberOfSections * layout.sectionHeaderSize > commandSize) {
+            throw new IOException("Invalid number of sections " + numberOfSections);
+        }
+        sections = new ArrayList<>(numberOfSections);
+        while (sections.size() < numberOfSections) {
+            Section section = new Section(sections.size());
+            section.readParsedState(input);
+            sections.add(section);
+        }
     }
 
-    private void getSections(BinaryWrapper binary) throws IOException {
-        this.numberOfSections = binary.getSingleWordAtRelativePosition(NUMBER_OF_SECTIONS_POSITION);
+    private void parseSections(BinaryWrapper binary) throws IOException {
+        this.numberOfSections = binary.getSingleWordAtRelativePosition(layout.numberOfSectionsPosition);
         sections = new ArrayList<>(numberOfSections);
         while (sections.size() < numberOfSections) {
             sections.add(getNextSection(sections.size(), binary));
@@ -107,61 +254,162 @@ public class Segment extends AbstractMachOCommand {
     /**
      * This class represents a Section within a Segment in a Mach-O file.
      */
-    class Section {
+    public class Section {
         private static final int SECTION_NAME_POSITION = 0;
-        private static final int OFFSET_POSITION = 40;
+        private static final int SEGMENT_NAME_POSITION = 16;
         private static final int ADDRESS_POSITION = 32;
-        private static final int SIZE_POSITION = 36;
+        // The flags follow the offset, alignment, relocation offset and relocation count in both layouts.
+        private static final int FLAGS_AFTER_OFFSET = 16;
         private final int sectionOffset;
+        private long size;
+        private int flags;
+        private PackedName sectionName;
+        private PackedName sectionSegmentName;
 
         /**
          * Construct a section, given the section number.
          * @param sectionNumber
          */
         Section(int sectionNumber){
-            this.sectionOffset = SECTION_HEADER_SIZE * sectionNumber + FIRST_SECTION_POSITION;
+            this.sectionOffset = layout.sectionHeaderSize * sectionNumber + layout.firstSectionPosition;
+        }
+
+        /**
+         * Gets the name of this section, such as {@code __data}.
+         * @return The name, without padding.
+         */
+        public String getSectionName() {
+            return sectionName.toString();
+        }
+
+        /**
+         * Gets the name of this section as it was read from the file.
+         * @return The packed name.
+         */
+        public PackedName getPackedSectionName() {
+            return sectionName;
+        }
+
+        /**
+         * Gets the name of the segment this section belongs to, as given in the header of the section.
+         * @return The packed name.
+         */
+        public PackedName getPackedSegmentName() {
+            return sectionSegmentName;
         }
 
+        /**
+         * Gets the offset of this section in the file, as it was when the command was parsed.
+         * @return The offset.
+         */
+        @SuppressWarnings("synthetic-access")
+        public long getOffset() {
+            return offsetEntries.get(getOffsetRelativeToCommandStart(layout.sectionOffsetPosition));
+        }
+
+        /**
+         * Gets the address this section is loaded at, as it was when the command was parsed.
+         * @return The address.
+         */
         @SuppressWarnings("synthetic-access")
-        public void updateObjCAddressesifNeeded(BinaryWrapper binary, int modifiedStartAddress, int diffFromOriginal) throws IOException {
-            if (binary.getSingleWordAtRelativePosition(getOffsetRelativeToCommandStart(ADDRESS_POSITION)) > modifiedStartAddress &&
-                    isSectionToUpdate(getName(binary, getOffsetRelativeToCommandStart(SECTION_NAME_POSITION)))){
-                scanAndUpdateBinary(binary.getSingleWordAtRelativePosition(getOffsetRelativeToCommandStart(OFFSET_POSITION)),
-                        binary.getSingleWordAtRelativePosition(getOffsetRelativeToCommandStart(SIZE_POSITION)),
-                        modifiedStartAddress, diffFromOriginal, binary);
+        public long getAddress() {
+            return addressEntries.get(getOffsetRelativeToCommandStart(ADDRESS_POSITION));
+        }
+
+        /**
+         * Gets the size of this section, as it was when the command was parsed.
+         * @return The size, in bytes.
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * Gets the type and attributes of this section.
+         * @return The {@code flags} field.
+         */
+        public int getFlags() {
+            return flags;
+        }
+
+        /**
+         * Checks if this section has contents in the file. Zero fill sections, such as {@code __bss}, only
+         * exist in memory.
+         * @return False if this is a zero fill section.
+         */
+        public boolean hasContentsInFile() {
+            int type = flags & SECTION_TYPE_MASK;
+            return type != S_ZEROFILL && type != S_GB_ZEROFILL && type != S_THREAD_LOCAL_ZEROFILL;
+        }
+
+        /**
+         * Maps the contents of this section in the file, without copying them. The section is read again from
+         * the file, so this also works after the file has been edited and the section has moved.
+         * @param binary The file containing this section.
+         * @return A read only little endian buffer over the contents, which is empty for a zero fill section.
+         * @throws IOException If the contents do not lie within the file or are larger than 2 GB.
+         */
+        @SuppressWarnings("synthetic-access")
+        public ByteBuffer mapContents(BinaryWrapper binary) throws IOException {
+            if (!hasContentsInFile()) {
+                return ByteBuffer.allocate(0).asReadOnlyBuffer();
             }
+            return binary.map(readCurrentField(binary, getOffsetRelativeToCommandStart(Segment.this.layout.sectionOffsetPosition), false),
+                    readCurrentField(binary, getOffsetRelativeToCommandStart(Segment.this.layout.sectionSizePosition), Segment.this.layout.wide));
         }
 
-        private void scanAndUpdateBinary(int startingOffset, int sizeToScan, int modifiedStartAddress, int addressDiff, BinaryWrapper binary) throws IOException {
-            // TODO: This is very buggy, fix this to actually attempt some level of instruction decoding perhaps.
-            int currentOffset = startingOffset;
-            int endOffset = startingOffset + sizeToScan;
-            while (currentOffset < endOffset) {
-                int currentWordValue = binary.getSingleWordAtPosition(currentOffset);
-                // We pray it is actually an address value.
-                if (currentWordValue > modifiedStartAddress) {
-                    binary.setSingleWordAtPosition(currentWordValue + addressDiff, currentOffset);
-                }
-                currentOffset += 4;
+        /**
+         * Writes the contents of this section in the file to a channel with
+         * {@link java.nio.channels.FileChannel#transferTo(long, long, WritableByteChannel)}, so they are not
+         * copied through the Java heap. Nothing is written for a zero fill section.
+         * @param binary The file containing this section.
+         * @param target The channel to write to, starting at its current position.
+         * @throws IOException
+         */
+        @SuppressWarnings("synthetic-access")
+        public void transferContents(BinaryWrapper binary, WritableByteChannel target) throws IOException {
+            if (!hasContentsInFile()) {
+                return;
+            }
+            binary.transferTo(readCurrentField(binary, getOffsetRelativeToCommandStart(Segment.this.layout.sectionOffsetPosition), false),
+                    readCurrentField(binary, getOffsetRelativeToCommandStart(Segment.this.layout.sectionSizePosition), Segment.this.layout.wide),
+                    target);
+        }
+
+        @SuppressWarnings("synthetic-access")
+        public void updateObjCAddressesifNeeded(BinaryWrapper binary, EditLayout layout) throws IOException {
+            if (layout.isAfterAnyEditAddress(getAddress()) && isSectionToUpdate()){
+                scanAndUpdateBinary(readField(binary, getOffsetRelativeToCommandStart(Segment.this.layout.sectionOffsetPosition), false),
+                        readField(binary, getOffsetRelativeToCommandStart(Segment.this.layout.sectionSizePosition), Segment.this.layout.wide),
+                        layout, binary);
             }
+        }
 
+        private void scanAndUpdateBinary(long startingOffset, long sizeToScan, EditLayout layout, BinaryWrapper binary) throws IOException {
+            // TODO: This is very buggy, fix this to actually attempt some level of instruction decoding perhaps.
+            AddressRewriter.getDefault().rewrite(binary, startingOffset, sizeToScan, layout);
         }
 
         @SuppressWarnings("synthetic-access")
-        private boolean isSectionToUpdate(char[] name){
-            return compareCharArrays(name, MODULE_INFO) ||
-                compareCharArrays(name, META_CLASS) ||
-                compareCharArrays(name, INSTANCE_VARS) ||
-                compareCharArrays(name, CLASS) ||
-                compareCharArrays(name, SYMBOLS);
+        private boolean isSectionToUpdate(){
+            return sectionName.equals(MODULE_INFO) ||
+                sectionName.equals(META_CLASS) ||
+                sectionName.equals(INSTANCE_VARS) ||
+                sectionName.equals(CLASS) ||
+                sectionName.equals(SYMBOLS);
         }
 
         @SuppressWarnings("synthetic-access")
-        public void updateSizeifNeeded(BinaryWrapper binary, int modifiedStartOffset, int diffFromOriginal) throws IOException {
-            int originalSize = binary.getSingleWordAtRelativePosition(getOffsetRelativeToCommandStart(SIZE_POSITION));
-            if (modifiedStartOffset >= offsetEntries.get(getOffsetRelativeToCommandStart(OFFSET_POSITION)) &&
-                    modifiedStartOffset < offsetEntries.get(getOffsetRelativeToCommandStart(OFFSET_POSITION)) + originalSize){
-                binary.setSingleWordAtRelativePosition(originalSize + diffFromOriginal, getOffsetRelativeToCommandStart(SIZE_POSITION));
+        public void updateSizeifNeeded(BinaryWrapper binary, EditLayout layout) throws IOException {
+            if (!hasContentsInFile()) {
+                // Its offset is zero, so it would take the size of any edit at the start of the file.
+                return;
+            }
+            int sizePosition = getOffsetRelativeToCommandStart(Segment.this.layout.sectionSizePosition);
+            long originalSize = readField(binary, sizePosition, Segment.this.layout.wide);
+            long diffFromOriginal = layout.getSizeDiffWithin(getOffset(), originalSize);
+            if (diffFromOriginal != 0){
+                writeField(binary, sizePosition, originalSize + diffFromOriginal, Segment.this.layout.wide);
             }
         }
 
@@ -171,10 +419,42 @@ public class Segment extends AbstractMachOCommand {
 
         @SuppressWarnings("synthetic-access")
         public void parseSection(BinaryWrapper binary) throws IOException {
-            offsetEntries.put(getOffsetRelativeToCommandStart(OFFSET_POSITION),
-                    binary.getSingleWordAtRelativePosition(getOffsetRelativeToCommandStart(OFFSET_POSITION)));
-            addressEntries.put(getOffsetRelativeToCommandStart(ADDRESS_POSITION),
-                    binary.getSingleWordAtRelativePosition(getOffsetRelativeToCommandStart(ADDRESS_POSITION)));
+            // The file offset of a section is 32 bits wide even in a 64-bit segment.
+            parseOffsetEntry(binary, getOffsetRelativeToCommandStart(layout.sectionOffsetPosition));
+            if (layout.wide) {
+                parseWideAddressEntry(binary, getOffsetRelativeToCommandStart(ADDRESS_POSITION));
+            }
+            else {
+                parseAddressEntry(binary, getOffsetRelativeToCommandStart(ADDRESS_POSITION));
+            }
+            size = readField(binary, getOffsetRelativeToCommandStart(layout.sectionSizePosition), layout.wide);
+            flags = binary.getSingleWordAtRelativePosition(getOffsetRelativeToCommandStart(layout.sectionOffsetPosition + FLAGS_AFTER_OFFSET));
+            sectionName = PackedName.read(binary, binary.getPosition() + getOffsetRelativeToCommandStart(SECTION_NAME_POSITION));
+            sectionSegmentName = PackedName.read(binary, binary.getPosition() + getOffsetRelativeToCommandStart(SEGMENT_NAME_POSITION));
+        }
+
+        /**
+         * Writes the fields of this section that are not offset or address entries of its segment.
+         * @param output Where to write them.
+         * @throws IOException
+         */
+        void writeParsedState(DataOutput output) throws IOException {
+            output.writeLong(size);
+            output.writeInt(flags);
+            sectionName.write(output);
+            sectionSegmentName.write(output);
+        }
+
+        /**
+         * Restores the fields written by {@link #writeParsedState(DataOutput)}.
+         * @param input Where to read them from.
+         * @throws IOException
+         */
+        void readParsedState(DataInput input) throws IOException {
+            size = input.readLong();
+            flags = input.readInt();
+            sectionName = PackedName.read(input);
+            sectionSegmentName = PackedName.read(input);
         }
 
     }
@@ -0,0 +1,19 @@
+package macho.commands;
+
+import java.io.IOException;
+
+import macho.MachOCommandTypeEnum;
+import editor.BinaryWrapper;
+
+/**
+ * A class representing the Mach-O 64-bit Segment command. It behaves exactly like {@link Segment}, but its
+ * addresses, sizes and file offset are 64-bit fields, and so are the addresses and sizes of its sections.
+ */
+public class Segment64 extends Segment {
+
+    public Segment64(BinaryWrapper binary) throws IOException {
+        super(binary, true);
+        this.commandType = MachOCommandTypeEnum.SEGMENT_64;
+    }
+
+}
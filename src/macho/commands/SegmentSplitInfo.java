@@ -0,0 +1,19 @@
+package macho.commands;
+
+import java.io.IOException;
+
+import macho.MachOCommandTypeEnum;
+import editor.BinaryWrapper;
+
+/**
+ * A class representing the Mach-O segment split info command, which gives the location of the
+ * information the shared cache builder uses to split the segments of a dylib.
+ */
+public class SegmentSplitInfo extends LinkEditData {
+
+    public SegmentSplitInfo(BinaryWrapper binary) throws IOException {
+        super(binary);
+        this.commandType = MachOCommandTypeEnum.SEGMENT_SPLIT_INFO;
+    }
+
+}
@@ -3,6 +3,7 @@ package macho.commands;
 import java.io.IOException;
 
 import macho.MachOCommandTypeEnum;
+import macho.SymbolTable;
 import editor.BinaryWrapper;
 
 /**
@@ -11,7 +12,9 @@ import editor.BinaryWrapper;
 public class SymTab extends AbstractMachOCommand {
 
     private static final int SYMBOL_TABLE_OFFSET_POSITION = 8;
+    private static final int SYMBOL_COUNT_POSITION = 12;
     private static final int STRING_TABLE_OFFSET_POSITION = 16;
+    private static final int STRING_TABLE_SIZE_POSITION = 20;
 
     public SymTab(BinaryWrapper binary) throws IOException {
         super(binary);
@@ -21,8 +24,26 @@ public class SymTab extends AbstractMachOCommand {
     @Override
     public void parseCommand(BinaryWrapper binary) throws IOException {
         super.parseCommand(binary);
-        this.offsetEntries.put(SYMBOL_TABLE_OFFSET_POSITION, binary.getSingleWordAtRelativePosition(SYMBOL_TABLE_OFFSET_POSITION));
-        this.offsetEntries.put(STRING_TABLE_OFFSET_POSITION, binary.getSingleWordAtRelativePosition(STRING_TABLE_OFFSET_POSITION));
+        parseOffsetEntry(binary, SYMBOL_TABLE_OFFSET_POSITION);
+        parseOffsetEntry(binary, STRING_TABLE_OFFSET_POSITION);
+    }
+
+    /**
+     * Reads the symbols this command refers to. The command is read again from the file, so this also works
+     * after the file has been edited and the tables have moved.
+     * @param binary The file containing this command.
+     * @param wide True if the file is a 64-bit Mach-O file, whose symbols are {@code nlist_64} entries.
+     * @return The symbol table.
+     * @throws IOException If the tables do not lie within the file.
+     */
+    public SymbolTable readSymbolTable(BinaryWrapper binary, boolean wide) throws IOException {
+        long start = getCommandStartOffset();
+        return SymbolTable.read(binary,
+                Integer.toUnsignedLong(binary.getSingleWordAtPosition(start + SYMBOL_TABLE_OFFSET_POSITION)),
+                Integer.toUnsignedLong(binary.getSingleWordAtPosition(start + SYMBOL_COUNT_POSITION)),
+                Integer.toUnsignedLong(binary.getSingleWordAtPosition(start + STRING_TABLE_OFFSET_POSITION)),
+                Integer.toUnsignedLong(binary.getSingleWordAtPosition(start + STRING_TABLE_SIZE_POSITION)),
+                wide);
     }
 
 }
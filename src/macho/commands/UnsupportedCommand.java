@@ -0,0 +1,70 @@
+package macho.commands;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import macho.MachOCommandRegistry;
+import macho.MachOCommandTypeEnum;
+import editor.BinaryWrapper;
+
+/**
+ * A class representing any Mach-O command that does not have a more specific class. Only its type and size
+ * are parsed, so it is skipped over correctly but never updated.
+ */
+public class UnsupportedCommand extends AbstractMachOCommand {
+
+    /**
+     * The type codes of the commands known to hold file offsets that no class here updates: LC_SYMSEG,
+     * LC_TWOLEVEL_HINTS, LC_NOTE, LC_ATOM_INFO and LC_FILESET_ENTRY.
+     */
+    private static final int[] COMMANDS_WITH_FILE_OFFSETS = {0x3, 0x16, 0x31, 0x36, 0x35 | MachOCommandRegistry.LC_REQ_DYLD};
+
+    private int commandValue;
+
+    public UnsupportedCommand(BinaryWrapper binary) throws IOException {
+        super(binary);
+        this.commandType = MachOCommandTypeEnum.UNSUPPORTED;
+    }
+
+    @Override
+    public void parseCommand(BinaryWrapper binary) throws IOException {
+        super.parseCommand(binary);
+        commandValue = binary.getSingleWordAtPosition(startOffset);
+    }
+
+    @Override
+    public void writeParsedState(DataOutput output) throws IOException {
+        super.writeParsedState(output);
+        output.writeInt(commandValue);
+    }
+
+    @Override
+    public void readParsedState(DataInput input) throws IOException {
+        super.readParsedState(input);
+        commandValue = input.readInt();
+    }
+
+    /**
+     * Gets the type code of this command, as it was read from the file.
+     * @return The type code.
+     */
+    public int getCommandValue() {
+        return commandValue;
+    }
+
+    /**
+     * Checks if this command is known to hold file offsets, which would be left pointing at the wrong place
+     * if the file changed size.
+     * @return True if the command holds file offsets.
+     */
+    public boolean hasFileOffsets() {
+        for (int value : COMMANDS_WITH_FILE_OFFSETS) {
+            if (value == commandValue) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}